@@ -0,0 +1,86 @@
+package com.wong.grpc.benchmark;
+
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.serializer.LaptopArchiveReader;
+import com.wong.grpc.serializer.LaptopArchiveWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// writing and reading a whole LaptopArchiveWriter archive at different Deflater levels,
+// reading includes parsing the laptops, on one thread and on every core
+// the setup prints the archive size and its ratio to the plain protobuf bytes
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchiveBenchmark {
+
+    @Param({"200000"})
+    public int laptops;
+
+    // Deflater.NO_COMPRESSION, BEST_SPEED, 3, DEFAULT_COMPRESSION and BEST_COMPRESSION
+    @Param({"0", "1", "3", "6", "9"})
+    public int level;
+
+    private Laptop[] dataset;
+    private Path archive;
+    private Path written;
+    private int threads;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataset = Datasets.laptops(Datasets.SEED, laptops);
+        archive = Files.createTempFile("laptops", ".lpta");
+        written = Files.createTempFile("laptops", ".lpta");
+        threads = Runtime.getRuntime().availableProcessors();
+        write(archive);
+
+        long rawBytes = 0;
+        for (Laptop laptop : dataset) {
+            rawBytes += laptop.getSerializedSize();
+        }
+        long size = Files.size(archive);
+        System.out.printf("%nlevel %d: %.1f MB of protobuf in %.1f MB (ratio %.2f)%n",
+                level, rawBytes / 1e6, size / 1e6, (double) rawBytes / size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(archive);
+        Files.deleteIfExists(written);
+    }
+
+    @Benchmark
+    public void encode() throws IOException {
+        write(written);
+    }
+
+    @Benchmark
+    public List<Laptop> decode1Thread() throws IOException {
+        try (LaptopArchiveReader reader = new LaptopArchiveReader(archive)) {
+            return reader.ReadAll(1);
+        }
+    }
+
+    @Benchmark
+    public List<Laptop> decodeAllCores() throws IOException {
+        try (LaptopArchiveReader reader = new LaptopArchiveReader(archive)) {
+            return reader.ReadAll(threads);
+        }
+    }
+
+    private void write(Path file) throws IOException {
+        try (LaptopArchiveWriter writer = new LaptopArchiveWriter(file, level, LaptopArchiveWriter.DEFAULT_BLOCK_SIZE)) {
+            for (Laptop laptop : dataset) {
+                writer.Write(laptop);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.wong.grpc.benchmark;
+
+import com.google.protobuf.MessageLite;
+import com.wong.grpc.pb.*;
+import com.wong.grpc.service.DeflateCodec;
+import io.grpc.Codec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+// the CPU cost of each codec on the messages the services actually send, one message at a time like gRPC does:
+// a SearchLaptop response with one laptop, a BatchGetLaptops response with 64 laptops,
+// a TopRatedLaptops response with 100 ratings and a full ReplicationBatch of 512 saved laptops
+// the setup prints each message's size before and after compression, which is what CompressionPolicy weighs it against
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+
+    @Param({"search", "batchGet", "topRated", "replication"})
+    public String message;
+
+    @Param({"gzip", "deflate-1", "deflate-6", "deflate-9"})
+    public String codecName;
+
+    private Codec codec;
+    private byte[] raw;
+    private byte[] compressed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        codec = codec(codecName);
+        raw = message(message).toByteArray();
+        compressed = compress(codec, raw);
+        System.out.printf("%n%s: %d bytes, %d with %s (ratio %.2f)%n",
+                message, raw.length, compressed.length, codecName, (double) raw.length / compressed.length);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return compress(codec, raw);
+    }
+
+    @Benchmark
+    public byte[] decompress() throws IOException {
+        try (InputStream is = codec.decompress(new ByteArrayInputStream(compressed))) {
+            return is.readAllBytes();
+        }
+    }
+
+    private static MessageLite message(String name) {
+        switch (name) {
+            case "search":
+                return SearchLaptopResponse.newBuilder().setLaptop(Datasets.laptops(Datasets.SEED, 1)[0]).build();
+            case "batchGet": {
+                BatchGetLaptopsResponse.Builder response = BatchGetLaptopsResponse.newBuilder();
+                for (Laptop laptop : Datasets.laptops(Datasets.SEED, 64)) {
+                    response.addLaptops(laptop);
+                }
+                return response.build();
+            }
+            case "topRated": {
+                Random random = new Random(Datasets.SEED);
+                TopRatedLaptopsResponse.Builder response = TopRatedLaptopsResponse.newBuilder();
+                for (Laptop laptop : Datasets.laptops(Datasets.SEED, 100)) {
+                    response.addRatings(RateLaptopResponse.newBuilder()
+                            .setLaptopId(laptop.getId())
+                            .setRatedCount(1 + random.nextInt(1000))
+                            .setAverageScore(1 + 9 * random.nextDouble()));
+                }
+                return response.build();
+            }
+            case "replication": {
+                ReplicationBatch.Builder batch = ReplicationBatch.newBuilder();
+                long sequence = 1;
+                for (Laptop laptop : Datasets.laptops(Datasets.SEED, 512)) {
+                    batch.addEvents(ReplicationEvent.newBuilder().setSequence(sequence++).setLaptopSaved(laptop));
+                }
+                return batch.build();
+            }
+            default:
+                throw new IllegalArgumentException("unknown message: " + name);
+        }
+    }
+
+    private static Codec codec(String name) {
+        switch (name) {
+            case "gzip":
+                return new Codec.Gzip();
+            case "deflate-1":
+                return new DeflateCodec(Deflater.BEST_SPEED);
+            case "deflate-6":
+                return new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+            case "deflate-9":
+                return new DeflateCodec(Deflater.BEST_COMPRESSION);
+            default:
+                throw new IllegalArgumentException("unknown codec: " + name);
+        }
+    }
+
+    private static byte[] compress(Codec codec, byte[] message) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(message.length);
+        try (OutputStream os = codec.compress(buffer)) {
+            os.write(message);
+        }
+        return buffer.toByteArray();
+    }
+}
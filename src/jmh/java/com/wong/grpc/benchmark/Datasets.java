@@ -0,0 +1,71 @@
+package com.wong.grpc.benchmark;
+
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.pb.Memory;
+import com.wong.grpc.sample.Generator;
+import com.wong.grpc.service.LaptopStore;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// shared fixtures of the JMH benchmarks, every dataset comes from a generator with a fixed seed
+// so runs on different machines and commits work on the same laptops
+final class Datasets {
+
+    static final long SEED = 20231214L;
+
+    // LaptopService logs every call, which would otherwise dominate the end-to-end numbers
+    private static final Logger serviceLogger = Logger.getLogger("com.wong.grpc.service");
+
+    private Datasets() {
+    }
+
+    static void silenceServiceLogging() {
+        serviceLogger.setLevel(Level.WARNING);
+    }
+
+    static Laptop[] laptops(long seed, int count) {
+        Generator generator = new Generator(seed);
+        Laptop[] laptops = new Laptop[count];
+        for (int i = 0; i < count; i++) {
+            laptops[i] = generator.NewLaptop();
+        }
+        return laptops;
+    }
+
+    // returns the IDs of the saved laptops in generation order
+    static String[] populate(LaptopStore store, long seed, int count) throws Exception {
+        Generator generator = new Generator(seed);
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            Laptop laptop = generator.NewLaptop();
+            store.Save(laptop);
+            ids[i] = laptop.getId();
+        }
+        return ids;
+    }
+
+    // saves count laptops generated from seed on parallelism threads, for catalogs too large to build one by one
+    // the laptops Generator.WriteLaptops writes for the seed, not the ones populate saves for it
+    static void populate(LaptopStore store, long seed, long count, int parallelism) throws Exception {
+        Generator.GenerateLaptops(seed, count, parallelism, store::Save);
+    }
+
+    // matches roughly 0.3% of generated laptops
+    static Filter selectiveFilter() {
+        return Filter.newBuilder()
+                .setMaxPriceUsd(1600)
+                .setMinCpuCores(6)
+                .setMinCpuGhz(3.0)
+                .setMinRam(Memory.newBuilder().setValue(32).setUnit(Memory.Unit.GIGABYTE))
+                .build();
+    }
+
+    // matches every generated laptop
+    static Filter broadFilter() {
+        return Filter.newBuilder()
+                .setMaxPriceUsd(3500)
+                .build();
+    }
+}
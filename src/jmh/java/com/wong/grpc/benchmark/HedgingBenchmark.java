@@ -0,0 +1,119 @@
+package com.wong.grpc.benchmark;
+
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.service.*;
+import io.grpc.Context;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// two LaptopServer replicas of the same store, one of them stalls now and then like a node in a GC pause
+// compares GetLaptop tail latency without and with hedging, the hedging delay is the p95 a LatencyRecorder observed during setup
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HedgingBenchmark {
+
+    private static final int PROBE_CALLS = 2_000;
+    private static final double PAUSE_PROBABILITY = 0.02;
+    private static final long PAUSE_MILLIS = 200;
+
+    @Param({"false", "true"})
+    public boolean hedging;
+
+    private LaptopServer fast;
+    private LaptopServer slow;
+    private LaptopClient client;
+    private String id;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Datasets.silenceServiceLogging();
+
+        InMemoryLaptopStore store = new InMemoryLaptopStore();
+        Laptop laptop = Datasets.laptops(Datasets.SEED, 1)[0];
+        store.Save(laptop);
+        id = laptop.getId();
+
+        fast = new LaptopServer(0, store, new DiskImageStore("tmp"), new InMemoryRatingStore());
+        slow = new LaptopServer(0, new PausingLaptopStore(store), new DiskImageStore("tmp"), new InMemoryRatingStore());
+        fast.start();
+        slow.start();
+        String target = "static:///localhost:" + fast.getPort() + ",localhost:" + slow.getPort();
+
+        // the probe's calls go through a LatencyRecorder, the hedging client hedges after their p95
+        LatencyRecorder recorder = new LatencyRecorder(PROBE_CALLS);
+        LaptopClient probe = new LaptopClient(target, "round_robin", recorder);
+        for (int i = 0; i < PROBE_CALLS; i++) {
+            probe.getLaptop(id);
+        }
+        probe.shutdown();
+        RetryPolicy retryPolicy = RetryPolicy.fromObservedLatency(recorder, 10, TimeUnit.MILLISECONDS);
+        System.out.printf("%nobserved p95 %.2f ms%n", retryPolicy.getHedgingDelay(TimeUnit.MICROSECONDS) / 1e3);
+
+        client = hedging
+                ? new LaptopClient(target, "round_robin", retryPolicy)
+                : new LaptopClient(target, "round_robin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        client.shutdown();
+        fast.stop();
+        slow.stop();
+    }
+
+    @Benchmark
+    public Laptop getLaptop() {
+        return client.getLaptop(id);
+    }
+
+    // stalls for PAUSE_MILLIS on PAUSE_PROBABILITY of the reads
+    private static class PausingLaptopStore implements LaptopStore {
+        private final LaptopStore store;
+
+        PausingLaptopStore(LaptopStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public void Save(Laptop laptop) throws Exception {
+            store.Save(laptop);
+        }
+
+        @Override
+        public Laptop Find(String id) {
+            pause();
+            return store.Find(id);
+        }
+
+        @Override
+        public Map<String, Laptop> FindAll(Collection<String> ids) {
+            pause();
+            return store.FindAll(ids);
+        }
+
+        @Override
+        public void Search(Context ctx, Filter filter, LaptopStream stream) {
+            pause();
+            store.Search(ctx, filter, stream);
+        }
+
+        private void pause() {
+            if (ThreadLocalRandom.current().nextDouble() < PAUSE_PROBABILITY) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(PAUSE_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.wong.grpc.benchmark;
+
+import com.wong.grpc.pb.*;
+import com.wong.grpc.sample.Generator;
+import com.wong.grpc.service.*;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.ServerBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+// call latency of the embedded in-process mode against a LaptopServer on loopback TCP,
+// sampled so the report has percentiles next to the mean
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InProcessBenchmark {
+
+    @Param({"tcp", "inprocess"})
+    public String transport;
+
+    @Param({"1000"})
+    public int laptops;
+
+    private LaptopServer tcpServer;
+    private EmbeddedLaptopServer embeddedServer;
+    private ManagedChannel channel;
+    private LaptopServiceGrpc.LaptopServiceBlockingStub stub;
+    private Generator generator;
+    private SearchLaptopRequest search;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Datasets.silenceServiceLogging();
+
+        InMemoryLaptopStore store = new InMemoryLaptopStore();
+        Datasets.populate(store, Datasets.SEED, laptops);
+        if (transport.equals("tcp")) {
+            tcpServer = new LaptopServer(ServerBuilder.forPort(0), 0, store, new DiskImageStore("tmp"), new InMemoryRatingStore());
+            tcpServer.start();
+            channel = ManagedChannelBuilder.forAddress("localhost", tcpServer.getPort()).usePlaintext().build();
+        } else {
+            embeddedServer = new EmbeddedLaptopServer(store, new DiskImageStore("tmp"), new InMemoryRatingStore());
+            embeddedServer.start();
+            channel = embeddedServer.newChannel();
+        }
+        stub = LaptopServiceGrpc.newBlockingStub(channel);
+        generator = new Generator(Datasets.SEED + 1);
+        // selective enough to return a handful of laptops per search
+        search = SearchLaptopRequest.newBuilder()
+                .setFilter(Filter.newBuilder().setMaxPriceUsd(1520).setMinCpuCores(4))
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+        if (tcpServer != null) {
+            tcpServer.stop();
+        }
+        if (embeddedServer != null) {
+            embeddedServer.stop();
+        }
+    }
+
+    @Benchmark
+    public CreateLaptopResponse createLaptop() {
+        return stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+    }
+
+    @Benchmark
+    public void searchLaptop(Blackhole blackhole) {
+        Iterator<SearchLaptopResponse> responses = stub.searchLaptop(search);
+        while (responses.hasNext()) {
+            blackhole.consume(responses.next());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.wong.grpc.benchmark;
+
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.serializer.LaptopFileReader;
+import com.wong.grpc.serializer.LaptopFileWriter;
+import com.wong.grpc.serializer.MappedLaptopFileReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// reading a whole multi-record file: the streaming reader against the memory-mapped reader with 1 and 4 threads
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LaptopFileBenchmark {
+
+    @Param({"100000"})
+    public int laptops;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("laptops", ".bin");
+        try (LaptopFileWriter writer = new LaptopFileWriter(file)) {
+            for (Laptop laptop : Datasets.laptops(Datasets.SEED, laptops)) {
+                writer.Write(laptop);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) throws IOException {
+        try (LaptopFileReader reader = new LaptopFileReader(file)) {
+            reader.forEach(blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    public void mapped1Thread(Blackhole blackhole) throws IOException {
+        try (MappedLaptopFileReader reader = new MappedLaptopFileReader(file)) {
+            reader.ForEach(1, blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    public void mapped4Threads(Blackhole blackhole) throws IOException {
+        try (MappedLaptopFileReader reader = new MappedLaptopFileReader(file)) {
+            reader.ForEach(4, blackhole::consume);
+        }
+    }
+}
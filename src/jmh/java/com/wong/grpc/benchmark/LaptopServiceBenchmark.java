@@ -0,0 +1,74 @@
+package com.wong.grpc.benchmark;
+
+import com.wong.grpc.pb.*;
+import com.wong.grpc.sample.Generator;
+import com.wong.grpc.service.DiskImageStore;
+import com.wong.grpc.service.EmbeddedLaptopServer;
+import com.wong.grpc.service.InMemoryLaptopStore;
+import com.wong.grpc.service.InMemoryRatingStore;
+import io.grpc.ManagedChannel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+// end-to-end calls through the in-process transport: stubs, interceptors, marshalling and LaptopService,
+// without the network
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LaptopServiceBenchmark {
+
+    @Param({"10000"})
+    public int laptops;
+
+    private EmbeddedLaptopServer server;
+    private ManagedChannel channel;
+    private LaptopServiceGrpc.LaptopServiceBlockingStub stub;
+    private Generator generator;
+    private String[] ids;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Datasets.silenceServiceLogging();
+
+        InMemoryLaptopStore store = new InMemoryLaptopStore();
+        ids = Datasets.populate(store, Datasets.SEED, laptops);
+        server = new EmbeddedLaptopServer(store, new DiskImageStore("tmp"), new InMemoryRatingStore());
+        server.start();
+        channel = server.newChannel();
+        stub = LaptopServiceGrpc.newBlockingStub(channel);
+        generator = new Generator(Datasets.SEED + 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Benchmark
+    public CreateLaptopResponse createLaptop() {
+        return stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+    }
+
+    @Benchmark
+    public GetLaptopResponse getLaptop() {
+        next = next + 1 == ids.length ? 0 : next + 1;
+        return stub.getLaptop(GetLaptopRequest.newBuilder().setId(ids[next]).build());
+    }
+
+    @Benchmark
+    public void searchLaptop(Blackhole blackhole) {
+        Iterator<SearchLaptopResponse> responses = stub.searchLaptop(
+                SearchLaptopRequest.newBuilder().setFilter(Datasets.selectiveFilter()).build());
+        while (responses.hasNext()) {
+            blackhole.consume(responses.next());
+        }
+    }
+}
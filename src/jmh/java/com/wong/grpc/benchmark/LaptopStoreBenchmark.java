@@ -0,0 +1,89 @@
+package com.wong.grpc.benchmark;
+
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.service.InMemoryLaptopStore;
+import io.grpc.Context;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Save, Find and Search of InMemoryLaptopStore at different catalog sizes
+// 10M laptops take roughly 20 GB of heap, run them with: -p laptops=10000000 -jvmArgsAppend -Xmx24g
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class LaptopStoreBenchmark {
+
+    private static final int SAVE_BATCH = 10_000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int laptops;
+
+    private InMemoryLaptopStore store;
+    private String[] ids;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        store = new InMemoryLaptopStore();
+        ids = Datasets.populate(store, Datasets.SEED, laptops);
+    }
+
+    @Benchmark
+    public Laptop find() {
+        next = next + 1 == ids.length ? 0 : next + 1;
+        return store.Find(ids[next]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void searchSelective(Blackhole blackhole) {
+        search(Datasets.selectiveFilter(), blackhole);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void searchBroad(Blackhole blackhole) {
+        search(Datasets.broadFilter(), blackhole);
+    }
+
+    private void search(Filter filter, Blackhole blackhole) {
+        store.Search(Context.ROOT, filter, blackhole::consume);
+    }
+
+    // Save can't be repeated with the same laptop, so every invocation saves a fresh batch into a freshly
+    // filled store and the time is reported per saved laptop
+    @State(Scope.Thread)
+    public static class SaveState {
+        InMemoryLaptopStore store;
+        Laptop[] batch;
+
+        @Setup(Level.Trial)
+        public void generateBatch() {
+            batch = Datasets.laptops(Datasets.SEED + 1, SAVE_BATCH);
+        }
+
+        @Setup(Level.Invocation)
+        public void fillStore(LaptopStoreBenchmark benchmark) throws Exception {
+            store = new InMemoryLaptopStore();
+            Datasets.populate(store, Datasets.SEED, benchmark.laptops);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(SAVE_BATCH)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public InMemoryLaptopStore save(SaveState state) throws Exception {
+        for (Laptop laptop : state.batch) {
+            state.store.Save(laptop);
+        }
+        return state.store;
+    }
+}
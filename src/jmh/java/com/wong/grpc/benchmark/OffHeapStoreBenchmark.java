@@ -0,0 +1,94 @@
+package com.wong.grpc.benchmark;
+
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.service.InMemoryLaptopStore;
+import com.wong.grpc.service.LaptopStore;
+import com.wong.grpc.service.OffHeapLaptopStore;
+import io.grpc.Context;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+// heap footprint and GC cost of a catalog in InMemoryLaptopStore against OffHeapLaptopStore
+// every store runs in a fork of its own, so one doesn't pay for the other's garbage
+// allocate churns the young generation with the catalog in the old one, its time per op is mostly
+// the young collections, which grow with the references they have to trace from the catalog
+// the setup prints the heap per laptop after a full GC and the direct memory of the off-heap store,
+// the teardown the collections and GC time of the run
+// at 1M laptops the heap store holds ~940 bytes of heap per laptop, the off-heap one ~55 of heap and ~270 direct,
+// so 10M laptops need about 10 GB of heap, or 0.6 GB of heap and 3 GB of direct memory:
+// -p laptops=10000000 -jvmArgsAppend "-Xmx4g -XX:MaxDirectMemorySize=4g"
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class OffHeapStoreBenchmark {
+
+    @Param({"1000000"})
+    public int laptops;
+
+    @Param({"heap", "offheap"})
+    public String store;
+
+    private LaptopStore catalog;
+    private Filter filter;
+    private long[] gcBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Datasets.silenceServiceLogging();
+        OffHeapLaptopStore offHeapStore = store.equals("offheap") ? new OffHeapLaptopStore() : null;
+        catalog = offHeapStore != null ? offHeapStore : new InMemoryLaptopStore();
+        long start = System.nanoTime();
+        Datasets.populate(catalog, Datasets.SEED, laptops, Runtime.getRuntime().availableProcessors());
+        long loadMillis = (System.nanoTime() - start) / 1_000_000;
+
+        start = System.nanoTime();
+        System.gc();
+        long fullGcMillis = (System.nanoTime() - start) / 1_000_000;
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.printf("%n%s store, %d laptops, loaded in %d ms, System.gc() in %d ms%n",
+                store, laptops, loadMillis, fullGcMillis);
+        System.out.printf("heap used after full GC: %d MB (%d bytes per laptop)%n", heapUsed >> 20, heapUsed / laptops);
+        if (offHeapStore != null) {
+            System.out.printf("off-heap: %d MB used, %d MB reserved%n",
+                    offHeapStore.getUsedBytes() >> 20, offHeapStore.getReservedBytes() >> 20);
+        }
+
+        filter = Filter.newBuilder().setMaxPriceUsd(1700).setMinCpuCores(4).setMinCpuGhz(2.5).build();
+        gcBefore = gcTotals();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long[] gcAfter = gcTotals();
+        System.out.printf("%n%s store: %d collections, %d ms in GC%n",
+                store, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+    }
+
+    @Benchmark
+    public void search(Blackhole blackhole) {
+        catalog.Search(Context.ROOT, filter, blackhole::consume);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] allocate() {
+        return new byte[64 * 1024];
+    }
+
+    private static long[] gcTotals() {
+        long collections = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{collections, millis};
+    }
+}
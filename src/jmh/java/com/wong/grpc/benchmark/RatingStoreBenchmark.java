@@ -0,0 +1,73 @@
+package com.wong.grpc.benchmark;
+
+import com.wong.grpc.service.InMemoryRatingStore;
+import com.wong.grpc.service.LaptopRating;
+import com.wong.grpc.service.Rating;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// contended RatingStore.Add: with one laptop every thread merges into the same entry, with many laptops
+// the threads mostly update different entries
+// addAndTopRated follows every vote with a query of the top 10, which walks the bands' heads only
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RatingStoreBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int laptops;
+
+    private InMemoryRatingStore store;
+    private String[] ids;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        store = new InMemoryRatingStore();
+        ids = new String[laptops];
+        for (int i = 0; i < laptops; i++) {
+            ids[i] = Datasets.laptops(Datasets.SEED + i, 1)[0].getId();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Rating add1Thread() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Rating add4Threads() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Rating add16Threads() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Rating add64Threads() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<LaptopRating> addAndTopRated1Thread() {
+        add();
+        return store.TopRated(10, 10);
+    }
+
+    private Rating add() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return store.Add(ids[random.nextInt(ids.length)], 1 + random.nextInt(10));
+    }
+}
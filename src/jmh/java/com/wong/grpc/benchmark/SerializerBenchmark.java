@@ -0,0 +1,60 @@
+package com.wong.grpc.benchmark;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.serializer.Serializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// protobuf binary and JSON encoding of a single laptop through Serializer
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializerBenchmark {
+
+    private final Serializer serializer = new Serializer();
+    private Laptop laptop;
+    private byte[] binary;
+    private String json;
+
+    @Setup
+    public void setUp() throws InvalidProtocolBufferException {
+        laptop = Datasets.laptops(Datasets.SEED, 1)[0];
+        binary = serializer.ToBinary(laptop);
+        json = serializer.ToJson(laptop);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return serializer.ToBinary(laptop);
+    }
+
+    @Benchmark
+    public Laptop binaryDecode() throws InvalidProtocolBufferException {
+        return serializer.FromBinary(binary);
+    }
+
+    @Benchmark
+    public Laptop binaryRoundTrip() throws InvalidProtocolBufferException {
+        return serializer.FromBinary(serializer.ToBinary(laptop));
+    }
+
+    @Benchmark
+    public String jsonEncode() throws InvalidProtocolBufferException {
+        return serializer.ToJson(laptop);
+    }
+
+    @Benchmark
+    public Laptop jsonDecode() throws InvalidProtocolBufferException {
+        return serializer.FromJson(json);
+    }
+
+    @Benchmark
+    public Laptop jsonRoundTrip() throws InvalidProtocolBufferException {
+        return serializer.FromJson(serializer.ToJson(laptop));
+    }
+}
@@ -0,0 +1,370 @@
+package com.wong.grpc.loadgen;
+
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.pb.Memory;
+import com.wong.grpc.sample.Generator;
+import com.wong.grpc.service.LaptopAsyncClient;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// drives a LaptopServer with a configurable mix of create, search, upload and rate calls built by Generator
+//
+// open loop:   requests are sent at a fixed arrival rate no matter how fast the server answers, and latency is
+//              measured from the time a request was scheduled to be sent, so queueing shows up in the numbers
+// closed loop: N workers each send the next request as soon as the previous one finished; with --rate the
+//              latencies are corrected for coordinated omission against the expected interval per worker,
+//              without it the workers run flat out and latencies are reported as measured
+//
+// --rate is in requests per second and defaults to 500 in open loop only
+// usage: LoadGenerator [--target localhost:8080] [--mode open|closed] [--rate 500] [--workers 8]
+//                      [--duration 30s] [--mix create=4,search=3,upload=1,rate=2] [--image tmp/laptop.jpg]
+//                      [--json report.json]
+public class LoadGenerator {
+
+    private static final Logger logger = Logger.getLogger(LoadGenerator.class.getName());
+
+    // laptops created before the run, so rate and upload calls have IDs to use from the start
+    private static final int SEED_LAPTOPS = 100;
+    private static final int MAX_OUTSTANDING_REQUESTS = 10_000;
+    private static final double DEFAULT_OPEN_RATE = 500;
+    // options without a default, only set when given
+    private static final Set<String> OPTIONAL = Set.of("rate", "json");
+
+    public enum Operation {
+        CREATE,
+        SEARCH,
+        UPLOAD,
+        RATE,
+    }
+
+    private final LaptopAsyncClient client;
+    private final Path image;
+    private final Operation[] mix;
+    private final List<String> laptopIDs;
+    private final ThreadLocal<Generator> generators;
+    private final Map<Operation, LatencyHistogram> histograms;
+    // calls that succeeded, the histograms also hold the samples coordinated-omission correction fills in
+    private final Map<Operation, AtomicLong> completed;
+    private final Map<Operation, AtomicLong> errors;
+    private long elapsedNanos;
+
+    public LoadGenerator(LaptopAsyncClient client, Map<Operation, Integer> weights, Path image) {
+        this.client = client;
+        this.image = image;
+        this.laptopIDs = Collections.synchronizedList(new ArrayList<>());
+        this.generators = ThreadLocal.withInitial(Generator::new);
+        this.histograms = new EnumMap<>(Operation.class);
+        this.completed = new EnumMap<>(Operation.class);
+        this.errors = new EnumMap<>(Operation.class);
+
+        // weights are expanded into a table that is indexed at random
+        List<Operation> table = new ArrayList<>();
+        for (Map.Entry<Operation, Integer> weight : weights.entrySet()) {
+            for (int i = 0; i < weight.getValue(); i++) {
+                table.add(weight.getKey());
+            }
+            histograms.put(weight.getKey(), new LatencyHistogram());
+            completed.put(weight.getKey(), new AtomicLong());
+            errors.put(weight.getKey(), new AtomicLong());
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("operation mix is empty");
+        }
+        this.mix = table.toArray(new Operation[0]);
+    }
+
+    public void seed() throws Exception {
+        List<CompletableFuture<String>> created = new ArrayList<>();
+        for (int i = 0; i < SEED_LAPTOPS; i++) {
+            created.add(client.createLaptop(generators.get().NewLaptop()));
+        }
+        for (CompletableFuture<String> id : created) {
+            laptopIDs.add(id.get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    public void runOpenLoop(double ratePerSecond, Duration duration) throws InterruptedException {
+        long intervalNanos = (long) (1e9 / ratePerSecond);
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        List<CompletableFuture<?>> inFlight = new ArrayList<>();
+
+        for (long intended = start; intended < end; intended += intervalNanos) {
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            Operation operation = nextOperation();
+            long scheduled = intended;
+            inFlight.add(execute(operation).whenComplete((result, t) -> record(operation, scheduled, t, 0)));
+            inFlight.removeIf(CompletableFuture::isDone);
+        }
+
+        awaitAll(inFlight);
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    // ratePerSecond <= 0 runs the workers flat out without coordinated-omission correction
+    public void runClosedLoop(int workers, double ratePerSecond, Duration duration) throws InterruptedException {
+        long expectedIntervalMicros = ratePerSecond > 0 ? (long) (1e6 * workers / ratePerSecond) : 0;
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i < workers; i++) {
+            executor.submit(() -> {
+                while (System.nanoTime() < end) {
+                    Operation operation = nextOperation();
+                    long sent = System.nanoTime();
+                    Throwable error = null;
+                    try {
+                        execute(operation).get();
+                    } catch (ExecutionException e) {
+                        error = e.getCause();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    record(operation, sent, error, expectedIntervalMicros);
+                }
+            });
+        }
+
+        executor.shutdown();
+        if (!executor.awaitTermination(duration.toNanos() + TimeUnit.SECONDS.toNanos(30), TimeUnit.NANOSECONDS)) {
+            executor.shutdownNow();
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    public CompletableFuture<?> execute(Operation operation) {
+        Generator generator = generators.get();
+        switch (operation) {
+            case CREATE:
+                return client.createLaptop(generator.NewLaptop()).thenAccept(laptopIDs::add);
+            case SEARCH:
+                return consume(client.searchLaptop(randomFilter(generator)));
+            case UPLOAD:
+                return client.uploadImage(randomLaptopID(), image);
+            case RATE:
+                LaptopAsyncClient.RateLaptopStream stream = client.rateLaptop();
+                CompletableFuture<?> rated = stream.rate(randomLaptopID(), generator.NewLaptopScore());
+                stream.complete();
+                return rated;
+            default:
+                throw new IllegalArgumentException("unknown operation: " + operation);
+        }
+    }
+
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        double seconds = elapsedNanos / 1e9;
+        text.append(String.format("%-8s %9s %7s %10s %9s %9s %9s %9s %9s%n",
+                "method", "count", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Operation operation : histograms.keySet()) {
+            LatencyHistogram histogram = histograms.get(operation);
+            text.append(String.format("%-8s %9d %7d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    operation.name().toLowerCase(),
+                    completed.get(operation).get(),
+                    errors.get(operation).get(),
+                    completed.get(operation).get() / seconds,
+                    histogram.percentile(50) / 1e3,
+                    histogram.percentile(90) / 1e3,
+                    histogram.percentile(99) / 1e3,
+                    histogram.percentile(99.9) / 1e3,
+                    histogram.getMax() / 1e3));
+        }
+        return text.toString();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"duration_seconds\": ").append(elapsedNanos / 1e9).append(",\n  \"methods\": {");
+        String separator = "\n";
+        for (Operation operation : histograms.keySet()) {
+            LatencyHistogram histogram = histograms.get(operation);
+            json.append(separator)
+                    .append("    \"").append(operation.name().toLowerCase()).append("\": {")
+                    .append("\"count\": ").append(completed.get(operation).get())
+                    .append(", \"errors\": ").append(errors.get(operation).get())
+                    .append(", \"throughput\": ").append(completed.get(operation).get() / (elapsedNanos / 1e9))
+                    .append(", \"p50_us\": ").append(histogram.percentile(50))
+                    .append(", \"p90_us\": ").append(histogram.percentile(90))
+                    .append(", \"p99_us\": ").append(histogram.percentile(99))
+                    .append(", \"p999_us\": ").append(histogram.percentile(99.9))
+                    .append(", \"max_us\": ").append(histogram.getMax())
+                    .append("}");
+            separator = ",\n";
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    public LatencyHistogram getHistogram(Operation operation) {
+        return histograms.get(operation);
+    }
+
+    public long getCompleted(Operation operation) {
+        return completed.get(operation).get();
+    }
+
+    public long getErrors(Operation operation) {
+        return errors.get(operation).get();
+    }
+
+    private void record(Operation operation, long sentNanos, Throwable error, long expectedIntervalMicros) {
+        if (error != null) {
+            // only the first failure is logged, the rest are counted
+            if (errors.get(operation).incrementAndGet() == 1) {
+                logger.warning(operation.name().toLowerCase() + " failed: " + error.getMessage());
+            }
+            return;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentNanos);
+        completed.get(operation).incrementAndGet();
+        histograms.get(operation).recordCorrected(micros, expectedIntervalMicros);
+    }
+
+    private Operation nextOperation() {
+        return mix[ThreadLocalRandom.current().nextInt(mix.length)];
+    }
+
+    private String randomLaptopID() {
+        synchronized (laptopIDs) {
+            return laptopIDs.get(ThreadLocalRandom.current().nextInt(laptopIDs.size()));
+        }
+    }
+
+    private static Filter randomFilter(Generator generator) {
+        Laptop laptop = generator.NewLaptop();
+        return Filter.newBuilder()
+                .setMaxPriceUsd(laptop.getPriceUsd())
+                .setMinCpuCores(laptop.getCpu().getNumberCores())
+                .setMinCpuGhz(laptop.getCpu().getMinGhz())
+                .setMinRam(Memory.newBuilder().setValue(8).setUnit(Memory.Unit.GIGABYTE))
+                .build();
+    }
+
+    private static CompletableFuture<Integer> consume(Flow.Publisher<Laptop> publisher) {
+        CompletableFuture<Integer> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            private int count;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Laptop laptop) {
+                count++;
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(count);
+            }
+        });
+        return done;
+    }
+
+    private static void awaitAll(List<CompletableFuture<?>> futures) throws InterruptedException {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // failures are already counted per operation
+        }
+    }
+
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("mix entries look like create=4: " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                weights.put(Operation.valueOf(parts[0].trim().toUpperCase()), weight);
+            }
+        }
+        return weights;
+    }
+
+    static Duration parseDuration(String duration) {
+        if (duration.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(duration.substring(0, duration.length() - 2)));
+        }
+        if (duration.endsWith("m")) {
+            return Duration.ofMinutes(Long.parseLong(duration.substring(0, duration.length() - 1)));
+        }
+        if (duration.endsWith("s")) {
+            return Duration.ofSeconds(Long.parseLong(duration.substring(0, duration.length() - 1)));
+        }
+        return Duration.ofSeconds(Long.parseLong(duration));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("target", "localhost:8080");
+        options.put("mode", "open");
+        options.put("workers", "8");
+        options.put("duration", "30s");
+        options.put("mix", "create=4,search=3,upload=1,rate=2");
+        options.put("image", "tmp/laptop.jpg");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2)) && !OPTIONAL.contains(args[i].substring(2))) {
+                throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        // the service logs every call, which would only slow the load generator down
+        Logger.getLogger("com.wong.grpc.service").setLevel(Level.WARNING);
+
+        ManagedChannel channel = ManagedChannelBuilder.forTarget(options.get("target")).usePlaintext().build();
+        try {
+            LoadGenerator loadGenerator = new LoadGenerator(
+                    new LaptopAsyncClient(channel, MAX_OUTSTANDING_REQUESTS),
+                    parseMix(options.get("mix")),
+                    Path.of(options.get("image")));
+            loadGenerator.seed();
+
+            Duration duration = parseDuration(options.get("duration"));
+            boolean closed = options.get("mode").equals("closed");
+            double rate = options.containsKey("rate") ? Double.parseDouble(options.get("rate")) : closed ? 0 : DEFAULT_OPEN_RATE;
+            logger.info("running " + options.get("mode") + " loop against " + options.get("target") + " for " + duration);
+            if (closed) {
+                loadGenerator.runClosedLoop(Integer.parseInt(options.get("workers")), rate, duration);
+            } else {
+                loadGenerator.runOpenLoop(rate, duration);
+            }
+
+            System.out.print(loadGenerator.toText());
+            if (options.containsKey("json")) {
+                Files.writeString(Path.of(options.get("json")), loadGenerator.toJson());
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "cannot write report: " + e.getMessage());
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -2,19 +2,45 @@ package com.wong.grpc.sample;
 
 import com.google.protobuf.Timestamp;
 import com.wong.grpc.pb.*;
+import com.wong.grpc.serializer.LaptopFileWriter;
+import com.wong.grpc.serializer.LaptopSink;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Instant;
-import java.util.Random;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.random.RandomGenerator;
 
 public class Generator {
 
-    private Random rand;
+    // bulk generation hands out laptops in chunks of this size, each chunk gets its own split of the seed
+    private static final int CHUNK_SIZE = 10_000;
+    // seeded laptops are updated at a random time in the year before this instant instead of now
+    private static final Instant SEEDED_CLOCK = Instant.parse("2024-01-01T00:00:00Z");
+    private static final long SECONDS_PER_YEAR = 365L * 24 * 60 * 60;
+
+    private RandomGenerator rand;
+    private boolean seeded;
 
     public Generator() {
         rand = new Random();
     }
 
+    // the same seed always generates the same laptops, IDs and timestamps included, which keeps
+    // benchmark and capacity test datasets repeatable
+    public Generator(long seed) {
+        this(new SplittableRandom(seed), true);
+    }
+
+    private Generator(RandomGenerator rand, boolean seeded) {
+        this.rand = rand;
+        this.seeded = seeded;
+    }
+
     public Keyboard NewKeyboard() {
         return Keyboard.newBuilder()
                 .setLayout(randomKeyboardLayout())
@@ -121,7 +147,7 @@ public class Generator {
         int releaseYear = randomInt(2015, 2019);
 
         return Laptop.newBuilder()
-                .setId(UUID.randomUUID().toString())
+                .setId(randomID())
                 .setBrand(brand)
                 .setName(name)
                 .setCpu(NewCPU())
@@ -134,7 +160,7 @@ public class Generator {
                 .setWeightKg(weightKg)
                 .setPriceUsd(priceUsd)
                 .setReleaseYear(releaseYear)
-                .setUpdatedAt(timestampNow())
+                .setUpdatedAt(updatedAt())
                 .build();
     }
 
@@ -142,8 +168,96 @@ public class Generator {
         return randomInt(1, 10);
     }
 
-    private Timestamp timestampNow() {
-        Instant now = Instant.now();
+    // writes count laptops generated from seed into a multi-record laptop file (see LaptopFileWriter), which
+    // LaptopFileReader, MappedLaptopFileReader and so CatalogPreloader read
+    // chunks are generated on parallelism threads and written in order, so the file only depends on the seed
+    public static void WriteLaptops(long seed, long count, int parallelism, Path file) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        SplittableRandom root = new SplittableRandom(seed);
+        Queue<Future<Laptop[]>> pending = new ArrayDeque<>();
+
+        try (LaptopFileWriter writer = new LaptopFileWriter(file)) {
+            long submitted = 0;
+            while (submitted < count || !pending.isEmpty()) {
+                // a few chunks ahead of the writer keep every thread busy without buffering the whole file
+                while (submitted < count && pending.size() < 2 * parallelism) {
+                    int size = (int) Math.min(CHUNK_SIZE, count - submitted);
+                    Generator generator = new Generator(root.split(), true);
+                    pending.add(executor.submit(() -> generator.NewLaptops(size)));
+                    submitted += size;
+                }
+                for (Laptop laptop : await(pending.poll())) {
+                    writer.Write(laptop);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // hands count laptops generated from seed to the sink from parallelism threads at once, the same laptops
+    // WriteLaptops writes for that seed in no particular order; the first exception of the sink stops the generation and is thrown
+    public static void GenerateLaptops(long seed, long count, int parallelism, LaptopSink sink) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        SplittableRandom root = new SplittableRandom(seed);
+        List<Future<?>> chunks = new ArrayList<>();
+
+        try {
+            for (long submitted = 0; submitted < count; submitted += CHUNK_SIZE) {
+                int size = (int) Math.min(CHUNK_SIZE, count - submitted);
+                Generator generator = new Generator(root.split(), true);
+                chunks.add(executor.submit(() -> {
+                    for (int i = 0; i < size; i++) {
+                        sink.accept(generator.NewLaptop());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> chunk : chunks) {
+                try {
+                    chunk.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // the serialized size is worked out here as well, protobuf keeps it, so the writer thread only copies bytes
+    private Laptop[] NewLaptops(int count) {
+        Laptop[] laptops = new Laptop[count];
+        for (int i = 0; i < count; i++) {
+            laptops[i] = NewLaptop();
+            laptops[i].getSerializedSize();
+        }
+        return laptops;
+    }
+
+    private static Laptop[] await(Future<Laptop[]> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while generating laptops", e);
+        } catch (ExecutionException e) {
+            throw new IOException("cannot generate laptops: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private String randomID() {
+        if (!seeded) {
+            return UUID.randomUUID().toString();
+        }
+        // version 4 UUID built from the seeded random instead of SecureRandom, which is also much faster
+        long msb = (rand.nextLong() & ~0xF000L) | 0x4000L;
+        long lsb = (rand.nextLong() & ~(0xC000L << 48)) | (0x8000L << 48);
+        return new UUID(msb, lsb).toString();
+    }
+
+    private Timestamp updatedAt() {
+        Instant now = seeded ? SEEDED_CLOCK.minusSeconds(rand.nextLong(SECONDS_PER_YEAR)) : Instant.now();
         return Timestamp.newBuilder()
                 .setSeconds(now.getEpochSecond())
                 .setNanos(now.getNano())
@@ -247,10 +361,20 @@ public class Generator {
         }
     }
 
-    public static void main(String[] args) {
-        Generator generator = new Generator();
-        Laptop laptop = generator.NewLaptop();
-        System.out.println(laptop);
+    // with no arguments prints one laptop, otherwise writes a dataset: Generator <count> <file> [seed]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            Generator generator = new Generator();
+            Laptop laptop = generator.NewLaptop();
+            System.out.println(laptop);
+            return;
+        }
+
+        long count = Long.parseLong(args[0]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        long start = System.nanoTime();
+        WriteLaptops(seed, count, Runtime.getRuntime().availableProcessors(), Path.of(args[1]));
+        System.out.printf("wrote %d laptops to %s in %.1f s%n", count, args[1], (System.nanoTime() - start) / 1e9);
     }
 
 }
@@ -0,0 +1,197 @@
+package com.wong.grpc.serializer;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.wong.grpc.pb.Laptop;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.wong.grpc.serializer.LaptopArchiveWriter.*;
+
+// reads archives written by LaptopArchiveWriter
+// only the index is loaded up front, blocks are read and decompressed on demand and independently of each other,
+// so lookups touch only the blocks they need and whole archives can be decompressed by several threads
+public class LaptopArchiveReader implements Closeable {
+
+    private final FileChannel channel;
+    private final List<Block> blocks;
+    private final long recordCount;
+
+    public LaptopArchiveReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = LaptopFileReader.readFully(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.get() != VERSION) {
+                throw new IOException("not a laptop archive of version " + VERSION + ": " + file);
+            }
+
+            ByteBuffer trailer = LaptopFileReader.readFully(channel, channel.size() - TRAILER_SIZE, TRAILER_SIZE);
+            long indexOffset = trailer.getLong();
+            int blockCount = trailer.getInt();
+            this.recordCount = trailer.getLong();
+            if (trailer.getInt() != MAGIC) {
+                throw new IOException("laptop archive is truncated: " + file);
+            }
+
+            int indexLength = (int) (channel.size() - TRAILER_SIZE - indexOffset);
+            DataInputStream index = new DataInputStream(new ByteArrayInputStream(
+                    LaptopFileReader.readFully(channel, indexOffset, indexLength).array()));
+            this.blocks = new ArrayList<>(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                blocks.add(new Block(index.readLong(), index.readInt(), index.readInt(), index.readInt(),
+                        index.readInt(), index.readUTF(), index.readUTF()));
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getBlockCount() {
+        return blocks.size();
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    // decompresses only the blocks whose key range covers the ID, returns null when the laptop isn't in the archive
+    public Laptop Find(String id) throws IOException {
+        for (int i = 0; i < blocks.size(); i++) {
+            Block block = blocks.get(i);
+            if (id.compareTo(block.minID) < 0 || id.compareTo(block.maxID) > 0) {
+                continue;
+            }
+            for (Laptop laptop : ReadBlock(i)) {
+                if (laptop.getId().equals(id)) {
+                    return laptop;
+                }
+            }
+        }
+        return null;
+    }
+
+    // safe to call from several threads at once
+    public List<Laptop> ReadBlock(int number) throws IOException {
+        Block block = blocks.get(number);
+        byte[] compressed = new byte[block.compressedLength];
+        LaptopFileReader.readFully(channel, block.offset, ByteBuffer.wrap(compressed));
+
+        byte[] records = new byte[block.uncompressedLength];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < records.length && !inflater.finished()) {
+                int n = inflater.inflate(records, length, records.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != records.length) {
+                throw new IOException("block at offset " + block.offset + " is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupted block at offset " + block.offset + ": " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(records);
+        if ((int) crc.getValue() != block.crc) {
+            throw new IOException("checksum mismatch in block at offset " + block.offset);
+        }
+
+        List<Laptop> laptops = new ArrayList<>(block.records);
+        CodedInputStream input = CodedInputStream.newInstance(records);
+        for (int i = 0; i < block.records; i++) {
+            laptops.add(input.readMessage(Laptop.parser(), ExtensionRegistryLite.getEmptyRegistry()));
+        }
+        return laptops;
+    }
+
+    // decompresses every block on parallelism threads, the laptops are returned in archive order
+    public List<Laptop> ReadAll(int parallelism) throws IOException {
+        List<Laptop> laptops = new ArrayList<>((int) Math.min(recordCount, Integer.MAX_VALUE));
+        ForEachBlock(parallelism, laptops::addAll);
+        return laptops;
+    }
+
+    // hands the laptops of every block to the consumer in archive order
+    // at most 2 * parallelism blocks are submitted at a time, the one the consumer gets included: parallelism
+    // threads decompress while about as many finished blocks wait their turn, which keeps the threads busy when
+    // block sizes vary; peak memory is that many decompressed blocks, not the whole archive
+    public void ForEachBlock(int parallelism, Consumer<List<Laptop>> consumer) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<List<Laptop>>> pending = new ArrayList<>();
+            int next = 0;
+            for (int i = 0; i < blocks.size(); i++) {
+                while (next < blocks.size() && next < i + 2 * parallelism) {
+                    int number = next++;
+                    pending.add(executor.submit(() -> ReadBlock(number)));
+                }
+                consumer.accept(await(pending.get(i)));
+                pending.set(i, null);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading laptop archive", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("cannot read laptop archive: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static class Block {
+        final long offset;
+        final int compressedLength;
+        final int uncompressedLength;
+        final int records;
+        final int crc;
+        final String minID;
+        final String maxID;
+
+        Block(long offset, int compressedLength, int uncompressedLength, int records, int crc,
+              String minID, String maxID) {
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.uncompressedLength = uncompressedLength;
+            this.records = records;
+            this.crc = crc;
+            this.minID = minID;
+            this.maxID = maxID;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.wong.grpc.serializer;
+
+import com.google.protobuf.CodedOutputStream;
+import com.wong.grpc.pb.Laptop;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+
+// writes a compressed laptop archive, numbers are big-endian
+//
+//   header   magic "LPTA" (int), version (byte), compression level (byte)
+//   blocks   raw deflate of a run of length-delimited Laptop records, about blockSize bytes before compression
+//   index    for every block: offset (long), compressed and uncompressed length (int), record count (int),
+//            CRC32C of the uncompressed records (int),
+//            smallest and largest laptop ID in the block (modified UTF-8 as written by DataOutput.writeUTF)
+//   trailer  index offset (long), block count (int), record count (long), magic "LPTA" (int)
+//
+// catalog data is very repetitive, so whole blocks compress far better than single messages;
+// the key ranges let a reader skip every block that can't hold a laptop, which works best for archives
+// written in ID order
+public class LaptopArchiveWriter implements Closeable {
+
+    static final int MAGIC = 0x4C505441;
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 6;
+    static final int TRAILER_SIZE = 24;
+
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private final FileChannel channel;
+    private final int blockSize;
+    private final Deflater deflater;
+    private final CRC32C crc;
+    private final ByteArrayOutputStream indexBuffer;
+    private final DataOutputStream index;
+    private byte[] block;
+    private byte[] compressed;
+    private int blockLength;
+    private int blockRecords;
+    private String minID;
+    private String maxID;
+    private long records;
+    private int blocks;
+    private long position;
+
+    public LaptopArchiveWriter(Path file) throws IOException {
+        this(file, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+    }
+
+    // level is a Deflater level from 0 (stored) to 9 (smallest), or -1 for the default
+    public LaptopArchiveWriter(Path file, int level, int blockSize) throws IOException {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("block size must be positive: " + blockSize);
+        }
+        this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.blockSize = blockSize;
+        // raw deflate without zlib header and checksum, the index keeps a CRC of its own
+        this.deflater = new Deflater(level, true);
+        this.crc = new CRC32C();
+        this.indexBuffer = new ByteArrayOutputStream();
+        this.index = new DataOutputStream(indexBuffer);
+        this.block = new byte[blockSize];
+        this.compressed = new byte[blockSize];
+
+        writeFully(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION).put((byte) level).flip());
+    }
+
+    public void Write(Laptop laptop) throws IOException {
+        int size = laptop.getSerializedSize();
+        int needed = CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+        if (blockLength > 0 && blockLength + needed > blockSize) {
+            flushBlock();
+        }
+        if (blockLength + needed > block.length) {
+            block = Arrays.copyOf(block, blockLength + needed);
+        }
+
+        CodedOutputStream output = CodedOutputStream.newInstance(block, blockLength, needed);
+        output.writeUInt32NoTag(size);
+        laptop.writeTo(output);
+        output.checkNoSpaceLeft();
+
+        String id = laptop.getId();
+        if (minID == null || id.compareTo(minID) < 0) {
+            minID = id;
+        }
+        if (maxID == null || id.compareTo(maxID) > 0) {
+            maxID = id;
+        }
+        blockLength += needed;
+        blockRecords++;
+        records++;
+    }
+
+    public long getRecordCount() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (blockRecords > 0) {
+                flushBlock();
+            }
+            long indexOffset = position;
+            writeFully(ByteBuffer.wrap(indexBuffer.toByteArray()));
+            writeFully(ByteBuffer.allocate(TRAILER_SIZE)
+                    .putLong(indexOffset)
+                    .putInt(blocks)
+                    .putLong(records)
+                    .putInt(MAGIC)
+                    .flip());
+        } finally {
+            deflater.end();
+            channel.close();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+
+        crc.reset();
+        crc.update(block, 0, blockLength);
+        index.writeLong(position);
+        index.writeInt(compressedLength);
+        index.writeInt(blockLength);
+        index.writeInt(blockRecords);
+        index.writeInt((int) crc.getValue());
+        index.writeUTF(minID);
+        index.writeUTF(maxID);
+
+        writeFully(ByteBuffer.wrap(compressed, 0, compressedLength));
+        blocks++;
+        blockLength = 0;
+        blockRecords = 0;
+        minID = null;
+        maxID = null;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.wong.grpc.serializer;
+
+// layout of multi-laptop files, all numbers are big-endian
+//
+//   header   magic "LPTF" (int), version (byte), flags (byte)
+//   blocks   payload length (int), record count (int), CRC32C of the payload (int), payload
+//            a payload is a run of length-delimited Laptop records, the same framing as Laptop.writeDelimitedTo
+//   index    only with FLAG_INDEXED: for every block its file offset (long) and first record number (long)
+//   trailer  only with FLAG_INDEXED: index offset (long), block count (int), record count (long)
+final class LaptopFileFormat {
+
+    static final int MAGIC = 0x4C505446;
+    static final byte VERSION = 1;
+    static final byte FLAG_INDEXED = 1;
+
+    static final int HEADER_SIZE = 6;
+    static final int BLOCK_HEADER_SIZE = 12;
+    static final int INDEX_ENTRY_SIZE = 16;
+    static final int TRAILER_SIZE = 20;
+
+    private LaptopFileFormat() {
+    }
+}
@@ -0,0 +1,221 @@
+package com.wong.grpc.serializer;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.wong.grpc.pb.Laptop;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32C;
+
+import static com.wong.grpc.serializer.LaptopFileFormat.*;
+
+// reads a multi-record file written by LaptopFileWriter
+// iterators load one block at a time and parse a record only when it is asked for, so memory stays at about
+// one block no matter how large the file is; every iterator reads at its own position, several can be open at once
+public class LaptopFileReader implements Closeable, Iterable<Laptop> {
+
+    private final FileChannel channel;
+    private final long blocksEnd;
+    private final long[] blockOffsets;
+    private final long[] firstRecords;
+    private final long recordCount;
+
+    public LaptopFileReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("not a laptop file: " + file);
+            }
+            byte version = header.get();
+            if (version != VERSION) {
+                throw new IOException("unsupported laptop file version: " + version);
+            }
+
+            if ((header.get() & FLAG_INDEXED) == 0) {
+                this.blocksEnd = channel.size();
+                this.blockOffsets = null;
+                this.firstRecords = null;
+                this.recordCount = -1;
+                return;
+            }
+
+            ByteBuffer trailer = readFully(channel, channel.size() - TRAILER_SIZE, TRAILER_SIZE);
+            this.blocksEnd = trailer.getLong();
+            int blocks = trailer.getInt();
+            this.recordCount = trailer.getLong();
+            ByteBuffer index = readFully(channel, blocksEnd, blocks * INDEX_ENTRY_SIZE);
+            this.blockOffsets = new long[blocks];
+            this.firstRecords = new long[blocks];
+            for (int i = 0; i < blocks; i++) {
+                blockOffsets[i] = index.getLong();
+                firstRecords[i] = index.getLong();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public boolean isIndexed() {
+        return blockOffsets != null;
+    }
+
+    // -1 when the file has no index
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public Iterator<Laptop> iterator() {
+        return iterator(0);
+    }
+
+    // starts at the given record number, with an index the blocks before it aren't read at all
+    public Iterator<Laptop> iterator(long fromRecord) {
+        if (fromRecord < 0) {
+            throw new IllegalArgumentException("record number must not be negative: " + fromRecord);
+        }
+        if (!isIndexed() || blockOffsets.length == 0) {
+            return new RecordIterator(HEADER_SIZE, fromRecord);
+        }
+
+        int block = Arrays.binarySearch(firstRecords, fromRecord);
+        if (block < 0) {
+            block = Math.max(0, -block - 2);
+        }
+        return new RecordIterator(blockOffsets[block], fromRecord - firstRecords[block]);
+    }
+
+    public Stream<Laptop> stream() {
+        return stream(0);
+    }
+
+    public Stream<Laptop> stream(long fromRecord) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(fromRecord),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, position, buffer);
+        return buffer.flip();
+    }
+
+    static void readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("laptop file is truncated at offset " + position);
+            }
+            position += n;
+        }
+    }
+
+    // a block must lie within the blocks of the file, a length read from a corrupted header may not
+    static void checkBlockLength(int length, long offset, long blocksEnd) throws IOException {
+        if (length < 0 || length > blocksEnd - offset - BLOCK_HEADER_SIZE) {
+            throw new IOException("invalid block length " + length + " in block at offset " + offset);
+        }
+    }
+
+    private class RecordIterator implements Iterator<Laptop> {
+        private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        private final CRC32C crc = new CRC32C();
+        private long nextBlock;
+        private long skip;
+        private byte[] payload = new byte[0];
+        private CodedInputStream input;
+        private int remaining;
+
+        RecordIterator(long firstBlock, long skip) {
+            this.nextBlock = firstBlock;
+            this.skip = skip;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (remaining == 0) {
+                    if (nextBlock >= blocksEnd) {
+                        return false;
+                    }
+                    readBlock();
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Laptop next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                remaining--;
+                return input.readMessage(Laptop.parser(), ExtensionRegistryLite.getEmptyRegistry());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void readBlock() throws IOException {
+            blockHeader.clear();
+            readFully(channel, nextBlock, blockHeader);
+            blockHeader.flip();
+            int length = blockHeader.getInt();
+            int records = blockHeader.getInt();
+            int checksum = blockHeader.getInt();
+            long offset = nextBlock;
+            // the header is checked before anything is allocated for it, the CRC only covers the payload
+            checkBlockLength(length, offset, blocksEnd);
+            if (records < 0) {
+                throw new IOException("invalid record count " + records + " in block at offset " + offset);
+            }
+            nextBlock += BLOCK_HEADER_SIZE + length;
+
+            // whole blocks before the starting record are skipped without reading them
+            if (skip >= records) {
+                skip -= records;
+                return;
+            }
+
+            if (payload.length < length) {
+                payload = new byte[Math.max(length, payload.length * 2)];
+            }
+            readFully(channel, offset + BLOCK_HEADER_SIZE, ByteBuffer.wrap(payload, 0, length));
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("checksum mismatch in block at offset " + offset);
+            }
+
+            input = CodedInputStream.newInstance(payload, 0, length);
+            remaining = records;
+            for (; skip > 0; skip--, remaining--) {
+                input.skipRawBytes(input.readRawVarint32());
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.wong.grpc.serializer;
+
+import com.google.protobuf.CodedOutputStream;
+import com.wong.grpc.pb.Laptop;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+import static com.wong.grpc.serializer.LaptopFileFormat.*;
+
+// writes laptops into a multi-record file (see LaptopFileFormat)
+// records are collected into blocks of about blockSize bytes and every block goes to the channel in one write
+public class LaptopFileWriter implements Closeable {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final int blockSize;
+    private final boolean indexed;
+    private final ByteBuffer blockHeader;
+    private final CRC32C crc;
+    private byte[] block;
+    private int blockLength;
+    private int blockRecords;
+    private long records;
+    private long position;
+    private long[] blockOffsets;
+    private long[] firstRecords;
+    private int blocks;
+
+    public LaptopFileWriter(Path file) throws IOException {
+        this(file, DEFAULT_BLOCK_SIZE, true);
+    }
+
+    public LaptopFileWriter(Path file, int blockSize, boolean indexed) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("block size must be positive: " + blockSize);
+        }
+        this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.blockSize = blockSize;
+        this.indexed = indexed;
+        this.blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        this.crc = new CRC32C();
+        this.block = new byte[blockSize];
+        this.blockOffsets = new long[16];
+        this.firstRecords = new long[16];
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .put(VERSION)
+                .put(indexed ? FLAG_INDEXED : 0)
+                .flip();
+        writeFully(header);
+    }
+
+    public void Write(Laptop laptop) throws IOException {
+        int size = laptop.getSerializedSize();
+        int needed = CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+        if (blockLength > 0 && blockLength + needed > blockSize) {
+            flushBlock();
+        }
+        // a record larger than the block size gets a block of its own
+        if (blockLength + needed > block.length) {
+            block = Arrays.copyOf(block, blockLength + needed);
+        }
+
+        CodedOutputStream output = CodedOutputStream.newInstance(block, blockLength, needed);
+        output.writeUInt32NoTag(size);
+        laptop.writeTo(output);
+        output.checkNoSpaceLeft();
+
+        blockLength += needed;
+        blockRecords++;
+        records++;
+    }
+
+    public long getRecordCount() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (blockRecords > 0) {
+                flushBlock();
+            }
+            if (indexed) {
+                writeIndex();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blocks == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+            firstRecords = Arrays.copyOf(firstRecords, blocks * 2);
+        }
+        blockOffsets[blocks] = position;
+        firstRecords[blocks] = records - blockRecords;
+        blocks++;
+
+        crc.reset();
+        crc.update(block, 0, blockLength);
+        blockHeader.clear()
+                .putInt(blockLength)
+                .putInt(blockRecords)
+                .putInt((int) crc.getValue())
+                .flip();
+        writeFully(blockHeader, ByteBuffer.wrap(block, 0, blockLength));
+
+        blockLength = 0;
+        blockRecords = 0;
+    }
+
+    private void writeIndex() throws IOException {
+        long indexOffset = position;
+        ByteBuffer index = ByteBuffer.allocate(blocks * INDEX_ENTRY_SIZE + TRAILER_SIZE);
+        for (int i = 0; i < blocks; i++) {
+            index.putLong(blockOffsets[i]).putLong(firstRecords[i]);
+        }
+        index.putLong(indexOffset).putInt(blocks).putLong(records).flip();
+        writeFully(index);
+    }
+
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            long written = channel.write(buffers);
+            remaining -= written;
+            position += written;
+        }
+    }
+}
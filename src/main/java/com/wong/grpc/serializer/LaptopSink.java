@@ -0,0 +1,9 @@
+package com.wong.grpc.serializer;
+
+import com.wong.grpc.pb.Laptop;
+
+// receives laptops from a bulk producer, e.g. Generator.GenerateLaptops or Serializer.ImportJsonLines,
+// possibly from several threads at once; a store's Save fits, without the producer depending on the stores
+public interface LaptopSink {
+    void accept(Laptop laptop) throws Exception;
+}
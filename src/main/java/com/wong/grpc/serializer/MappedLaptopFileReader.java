@@ -0,0 +1,236 @@
+package com.wong.grpc.serializer;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.wong.grpc.pb.Laptop;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import static com.wong.grpc.serializer.LaptopFileFormat.*;
+
+// bulk reader for files written by LaptopFileWriter: the file is memory-mapped and records are parsed straight
+// from the mapping, without copying through heap buffers first
+// the file is split into ranges of whole blocks that can be parsed by several threads at once, a range is
+// mapped on its own, so files larger than the 2 GiB limit of a single mapping work as well
+public class MappedLaptopFileReader implements Closeable {
+
+    private static final long MAX_RANGE_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final boolean aliasing;
+    // file offset of every block, followed by the end of the last block
+    private final long[] blockBoundaries;
+
+    public MappedLaptopFileReader(Path file) throws IOException {
+        this(file, false);
+    }
+
+    // with aliasing, bytes fields of the parsed laptops point into the mapping instead of being copied,
+    // only use it when the file isn't modified or truncated while those laptops are still in use
+    public MappedLaptopFileReader(Path file, boolean aliasing) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.aliasing = aliasing;
+        try {
+            this.blockBoundaries = readBlockBoundaries(file);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getBlockCount() {
+        return blockBoundaries.length - 1;
+    }
+
+    // splits the blocks into at most parts ranges of about the same size
+    public List<Range> Split(int parts) {
+        if (parts <= 0) {
+            throw new IllegalArgumentException("parts must be positive: " + parts);
+        }
+        long start = blockBoundaries[0];
+        long end = blockBoundaries[blockBoundaries.length - 1];
+        long target = Math.min(MAX_RANGE_SIZE, Math.max(1, (end - start + parts - 1) / parts));
+
+        List<Range> ranges = new ArrayList<>();
+        int first = 0;
+        for (int block = 1; block < blockBoundaries.length; block++) {
+            boolean last = block == blockBoundaries.length - 1;
+            // a range ends at the block boundary where it reaches the target size, but never above MAX_RANGE_SIZE
+            boolean full = blockBoundaries[block] - blockBoundaries[first] >= target;
+            boolean next = !last && blockBoundaries[block + 1] - blockBoundaries[first] > MAX_RANGE_SIZE;
+            if (last || full || next) {
+                ranges.add(new Range(blockBoundaries[first], blockBoundaries[block]));
+                first = block;
+            }
+        }
+        return ranges;
+    }
+
+    // hands every laptop to the consumer, from parallelism threads at once and in no particular order
+    public void ForEach(int parallelism, Consumer<Laptop> consumer) throws IOException {
+        List<Range> ranges = Split(parallelism * 4);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> parsed = new ArrayList<>();
+            for (Range range : ranges) {
+                parsed.add(executor.submit(() -> {
+                    range.ForEach(consumer);
+                    return null;
+                }));
+            }
+            for (Future<?> range : parsed) {
+                await(range);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // parses the whole file with parallelism threads, the laptops are returned in file order
+    public List<Laptop> ReadAll(int parallelism) throws IOException {
+        List<Range> ranges = Split(parallelism * 4);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<List<Laptop>>> parsed = new ArrayList<>();
+            for (Range range : ranges) {
+                parsed.add(executor.submit(() -> {
+                    List<Laptop> laptops = new ArrayList<>();
+                    range.ForEach(laptops::add);
+                    return laptops;
+                }));
+            }
+
+            List<Laptop> laptops = new ArrayList<>();
+            for (Future<List<Laptop>> range : parsed) {
+                laptops.addAll(await(range));
+            }
+            return laptops;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public class Range {
+        private final long start;
+        private final long end;
+
+        private Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        // parses the blocks of this range in order, safe to call from several threads for different ranges
+        public void ForEach(Consumer<Laptop> consumer) throws IOException {
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            CRC32C crc = new CRC32C();
+            while (mapping.hasRemaining()) {
+                long offset = start + mapping.position();
+                if (mapping.remaining() < BLOCK_HEADER_SIZE) {
+                    throw new IOException("laptop file is truncated at offset " + offset);
+                }
+                int length = mapping.getInt();
+                int records = mapping.getInt();
+                int checksum = mapping.getInt();
+                LaptopFileReader.checkBlockLength(length, offset, end);
+                ByteBuffer payload = mapping.slice(mapping.position(), length);
+                mapping.position(mapping.position() + length);
+
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("checksum mismatch in block at offset " + offset);
+                }
+
+                CodedInputStream input = CodedInputStream.newInstance(payload);
+                input.enableAliasing(aliasing);
+                for (int i = 0; i < records; i++) {
+                    consumer.accept(input.readMessage(Laptop.parser(), ExtensionRegistryLite.getEmptyRegistry()));
+                }
+            }
+        }
+    }
+
+    private long[] readBlockBoundaries(Path file) throws IOException {
+        ByteBuffer header = LaptopFileReader.readFully(channel, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.get() != VERSION) {
+            throw new IOException("not a laptop file of version " + VERSION + ": " + file);
+        }
+
+        if ((header.get() & FLAG_INDEXED) != 0) {
+            ByteBuffer trailer = LaptopFileReader.readFully(channel, channel.size() - TRAILER_SIZE, TRAILER_SIZE);
+            long blocksEnd = trailer.getLong();
+            int blocks = trailer.getInt();
+            ByteBuffer index = LaptopFileReader.readFully(channel, blocksEnd, blocks * INDEX_ENTRY_SIZE);
+            long[] boundaries = new long[blocks + 1];
+            for (int i = 0; i < blocks; i++) {
+                boundaries[i] = index.getLong();
+                index.getLong();
+            }
+            boundaries[blocks] = blocksEnd;
+            return boundaries;
+        }
+
+        // without an index the block headers are walked once, which only touches a few bytes per block
+        long size = channel.size();
+        long[] boundaries = new long[16];
+        int blocks = 0;
+        long offset = HEADER_SIZE;
+        while (offset < size) {
+            if (blocks + 1 == boundaries.length) {
+                boundaries = Arrays.copyOf(boundaries, boundaries.length * 2);
+            }
+            boundaries[blocks++] = offset;
+            if (size - offset < BLOCK_HEADER_SIZE) {
+                throw new IOException("laptop file is truncated at offset " + offset);
+            }
+            int length = LaptopFileReader.readFully(channel, offset, Integer.BYTES).getInt();
+            // a corrupted length could otherwise stall the walk or send it backwards
+            LaptopFileReader.checkBlockLength(length, offset, size);
+            offset += BLOCK_HEADER_SIZE + length;
+        }
+        boundaries[blocks] = size;
+        return Arrays.copyOf(boundaries, blocks + 1);
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading laptops", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("cannot read laptops: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
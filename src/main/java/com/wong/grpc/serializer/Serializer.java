@@ -1,12 +1,31 @@
 package com.wong.grpc.serializer;
 
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.util.JsonFormat;
 import com.wong.grpc.pb.Laptop;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 public class Serializer {
 
+    // laptops per task when JSON lines are encoded in parallel
+    private static final int JSON_LINES_CHUNK = 1_000;
+
+    // printers and parser are immutable and thread safe, building them is the expensive part
+    private final JsonFormat.Printer printer = JsonFormat.printer().includingDefaultValueFields()
+            .preservingProtoFieldNames();
+    private final JsonFormat.Printer linePrinter = printer.omittingInsignificantWhitespace();
+    private final JsonFormat.Parser parser = JsonFormat.parser().ignoringUnknownFields();
+
     public void WriteBinaryFile(Laptop laptop, String filename) throws IOException {
         FileOutputStream outputStream = new FileOutputStream(filename);
         laptop.writeTo(outputStream);
@@ -21,17 +40,178 @@ public class Serializer {
     }
 
     public void WriteJsonFile(Laptop laptop, String fileName) throws IOException {
-        JsonFormat.Printer printer = JsonFormat.printer().includingDefaultValueFields()
-                .preservingProtoFieldNames();
-
-        String jsonString = printer.print(laptop);
+        String jsonString = ToJson(laptop);
 
         FileOutputStream outputStream = new FileOutputStream(fileName);
-        outputStream.write(jsonString.getBytes());
+        outputStream.write(jsonString.getBytes(StandardCharsets.UTF_8));
         outputStream.close();
 
     }
 
+    // writes any number of laptops into one file (see LaptopFileFormat) and returns how many were written
+    public long WriteBinaryRecords(Iterable<Laptop> laptops, String filename) throws IOException {
+        try (LaptopFileWriter writer = new LaptopFileWriter(Path.of(filename))) {
+            for (Laptop laptop : laptops) {
+                writer.Write(laptop);
+            }
+            return writer.getRecordCount();
+        }
+    }
+
+    // laptops are read lazily while the stream is consumed, closing the stream closes the file
+    public Stream<Laptop> ReadBinaryRecords(String filename) throws IOException {
+        LaptopFileReader reader = new LaptopFileReader(Path.of(filename));
+        return reader.stream().onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // reads a whole multi-record file through a memory mapping, parsed by parallelism threads, in file order
+    public List<Laptop> ReadAllBinaryRecords(String filename, int parallelism) throws IOException {
+        try (MappedLaptopFileReader reader = new MappedLaptopFileReader(Path.of(filename))) {
+            return reader.ReadAll(parallelism);
+        }
+    }
+
+    // writes one JSON laptop per line (NDJSON) and returns how many were written
+    // with parallelism above 1, chunks of laptops are encoded on that many threads and written in input order
+    public long WriteJsonLines(Iterable<Laptop> laptops, String filename, int parallelism) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(Path.of(filename), StandardCharsets.UTF_8)) {
+            if (parallelism <= 1) {
+                long count = 0;
+                for (Laptop laptop : laptops) {
+                    linePrinter.appendTo(laptop, writer);
+                    writer.write('\n');
+                    count++;
+                }
+                return count;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+            try {
+                Iterator<Laptop> iterator = laptops.iterator();
+                Queue<Future<String>> pending = new ArrayDeque<>();
+                long count = 0;
+                while (iterator.hasNext() || !pending.isEmpty()) {
+                    // a few chunks ahead of the writer keep every thread busy without holding the whole export
+                    while (iterator.hasNext() && pending.size() < 2 * parallelism) {
+                        List<Laptop> chunk = new ArrayList<>(JSON_LINES_CHUNK);
+                        while (iterator.hasNext() && chunk.size() < JSON_LINES_CHUNK) {
+                            chunk.add(iterator.next());
+                        }
+                        count += chunk.size();
+                        pending.add(executor.submit(() -> ToJsonLines(chunk)));
+                    }
+                    writer.write(await(pending.poll()));
+                }
+                return count;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    // reads an NDJSON file into the sink, e.g. a store's Save, batches of lines are parsed and handed over
+    // on parallelism threads; returns the number of laptops read, blank lines are skipped
+    public long ImportJsonLines(String filename, LaptopSink sink, int batchSize, int parallelism) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try (BufferedReader reader = Files.newBufferedReader(Path.of(filename), StandardCharsets.UTF_8)) {
+            Queue<Future<Integer>> pending = new ArrayDeque<>();
+            long saved = 0;
+            long lineNumber = 0;
+            List<String> batch = new ArrayList<>(batchSize);
+            long batchStart = 1;
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (!line.isBlank()) {
+                    batch.add(line);
+                }
+                if (batch.size() == batchSize) {
+                    pending.add(submitBatch(executor, batch, batchStart, lineNumber, sink));
+                    batch = new ArrayList<>(batchSize);
+                    batchStart = lineNumber + 1;
+                    // bounds the lines held in memory while the workers catch up
+                    if (pending.size() >= 2 * parallelism) {
+                        saved += await(pending.poll());
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                pending.add(submitBatch(executor, batch, batchStart, lineNumber, sink));
+            }
+            while (!pending.isEmpty()) {
+                saved += await(pending.poll());
+            }
+            return saved;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
+    private Future<Integer> submitBatch(ExecutorService executor, List<String> lines, long firstLine, long lastLine,
+                                        LaptopSink sink) {
+        return executor.submit(() -> {
+            List<Laptop> laptops = new ArrayList<>(lines.size());
+            for (String line : lines) {
+                try {
+                    laptops.add(FromJson(line));
+                } catch (InvalidProtocolBufferException e) {
+                    throw new IOException("invalid laptop between lines " + firstLine + " and " + lastLine
+                            + ": " + e.getMessage(), e);
+                }
+            }
+            for (Laptop laptop : laptops) {
+                sink.accept(laptop);
+            }
+            return laptops.size();
+        });
+    }
+
+    private String ToJsonLines(List<Laptop> laptops) throws IOException {
+        StringBuilder lines = new StringBuilder(laptops.size() * 1024);
+        for (Laptop laptop : laptops) {
+            linePrinter.appendTo(laptop, lines);
+            lines.append('\n');
+        }
+        return lines.toString();
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while processing JSON lines", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    public byte[] ToBinary(Laptop laptop) {
+        return laptop.toByteArray();
+    }
+
+    public Laptop FromBinary(byte[] data) throws InvalidProtocolBufferException {
+        return Laptop.parseFrom(data);
+    }
+
+    public String ToJson(Laptop laptop) throws InvalidProtocolBufferException {
+        return printer.print(laptop);
+    }
+
+    public Laptop FromJson(String json) throws InvalidProtocolBufferException {
+        Laptop.Builder builder = Laptop.newBuilder();
+        parser.merge(json, builder);
+        return builder.build();
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,175 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.pb.RatingSnapshot;
+import com.wong.grpc.sample.Generator;
+import com.wong.grpc.serializer.LaptopFileReader;
+import com.wong.grpc.serializer.MappedLaptopFileReader;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// fills the stores from a catalog snapshot before a server starts serving, so a new node is useful right after deploy
+// the catalog is a multi-record laptop file (see LaptopFileWriter, Generator.WriteLaptops writes one)
+// parsed in parallel from a memory mapping, ratings are a file of length-delimited RatingSnapshot records loaded at the same time
+public class CatalogPreloader {
+
+    private static final Logger logger = Logger.getLogger(CatalogPreloader.class.getName());
+
+    private final LaptopStore laptopStore;
+    private final RatingStore ratingStore;
+    private final Path laptopsFile;
+    private final Path ratingsFile;
+    private final int parallelism;
+    private final AtomicLong laptops;
+    private final AtomicLong duplicates;
+    private long ratings;
+    private long elapsedMillis;
+
+    // ratingsFile may be null when only the catalog is restored
+    public CatalogPreloader(LaptopStore laptopStore, RatingStore ratingStore, Path laptopsFile, Path ratingsFile, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.laptopStore = laptopStore;
+        this.ratingStore = ratingStore;
+        this.laptopsFile = laptopsFile;
+        this.ratingsFile = ratingsFile;
+        this.parallelism = parallelism;
+        this.laptops = new AtomicLong();
+        this.duplicates = new AtomicLong();
+    }
+
+    public void Preload() throws IOException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long start = System.nanoTime();
+
+        // one pool for both files, so the preload never runs more than parallelism threads,
+        // the ratings take one of them while the ranges of the catalog share the others
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            Future<Long> ratingsLoaded = executor.submit(this::loadRatings);
+            loadLaptops(executor);
+            ratings = await(ratingsLoaded);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+        logger.info(String.format("preloaded %d laptops and %d ratings in %d ms with %d threads, heap used %d MB (+%d MB)",
+                laptops.get(), ratings, elapsedMillis, parallelism, heapAfter >> 20, (heapAfter - heapBefore) >> 20));
+        if (duplicates.get() > 0) {
+            logger.warning("skipped " + duplicates.get() + " laptops with duplicate IDs in " + laptopsFile);
+        }
+    }
+
+    public long getLaptops() {
+        return laptops.get();
+    }
+
+    public long getRatings() {
+        return ratings;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    private void loadLaptops(ExecutorService executor) throws IOException {
+        try (MappedLaptopFileReader reader = new MappedLaptopFileReader(laptopsFile)) {
+            List<Future<?>> ranges = new ArrayList<>();
+            for (MappedLaptopFileReader.Range range : reader.Split(parallelism * 4)) {
+                ranges.add(executor.submit(() -> {
+                    range.ForEach(this::save);
+                    return null;
+                }));
+            }
+            for (Future<?> range : ranges) {
+                await(range);
+            }
+        }
+    }
+
+    private void save(Laptop laptop) {
+        try {
+            laptopStore.Save(laptop);
+            laptops.incrementAndGet();
+        } catch (AlreadyExistsException e) {
+            duplicates.incrementAndGet();
+        } catch (Exception e) {
+            throw new IllegalStateException("cannot save laptop " + laptop.getId() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private long loadRatings() throws IOException {
+        if (ratingsFile == null) {
+            return 0;
+        }
+        long count = 0;
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(ratingsFile), 1 << 16)) {
+            RatingSnapshot rating;
+            while ((rating = RatingSnapshot.parseDelimitedFrom(input)) != null) {
+                ratingStore.Add(rating.getLaptopId(), new Rating(rating.getCount(), rating.getSum()));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while preloading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("cannot preload: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // writes a synthetic snapshot for capacity tests: the laptops Generator.WriteLaptops writes for the seed,
+    // and a few votes for every one of them
+    // usage: CatalogPreloader <count> <laptops file> <ratings file> [seed]
+    public static void main(String[] args) throws IOException {
+        long count = Long.parseLong(args[0]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        Path laptopsFile = Path.of(args[1]);
+        Generator.WriteLaptops(seed, count, Runtime.getRuntime().availableProcessors(), laptopsFile);
+
+        // the votes come from a generator of their own, the IDs from reading the laptops back in file order
+        Generator generator = new Generator(seed);
+        try (LaptopFileReader laptopsReader = new LaptopFileReader(laptopsFile);
+             OutputStream ratingsOutput = new BufferedOutputStream(Files.newOutputStream(Path.of(args[2])), 1 << 16)) {
+            for (Laptop laptop : laptopsReader) {
+                int votes = 1 + (int) generator.NewLaptopScore();
+                double sum = 0;
+                for (int vote = 0; vote < votes; vote++) {
+                    sum += generator.NewLaptopScore();
+                }
+                RatingSnapshot.newBuilder()
+                        .setLaptopId(laptop.getId())
+                        .setCount(votes)
+                        .setSum(sum)
+                        .build()
+                        .writeDelimitedTo(ratingsOutput);
+            }
+        }
+        System.out.printf("wrote %d laptops to %s and their ratings to %s%n", count, args[1], args[2]);
+    }
+}
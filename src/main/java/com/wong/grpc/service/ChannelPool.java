@@ -0,0 +1,308 @@
+package com.wong.grpc.service;
+
+import io.grpc.*;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// spreads calls over several channels, i.e. several HTTP/2 connections, so heavy concurrency isn't capped
+// by the max-concurrent-streams limit of a single connection
+// channels are created on first use and shut down again after being idle, unhealthy channels are skipped
+public class ChannelPool extends ManagedChannel {
+
+    private static final Logger logger = Logger.getLogger(ChannelPool.class.getName());
+
+    public enum Strategy {
+        ROUND_ROBIN,
+        LEAST_OUTSTANDING,
+    }
+
+    private final Supplier<ManagedChannel> channelFactory;
+    private final Strategy strategy;
+    private final long idleTimeoutNanos;
+    private final Slot[] slots;
+    private final AtomicInteger next;
+    private final ScheduledExecutorService idleReaper;
+    private volatile boolean shutdown;
+
+    public ChannelPool(Supplier<ManagedChannel> channelFactory, int size, Strategy strategy) {
+        this(channelFactory, size, strategy, 0, TimeUnit.SECONDS);
+    }
+
+    // an idleTimeout of 0 keeps channels open until the pool is shut down
+    public ChannelPool(Supplier<ManagedChannel> channelFactory, int size, Strategy strategy, long idleTimeout, TimeUnit unit) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("pool size must be positive: " + size);
+        }
+
+        this.channelFactory = channelFactory;
+        this.strategy = strategy;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.next = new AtomicInteger();
+
+        if (idleTimeoutNanos > 0) {
+            idleReaper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "channel-pool-idle-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(idleTimeoutNanos / 2, TimeUnit.MILLISECONDS.toNanos(10));
+            idleReaper.scheduleAtFixedRate(this::shutdownIdleChannels, period, period, TimeUnit.NANOSECONDS);
+        } else {
+            idleReaper = null;
+        }
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+        Slot slot = pick();
+        ManagedChannel channel = slot.channel();
+        if (channel == null) {
+            return new FailingCall<>(Status.UNAVAILABLE.withDescription("channel pool is shut down"));
+        }
+
+        // a call only counts as outstanding from start to onClose, one that is dropped or cancelled before
+        // it starts never gets an onClose and must not keep its channel busy
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(channel.newCall(method, callOptions)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                slot.acquire();
+                try {
+                    super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            slot.release();
+                            super.onClose(status, trailers);
+                        }
+                    }, headers);
+                } catch (RuntimeException e) {
+                    slot.release();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    @Override
+    public String authority() {
+        ManagedChannel channel = slots[0].channel();
+        if (channel != null) {
+            return channel.authority();
+        }
+        // the pool is shut down, a channel made only to ask is closed right away
+        ManagedChannel probe = channelFactory.get();
+        try {
+            return probe.authority();
+        } finally {
+            probe.shutdownNow();
+        }
+    }
+
+    public int size() {
+        return slots.length;
+    }
+
+    // number of channels currently open, which grows lazily up to size()
+    public int getOpenChannels() {
+        int open = 0;
+        for (Slot slot : slots) {
+            if (slot.channel != null) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    public int getOutstandingCalls() {
+        int outstanding = 0;
+        for (Slot slot : slots) {
+            outstanding += slot.outstanding.get();
+        }
+        return outstanding;
+    }
+
+    @Override
+    public ManagedChannel shutdown() {
+        shutdown = true;
+        if (idleReaper != null) {
+            idleReaper.shutdownNow();
+        }
+        for (Slot slot : slots) {
+            slot.close(false);
+        }
+        return this;
+    }
+
+    @Override
+    public ManagedChannel shutdownNow() {
+        shutdown();
+        for (Slot slot : slots) {
+            slot.close(true);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        if (!shutdown) {
+            return false;
+        }
+        for (Slot slot : slots) {
+            ManagedChannel channel = slot.channel;
+            if (channel != null && !channel.isTerminated()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Slot slot : slots) {
+            ManagedChannel channel = slot.channel;
+            if (channel != null && !channel.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Slot pick() {
+        int n = slots.length;
+        int start = Math.floorMod(next.getAndIncrement(), n);
+
+        if (strategy == Strategy.ROUND_ROBIN) {
+            for (int i = 0; i < n; i++) {
+                Slot slot = slots[(start + i) % n];
+                if (slot.isHealthy()) {
+                    return slot;
+                }
+            }
+            return slots[start];
+        }
+
+        Slot best = null;
+        for (int i = 0; i < n; i++) {
+            Slot slot = slots[(start + i) % n];
+            if (!slot.isHealthy()) {
+                continue;
+            }
+            if (best == null || slot.outstanding.get() < best.outstanding.get()) {
+                best = slot;
+            }
+        }
+        return best != null ? best : slots[start];
+    }
+
+    private void shutdownIdleChannels() {
+        long now = System.nanoTime();
+        for (Slot slot : slots) {
+            if (slot.shutdownIfIdle(now, idleTimeoutNanos)) {
+                logger.fine("shut down idle pooled channel");
+            }
+        }
+    }
+
+    private class Slot {
+        private volatile ManagedChannel channel;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile long lastUsedNanos;
+
+        // the slot's channel, created on first use, or null once the pool is shut down
+        // shutdown is checked under the slot's lock, which close takes as well, so a newCall that raced past
+        // the pool's shutdown either sees it here or creates its channel before close gets to shut it down
+        synchronized ManagedChannel channel() {
+            if (shutdown) {
+                return null;
+            }
+            if (channel == null) {
+                channel = channelFactory.get();
+            }
+            lastUsedNanos = System.nanoTime();
+            return channel;
+        }
+
+        void acquire() {
+            outstanding.incrementAndGet();
+            lastUsedNanos = System.nanoTime();
+        }
+
+        void release() {
+            outstanding.decrementAndGet();
+            lastUsedNanos = System.nanoTime();
+        }
+
+        // a channel that failed to connect is avoided while others are available, it keeps reconnecting in the background
+        boolean isHealthy() {
+            ManagedChannel current = channel;
+            if (current == null) {
+                return true;
+            }
+            ConnectivityState state = current.getState(false);
+            return state != ConnectivityState.TRANSIENT_FAILURE && state != ConnectivityState.SHUTDOWN;
+        }
+
+        // keeps the channel, isTerminated and awaitTermination still wait for it
+        synchronized void close(boolean now) {
+            if (channel != null) {
+                if (now) {
+                    channel.shutdownNow();
+                } else {
+                    channel.shutdown();
+                }
+            }
+        }
+
+        synchronized boolean shutdownIfIdle(long now, long idleTimeoutNanos) {
+            if (channel == null || outstanding.get() > 0 || now - lastUsedNanos < idleTimeoutNanos) {
+                return false;
+            }
+            channel.shutdown();
+            channel = null;
+            return true;
+        }
+    }
+
+    private static class FailingCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+        private final Status status;
+
+        FailingCall(Status status) {
+            this.status = status;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            responseListener.onClose(status, new Metadata());
+        }
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+        }
+
+        @Override
+        public void halfClose() {
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.wong.grpc.service;
+
+import io.grpc.*;
+
+import java.util.List;
+
+// compresses outgoing request messages above the policy threshold, e.g. image chunks of UploadImage
+// response compression is negotiated by the decompressor registry installed on the channel
+public class CompressionClientInterceptor implements ClientInterceptor {
+
+    private final CompressionPolicy policy;
+
+    public CompressionClientInterceptor(CompressionPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+        List<String> codecs = policy.getCodecs(method.getFullMethodName());
+        if (codecs.isEmpty() || callOptions.getCompressor() != null) {
+            return next.newCall(method, callOptions);
+        }
+
+        ClientCall<ReqT, RespT> call = next.newCall(method, callOptions.withCompression(codecs.get(0)));
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(call) {
+            @Override
+            public void sendMessage(ReqT message) {
+                delegate().setMessageCompression(policy.shouldCompress(CompressionPolicy.messageSize(message)));
+                super.sendMessage(message);
+            }
+        };
+    }
+}
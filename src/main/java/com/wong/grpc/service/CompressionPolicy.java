@@ -0,0 +1,107 @@
+package com.wong.grpc.service;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.Codec;
+import io.grpc.Compressor;
+import io.grpc.CompressorRegistry;
+import io.grpc.DecompressorRegistry;
+
+import java.util.*;
+
+// describes which message encodings a side of the connection is willing to use, per gRPC method
+// the same policy is used on server and client, codecs are tried in the given order of preference
+public class CompressionPolicy {
+
+    private final int minMessageSize;
+    private final Map<String, Codec> codecs;
+    private final Map<String, List<String>> methodCodecs;
+    private List<String> defaultCodecs;
+
+    // messages smaller than minMessageSize bytes are always sent uncompressed
+    public CompressionPolicy(int minMessageSize) {
+        this.minMessageSize = minMessageSize;
+        this.codecs = new LinkedHashMap<>();
+        this.methodCodecs = new HashMap<>();
+        this.defaultCodecs = Collections.emptyList();
+
+        // put directly rather than through register, which a subclass may override before its fields are set
+        addCodec(new Codec.Gzip());
+        addCodec(new DeflateCodec());
+    }
+
+    public static CompressionPolicy none() {
+        return new CompressionPolicy(Integer.MAX_VALUE);
+    }
+
+    // additional codecs (e.g. snappy, zstd) can be plugged in here
+    public CompressionPolicy register(Codec codec) {
+        addCodec(codec);
+        return this;
+    }
+
+    private void addCodec(Codec codec) {
+        codecs.put(codec.getMessageEncoding(), codec);
+    }
+
+    // fullMethodName looks like "wong.LaptopService/SearchLaptop"
+    public CompressionPolicy setCodecs(String fullMethodName, String... encodings) {
+        methodCodecs.put(fullMethodName, checkEncodings(encodings));
+        return this;
+    }
+
+    public CompressionPolicy setDefaultCodecs(String... encodings) {
+        defaultCodecs = checkEncodings(encodings);
+        return this;
+    }
+
+    public int getMinMessageSize() {
+        return minMessageSize;
+    }
+
+    public List<String> getCodecs(String fullMethodName) {
+        return methodCodecs.getOrDefault(fullMethodName, defaultCodecs);
+    }
+
+    public boolean shouldCompress(int messageSize) {
+        return messageSize >= minMessageSize;
+    }
+
+    // the size shouldCompress is asked about, messages that aren't protobuf are assumed big enough
+    static int messageSize(Object message) {
+        if (message instanceof MessageLite) {
+            return ((MessageLite) message).getSerializedSize();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    public CompressorRegistry compressorRegistry() {
+        CompressorRegistry registry = CompressorRegistry.newEmptyInstance();
+        registry.register(Codec.Identity.NONE);
+        for (Compressor compressor : codecs.values()) {
+            registry.register(compressor);
+        }
+        return registry;
+    }
+
+    // only encodings used by this policy are advertised in grpc-accept-encoding,
+    // so the peer can never pick a codec we didn't ask for
+    public DecompressorRegistry decompressorRegistry() {
+        Set<String> advertised = new HashSet<>(defaultCodecs);
+        methodCodecs.values().forEach(advertised::addAll);
+
+        DecompressorRegistry registry = DecompressorRegistry.emptyInstance().with(Codec.Identity.NONE, false);
+        for (Codec codec : codecs.values()) {
+            registry = registry.with(codec, advertised.contains(codec.getMessageEncoding()));
+        }
+        return registry;
+    }
+
+    private List<String> checkEncodings(String... encodings) {
+        for (String encoding : encodings) {
+            if (!codecs.containsKey(encoding)) {
+                throw new IllegalArgumentException("unknown message encoding: " + encoding);
+            }
+        }
+        return List.of(encodings);
+    }
+}
@@ -0,0 +1,55 @@
+package com.wong.grpc.service;
+
+import io.grpc.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// picks the response encoding for each call from the codecs the client advertised in grpc-accept-encoding,
+// so compression is only ever turned on when the client asked for it
+public class CompressionServerInterceptor implements ServerInterceptor {
+
+    private static final Metadata.Key<String> ACCEPT_ENCODING_KEY =
+            Metadata.Key.of("grpc-accept-encoding", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final CompressionPolicy policy;
+
+    public CompressionServerInterceptor(CompressionPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        String encoding = negotiate(policy.getCodecs(call.getMethodDescriptor().getFullMethodName()), headers.get(ACCEPT_ENCODING_KEY));
+        if (encoding == null) {
+            return next.startCall(call, headers);
+        }
+
+        call.setCompression(encoding);
+        return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                delegate().setMessageCompression(policy.shouldCompress(CompressionPolicy.messageSize(message)));
+                super.sendMessage(message);
+            }
+        }, headers);
+    }
+
+    static String negotiate(List<String> preferred, String acceptEncoding) {
+        if (preferred.isEmpty() || acceptEncoding == null) {
+            return null;
+        }
+
+        Set<String> accepted = Arrays.stream(acceptEncoding.split(","))
+                .map(String::trim)
+                .collect(Collectors.toSet());
+        for (String encoding : preferred) {
+            if (accepted.contains(encoding)) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+}
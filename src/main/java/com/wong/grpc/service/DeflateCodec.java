@@ -0,0 +1,61 @@
+package com.wong.grpc.service;
+
+import io.grpc.Codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// grpc-java only ships gzip and identity, this adds the "deflate" message encoding from the gRPC compression spec
+public class DeflateCodec implements Codec {
+
+    private final int level;
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DeflateCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public String getMessageEncoding() {
+        return "deflate";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream os) throws IOException {
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(os, deflater) {
+            @Override
+            public void close() throws IOException {
+                // DeflaterOutputStream only ends the deflater it created itself
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream is) throws IOException {
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(is, inflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
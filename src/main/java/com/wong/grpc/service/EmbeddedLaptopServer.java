@@ -0,0 +1,47 @@
+package com.wong.grpc.service;
+
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import java.io.IOException;
+
+// runs LaptopService on the in-process transport for callers living in the same JVM
+// there is no socket, no HTTP/2 framing and no protobuf encoding: the generated marshallers hand the
+// message object itself to the other side when both ends use the same parser, which is safe because
+// protobuf messages are immutable
+public class EmbeddedLaptopServer {
+
+    private final String name;
+    private final LaptopServer server;
+
+    public EmbeddedLaptopServer(LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore) {
+        this(InProcessServerBuilder.generateName(), laptopStore, imageStore, ratingStore);
+    }
+
+    public EmbeddedLaptopServer(String name, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore) {
+        this.name = name;
+        // directExecutor runs the service on the calling thread, avoiding a thread hop per message
+        this.server = new LaptopServer(InProcessServerBuilder.forName(name).directExecutor(), 0, laptopStore, imageStore, ratingStore);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void start() throws IOException {
+        server.start();
+    }
+
+    public void stop() throws InterruptedException {
+        server.stop();
+    }
+
+    public ManagedChannel newChannel() {
+        return InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    public LaptopClient newClient() {
+        return new LaptopClient(newChannel());
+    }
+}
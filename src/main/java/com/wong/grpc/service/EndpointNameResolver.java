@@ -0,0 +1,128 @@
+package com.wong.grpc.service;
+
+import io.grpc.Attributes;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.Status;
+import io.grpc.SynchronizationContext;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// resolves a fixed list of LaptopServer endpoints, one "host:port" or "host:port;weight=N" per entry
+// the list comes from the target itself (static:///host1:port1,host2:port2) or from a file (file:///path/endpoints.txt)
+// which is read again periodically, so nodes can be added and removed without restarting the client
+public class EndpointNameResolver extends NameResolver {
+
+    // relative share of traffic for an endpoint, used by WeightedLeastRequestLoadBalancer
+    public static final Attributes.Key<Integer> WEIGHT = Attributes.Key.create("laptop-endpoint-weight");
+
+    private final String authority;
+    private final Callable<String> endpoints;
+    private final long refreshSeconds;
+    private final SynchronizationContext syncContext;
+    private final ScheduledExecutorService scheduler;
+
+    private Listener2 listener;
+    private SynchronizationContext.ScheduledHandle refreshHandle;
+    private String lastEndpoints;
+
+    public EndpointNameResolver(String authority, Callable<String> endpoints, long refreshSeconds, Args args) {
+        this.authority = authority;
+        this.endpoints = endpoints;
+        this.refreshSeconds = refreshSeconds;
+        this.syncContext = args.getSynchronizationContext();
+        this.scheduler = args.getScheduledExecutorService();
+    }
+
+    @Override
+    public String getServiceAuthority() {
+        return authority;
+    }
+
+    @Override
+    public void start(Listener2 listener) {
+        this.listener = listener;
+        resolve();
+        if (refreshSeconds > 0) {
+            refreshHandle = syncContext.scheduleWithFixedDelay(this::resolve, refreshSeconds, refreshSeconds, TimeUnit.SECONDS, scheduler);
+        }
+    }
+
+    @Override
+    public void refresh() {
+        lastEndpoints = null;
+        resolve();
+    }
+
+    @Override
+    public void shutdown() {
+        if (refreshHandle != null) {
+            refreshHandle.cancel();
+        }
+    }
+
+    private void resolve() {
+        String current;
+        List<EquivalentAddressGroup> addresses;
+        try {
+            current = endpoints.call();
+            if (current.equals(lastEndpoints)) {
+                return;
+            }
+            addresses = parse(current);
+        } catch (Exception e) {
+            listener.onError(Status.UNAVAILABLE.withDescription("cannot resolve endpoints: " + e.getMessage()).withCause(e));
+            return;
+        }
+
+        if (addresses.isEmpty()) {
+            listener.onError(Status.UNAVAILABLE.withDescription("no endpoints configured"));
+            return;
+        }
+
+        lastEndpoints = current;
+        listener.onResult(ResolutionResult.newBuilder().setAddresses(addresses).build());
+    }
+
+    // entries are separated by commas or new lines, lines starting with # are comments
+    static List<EquivalentAddressGroup> parse(String endpoints) {
+        List<EquivalentAddressGroup> addresses = new ArrayList<>();
+        for (String line : endpoints.split("[,\\n]")) {
+            String entry = line.trim();
+            if (entry.isEmpty() || entry.startsWith("#")) {
+                continue;
+            }
+
+            int weight = 1;
+            int semicolon = entry.indexOf(';');
+            if (semicolon >= 0) {
+                String option = entry.substring(semicolon + 1).trim();
+                if (!option.startsWith("weight=")) {
+                    throw new IllegalArgumentException("unknown endpoint option: " + option);
+                }
+                weight = Integer.parseInt(option.substring("weight=".length()));
+                if (weight <= 0) {
+                    throw new IllegalArgumentException("weight must be positive: " + entry);
+                }
+                entry = entry.substring(0, semicolon).trim();
+            }
+
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("endpoint must look like host:port: " + entry);
+            }
+            String host = entry.substring(0, colon);
+            int port = Integer.parseInt(entry.substring(colon + 1));
+
+            addresses.add(new EquivalentAddressGroup(
+                    new InetSocketAddress(host, port),
+                    Attributes.newBuilder().set(WEIGHT, weight).build()));
+        }
+        return addresses;
+    }
+}
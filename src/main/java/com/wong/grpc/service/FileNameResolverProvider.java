@@ -0,0 +1,48 @@
+package com.wong.grpc.service;
+
+import io.grpc.NameResolver;
+import io.grpc.NameResolverProvider;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+
+// target looks like file:///etc/laptop/endpoints.txt, the file is re-read every 10 seconds
+public class FileNameResolverProvider extends NameResolverProvider {
+
+    private static final long REFRESH_SECONDS = 10;
+
+    @Override
+    public NameResolver newNameResolver(URI targetUri, NameResolver.Args args) {
+        if (!"file".equals(targetUri.getScheme())) {
+            return null;
+        }
+        Path path = Path.of(targetUri);
+        return new EndpointNameResolver("laptop-service", () -> Files.readString(path, StandardCharsets.UTF_8), REFRESH_SECONDS, args);
+    }
+
+    @Override
+    public String getDefaultScheme() {
+        return "file";
+    }
+
+    @Override
+    protected boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    protected int priority() {
+        return 5;
+    }
+
+    @Override
+    protected Collection<Class<? extends SocketAddress>> getProducedSocketAddressTypes() {
+        return Collections.singleton(InetSocketAddress.class);
+    }
+}
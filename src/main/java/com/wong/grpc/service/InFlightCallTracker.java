@@ -0,0 +1,75 @@
+package com.wong.grpc.service;
+
+import io.grpc.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// counts calls that have started but not yet completed or been cancelled,
+// so a draining server can wait for streams like RateLaptop to finish before it goes away
+public class InFlightCallTracker implements ServerInterceptor {
+
+    private int activeCalls;
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        acquire();
+        AtomicBoolean released = new AtomicBoolean();
+
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(call, headers);
+        } catch (RuntimeException e) {
+            release(released);
+            throw e;
+        }
+
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(listener) {
+            @Override
+            public void onComplete() {
+                try {
+                    super.onComplete();
+                } finally {
+                    release(released);
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                try {
+                    super.onCancel();
+                } finally {
+                    release(released);
+                }
+            }
+        };
+    }
+
+    public synchronized int getActiveCalls() {
+        return activeCalls;
+    }
+
+    // returns false if calls are still running when the timeout elapses
+    public synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (activeCalls > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    private synchronized void acquire() {
+        activeCalls++;
+    }
+
+    private synchronized void release(AtomicBoolean released) {
+        if (released.compareAndSet(false, true)) {
+            activeCalls--;
+            notifyAll();
+        }
+    }
+}
@@ -5,8 +5,9 @@ import com.wong.grpc.pb.Laptop;
 import com.wong.grpc.pb.Memory;
 import io.grpc.Context;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 
@@ -14,66 +15,62 @@ public class InMemoryLaptopStore implements LaptopStore {
 
     private static final Logger logger = Logger.getLogger(InMemoryLaptopStore.class.getName());
 
-    private ConcurrentHashMap<String, Laptop> data;
+    // keyed by the two halves of the laptop's UUID, a Find parses the ID without allocating and hashes two longs
+    private UUIDHashMap<Laptop> data;
     public InMemoryLaptopStore () {
-        data = new ConcurrentHashMap<>(0);
+        data = new UUIDHashMap<>();
     }
+    // protobuf messages are immutable, so laptops are stored and handed out as they are without copying
     @Override
     public void Save(Laptop laptop) throws Exception {
-
-        if(data.containsKey(laptop.getId())){
+        String id = laptop.getId();
+        Uuids.checkValid(id);
+        if (data.putIfAbsent(Uuids.mostSignificantBits(id), Uuids.leastSignificantBits(id), laptop) != null) {
             throw new AlreadyExistsException("laptop ID already exists");
         }
-
-        // deep copy
-        Laptop other = laptop.toBuilder().build();
-        data.put(other.getId(), other);
     }
 
     @Override
     public Laptop Find(String id) {
-        if(!data.containsKey(id)){
-            return null;
+        return find(id);
+    }
+
+    @Override
+    public Map<String, Laptop> FindAll(Collection<String> ids) {
+        Map<String, Laptop> found = new LinkedHashMap<>();
+        for (String id : ids) {
+            Laptop laptop = find(id);
+            if (laptop != null) {
+                found.put(id, laptop);
+            }
         }
-        Laptop other = data.get(id).toBuilder().build();
-        return other;
+        return found;
     }
 
+    // the filter is compiled once and ordered on the first laptops of the store
     @Override
     public void Search(Context ctx, Filter filter, LaptopStream stream) {
-        for(Map.Entry<String, Laptop> entry : data.entrySet()){
+        LaptopFilter compiled = LaptopFilter.Compile(filter, data.values());
+        for(Laptop laptop : data.values()){
             if(ctx.isCancelled()){
                 logger.info("context is cancelled");
                 return;
             }
-            Laptop laptop = entry.getValue();
-            if(isQualified(filter, laptop)){
-                stream.Send(laptop.toBuilder().build());
+            if(compiled.Matches(laptop)){
+                stream.Send(laptop);
             }
         }
     }
 
-    private boolean isQualified(Filter filter, Laptop laptop) {
-        if (laptop.getPriceUsd() > filter.getMaxPriceUsd()) {
-            return false;
-        }
-
-        if (laptop.getCpu().getNumberCores() < filter.getMinCpuCores()) {
-            return false;
-        }
-
-        if (laptop.getCpu().getMinGhz() < filter.getMinCpuGhz()) {
-            return false;
-        }
-
-        if (toBit(laptop.getRam()) < toBit(filter.getMinRam())) {
-            return false;
+    // an ID that is not a UUID can't have been saved
+    private Laptop find(String id) {
+        if (!Uuids.isValid(id)) {
+            return null;
         }
-
-        return true;
+        return data.get(Uuids.mostSignificantBits(id), Uuids.leastSignificantBits(id));
     }
 
-    private long toBit(Memory memory) {
+    static long toBit(Memory memory) {
         long value = memory.getValue();
 
         switch (memory.getUnit()) {
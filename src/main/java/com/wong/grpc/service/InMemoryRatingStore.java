@@ -1,17 +1,156 @@
 package com.wong.grpc.service;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.time.Clock;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BiConsumer;
 
 public class InMemoryRatingStore implements RatingStore{
-    private ConcurrentMap<String, Rating> data;
+    // the leaderboard is split into bands by vote count, a laptop is only in the band of its count,
+    // so a vote re-ranks it in one skip list, and a TopRated query merges the bands from the one holding
+    // its minimum upwards, skipping the laptops short of the minimum in that first band
+    // every count below 10 has a band of its own and the edges above follow 1-2-5, so the usual minimums
+    // are edges and skip nothing, any other skips part of a single band spanning at most 2.5 times its lowest count
+    private static final int[] BAND_MIN_VOTES = {1, 2, 3, 4, 5, 6, 7, 8, 9,
+            10, 20, 50, 100, 200, 500, 1_000, 2_000, 5_000, 10_000, 20_000, 50_000, 100_000};
+
+    // both keyed by the two halves of the laptop's UUID
+    // data holds the entry a laptop is ranked by, so a vote takes it out of its band without building it again
+    private UUIDHashMap<LaptopRating> data;
+    private final List<ConcurrentSkipListSet<LaptopRating>> bands;
+    private final UUIDHashMap<RatingWindows> recent;
+    private final Clock clock;
 
     public InMemoryRatingStore() {
-        data = new ConcurrentHashMap<>();
+        this(Clock.systemUTC());
+    }
+
+    // the clock decides which RatingWindow buckets a vote counts for
+    public InMemoryRatingStore(Clock clock) {
+        this.clock = clock;
+        data = new UUIDHashMap<>();
+        recent = new UUIDHashMap<>();
+        bands = new ArrayList<>(BAND_MIN_VOTES.length);
+        for (int i = 0; i < BAND_MIN_VOTES.length; i++) {
+            bands.add(new ConcurrentSkipListSet<>(LaptopRating.BEST_FIRST));
+        }
     }
 
     @Override
     public Rating Add(String laptopID, double score) {
-        return data.merge(laptopID, new Rating(1, score), Rating::add);
+        Uuids.checkValid(laptopID);
+        long msb = Uuids.mostSignificantBits(laptopID);
+        long lsb = Uuids.leastSignificantBits(laptopID);
+        Rating rating = add(Uuids.canonical(laptopID), msb, lsb, new Rating(1, score));
+        RatingWindows windows = recent.get(msb, lsb);
+        if (windows == null) {
+            windows = recent.compute(msb, lsb, old -> old != null ? old : new RatingWindows());
+        }
+        windows.Add(clock.millis(), 1, score);
+        return rating;
+    }
+
+    @Override
+    public Rating Add(String laptopID, Rating rating) {
+        Uuids.checkValid(laptopID);
+        return add(Uuids.canonical(laptopID), Uuids.mostSignificantBits(laptopID), Uuids.leastSignificantBits(laptopID),
+                rating);
+    }
+
+    // compute runs under the lock of this laptop's segment, so the leaderboard sees its ratings in order
+    // the laptop is ranked under the canonical ID, whichever spelling its votes came with
+    private Rating add(String laptopID, long msb, long lsb, Rating rating) {
+        return data.compute(msb, lsb, old -> {
+            Rating updated = old == null ? rating : Rating.add(old.getRating(), rating);
+            LaptopRating entry = new LaptopRating(laptopID, msb, lsb, updated);
+            rank(old, entry);
+            return entry;
+        }).getRating();
+    }
+
+    @Override
+    public Rating Find(String laptopID) {
+        if (!Uuids.isValid(laptopID)) {
+            return null;
+        }
+        LaptopRating entry = data.get(Uuids.mostSignificantBits(laptopID), Uuids.leastSignificantBits(laptopID));
+        return entry == null ? null : entry.getRating();
+    }
+
+    @Override
+    public Rating Find(String laptopID, RatingWindow window) {
+        if (!Uuids.isValid(laptopID)) {
+            return null;
+        }
+        long msb = Uuids.mostSignificantBits(laptopID);
+        long lsb = Uuids.leastSignificantBits(laptopID);
+        RatingWindows windows = recent.get(msb, lsb);
+        if (windows == null) {
+            return data.get(msb, lsb) != null ? new Rating(0, 0) : null;
+        }
+        return windows.Get(window, clock.millis());
+    }
+
+    // walks about k entries from the top of the bands, plus the entries short of minVotes in the first one
+    @Override
+    public List<LaptopRating> TopRated(int k, int minVotes) {
+        int first = Math.max(0, band(minVotes));
+        List<Iterator<LaptopRating>> iterators = new ArrayList<>(BAND_MIN_VOTES.length - first);
+        List<LaptopRating> heads = new ArrayList<>(BAND_MIN_VOTES.length - first);
+        for (int i = first; i < BAND_MIN_VOTES.length; i++) {
+            Iterator<LaptopRating> iterator = bands.get(i).iterator();
+            iterators.add(iterator);
+            heads.add(iterator.hasNext() ? iterator.next() : null);
+        }
+
+        List<LaptopRating> top = new ArrayList<>(Math.min(k, 1024));
+        Set<String> seen = new HashSet<>();
+        while (top.size() < k) {
+            int best = -1;
+            for (int i = 0; i < heads.size(); i++) {
+                if (heads.get(i) != null
+                        && (best < 0 || LaptopRating.BEST_FIRST.compare(heads.get(i), heads.get(best)) < 0)) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            LaptopRating entry = heads.get(best);
+            heads.set(best, iterators.get(best).hasNext() ? iterators.get(best).next() : null);
+            // a laptop being re-ranked is briefly there twice, only its first entry counts
+            if (entry.getRating().getCount() >= minVotes && seen.add(entry.getLaptopID())) {
+                top.add(entry);
+            }
+        }
+        return top;
+    }
+
+    // doesn't lock, a laptop voted for meanwhile is visited with its rating before or after the vote
+    @Override
+    public void ForEach(BiConsumer<String, Rating> action) {
+        for (LaptopRating entry : data.values()) {
+            action.accept(entry.getLaptopID(), entry.getRating());
+        }
+    }
+
+    // the new entry goes in before the old one comes out, so a concurrent TopRated never misses the laptop
+    private void rank(LaptopRating before, LaptopRating after) {
+        if (before != null && LaptopRating.BEST_FIRST.compare(before, after) == 0) {
+            return;
+        }
+        int band = band(after.getRating().getCount());
+        if (band >= 0) {
+            bands.get(band).add(after);
+        }
+        if (before != null && band(before.getRating().getCount()) >= 0) {
+            bands.get(band(before.getRating().getCount())).remove(before);
+        }
+    }
+
+    // -1 for laptops without votes
+    private static int band(int votes) {
+        int found = Arrays.binarySearch(BAND_MIN_VOTES, votes);
+        return found >= 0 ? found : -found - 2;
     }
 }
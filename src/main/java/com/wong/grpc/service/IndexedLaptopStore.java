@@ -0,0 +1,220 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.*;
+import io.grpc.Context;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+// a LaptopStore that numbers laptops in the order they are saved and keeps a RowBitmap of the rows
+// for every value of the fields with only a handful of them: brand, keyboard layout and backlight,
+// screen panel and multitouch, and the storage drivers a laptop has
+// Search first works out the rows the categorical conditions of a filter's where allow, by and-ing and or-ing
+// those bitmaps, and only tests the laptops of those rows against the compiled filter
+// conditions on other fields allow every row, as does a storage total that can be met without that driver
+public class IndexedLaptopStore implements LaptopStore {
+
+    private static final Logger logger = Logger.getLogger(IndexedLaptopStore.class.getName());
+
+    private final UUIDHashMap<Integer> rowsByID;
+    private Laptop[] rows;
+    private int rowCount;
+    private final Map<String, RowBitmap> byBrand;
+    private final Map<Keyboard.Layout, RowBitmap> byKeyboardLayout;
+    private final RowBitmap[] byKeyboardBacklit;
+    private final Map<Screen.Panel, RowBitmap> byScreenPanel;
+    private final RowBitmap[] byScreenMultitouch;
+    private final Map<Storage.Driver, RowBitmap> byStorageDriver;
+    // Save takes the write lock, so a Search sees the rows and the bitmaps as of the same Save
+    private final ReadWriteLock lock;
+
+    public IndexedLaptopStore() {
+        rowsByID = new UUIDHashMap<>();
+        rows = new Laptop[1024];
+        byBrand = new HashMap<>();
+        byKeyboardLayout = new EnumMap<>(Keyboard.Layout.class);
+        byKeyboardBacklit = new RowBitmap[]{new RowBitmap(), new RowBitmap()};
+        byScreenPanel = new EnumMap<>(Screen.Panel.class);
+        byScreenMultitouch = new RowBitmap[]{new RowBitmap(), new RowBitmap()};
+        byStorageDriver = new EnumMap<>(Storage.Driver.class);
+        lock = new ReentrantReadWriteLock();
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        String id = laptop.getId();
+        Uuids.checkValid(id);
+        long msb = Uuids.mostSignificantBits(id);
+        long lsb = Uuids.leastSignificantBits(id);
+        lock.writeLock().lock();
+        try {
+            if (rowsByID.get(msb, lsb) != null) {
+                throw new AlreadyExistsException("laptop ID already exists");
+            }
+            int row = rowCount;
+            if (row == rows.length) {
+                rows = Arrays.copyOf(rows, 2 * row);
+            }
+            rows[row] = laptop;
+            rowCount++;
+            index(row, laptop);
+            rowsByID.put(msb, lsb, row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        if (!Uuids.isValid(id)) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Integer row = rowsByID.get(Uuids.mostSignificantBits(id), Uuids.leastSignificantBits(id));
+            return row == null ? null : rows[row];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Laptop> FindAll(Collection<String> ids) {
+        Map<String, Laptop> found = new LinkedHashMap<>();
+        for (String id : ids) {
+            Laptop laptop = Find(id);
+            if (laptop != null) {
+                found.put(id, laptop);
+            }
+        }
+        return found;
+    }
+
+    // rows saved once the candidates are worked out are not searched
+    @Override
+    public void Search(Context ctx, Filter filter, LaptopStream stream) {
+        Laptop[] snapshot;
+        int count;
+        RowBitmap candidates;
+        lock.readLock().lock();
+        try {
+            snapshot = rows;
+            count = rowCount;
+            // a copy, as the bitmaps change with the next Save
+            candidates = filter.hasWhere() ? candidates(filter.getWhere()) : null;
+            candidates = candidates == null ? null : candidates.copy();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        LaptopFilter compiled = LaptopFilter.Compile(filter, Arrays.asList(snapshot).subList(0, count));
+        if (candidates == null) {
+            for (int row = 0; row < count; row++) {
+                if (!visit(ctx, compiled, snapshot[row], stream)) {
+                    return;
+                }
+            }
+        } else {
+            candidates.forEach(row -> visit(ctx, compiled, snapshot[row], stream));
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean visit(Context ctx, LaptopFilter compiled, Laptop laptop, LaptopStream stream) {
+        if (ctx.isCancelled()) {
+            logger.info("context is cancelled");
+            return false;
+        }
+        if (compiled.Matches(laptop)) {
+            stream.Send(laptop);
+        }
+        return true;
+    }
+
+    private void index(int row, Laptop laptop) {
+        byBrand.computeIfAbsent(laptop.getBrand(), brand -> new RowBitmap()).add(row);
+        byKeyboardLayout.computeIfAbsent(laptop.getKeyboard().getLayout(), layout -> new RowBitmap()).add(row);
+        byKeyboardBacklit[laptop.getKeyboard().getBacklit() ? 1 : 0].add(row);
+        byScreenPanel.computeIfAbsent(laptop.getScreen().getPanel(), panel -> new RowBitmap()).add(row);
+        byScreenMultitouch[laptop.getScreen().getMultitouch() ? 1 : 0].add(row);
+        for (Storage storage : laptop.getStoragesList()) {
+            byStorageDriver.computeIfAbsent(storage.getDriver(), driver -> new RowBitmap()).add(row);
+        }
+    }
+
+    // the rows that may meet the condition as far as the bitmaps tell, null if they don't narrow it down
+    // only ever more rows than meet it, so testing the laptops of these rows gives the right answer
+    private RowBitmap candidates(Condition condition) {
+        switch (condition.getConditionCase()) {
+            case ALL_OF: {
+                RowBitmap all = null;
+                for (Condition child : condition.getAllOf().getConditionsList()) {
+                    RowBitmap matching = candidates(child);
+                    if (matching != null) {
+                        all = all == null ? matching : RowBitmap.and(all, matching);
+                    }
+                }
+                return all;
+            }
+            case ANY_OF: {
+                RowBitmap any = RowBitmap.EMPTY;
+                for (Condition child : condition.getAnyOf().getConditionsList()) {
+                    RowBitmap matching = candidates(child);
+                    if (matching == null) {
+                        return null;
+                    }
+                    any = RowBitmap.or(any, matching);
+                }
+                return any;
+            }
+            case BRAND:
+                return brand(condition.getBrand());
+            case KEYBOARD_LAYOUT:
+                return byKeyboardLayout.getOrDefault(condition.getKeyboardLayout(), RowBitmap.EMPTY);
+            case KEYBOARD_BACKLIT:
+                return byKeyboardBacklit[condition.getKeyboardBacklit() ? 1 : 0];
+            case SCREEN_PANEL:
+                return byScreenPanel.getOrDefault(condition.getScreenPanel(), RowBitmap.EMPTY);
+            case SCREEN_MULTITOUCH:
+                return byScreenMultitouch[condition.getScreenMultitouch() ? 1 : 0];
+            case STORAGE_TOTAL: {
+                // a positive total needs some storage with the driver
+                StorageTotal total = condition.getStorageTotal();
+                if (total.getDriver() == Storage.Driver.UNKNOWN || InMemoryLaptopStore.toBit(total.getMin()) <= 0) {
+                    return null;
+                }
+                return byStorageDriver.getOrDefault(total.getDriver(), RowBitmap.EMPTY);
+            }
+            default:
+                return null;
+        }
+    }
+
+    private RowBitmap brand(StringMatch match) {
+        switch (match.getMatchCase()) {
+            case EQUALS:
+                return byBrand.getOrDefault(match.getEquals(), RowBitmap.EMPTY);
+            case PREFIX: {
+                RowBitmap matching = RowBitmap.EMPTY;
+                for (Map.Entry<String, RowBitmap> entry : byBrand.entrySet()) {
+                    if (entry.getKey().startsWith(match.getPrefix())) {
+                        matching = RowBitmap.or(matching, entry.getValue());
+                    }
+                }
+                return matching;
+            }
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.wong.grpc.service;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+import com.wong.grpc.pb.*;
+import io.grpc.Channel;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+// non-blocking counterpart of LaptopClient: nothing here waits on the network, so a single caller can keep
+// many requests in flight at once
+// at most maxOutstandingRequests calls run at the same time, further calls are queued and started as others finish
+// createLaptop and uploadImage have a fixed deadline, the search and rating streams only the one their caller gives,
+// as they last as long as the caller keeps consuming or rating
+public class LaptopAsyncClient {
+
+    private static final long DEADLINE_SECONDS = 5;
+    private static final int CHUNK_SIZE = 1024;
+
+    private final LaptopServiceGrpc.LaptopServiceFutureStub futureStub;
+    private final LaptopServiceGrpc.LaptopServiceStub asyncStub;
+    private final int maxOutstandingRequests;
+    private final Queue<Runnable> waiting;
+    private int outstandingRequests;
+    // a thread is starting queued calls
+    private boolean draining;
+
+    public LaptopAsyncClient(Channel channel, int maxOutstandingRequests) {
+        if (maxOutstandingRequests <= 0) {
+            throw new IllegalArgumentException("maxOutstandingRequests must be positive: " + maxOutstandingRequests);
+        }
+        this.futureStub = LaptopServiceGrpc.newFutureStub(channel);
+        this.asyncStub = LaptopServiceGrpc.newStub(channel);
+        this.maxOutstandingRequests = maxOutstandingRequests;
+        this.waiting = new ArrayDeque<>();
+    }
+
+    // completes with the ID of the created laptop
+    public CompletableFuture<String> createLaptop(Laptop laptop) {
+        CreateLaptopRequest request = CreateLaptopRequest.newBuilder().setLaptop(laptop).build();
+        CompletableFuture<String> result = new CompletableFuture<>();
+
+        submit(() -> {
+            ListenableFuture<CreateLaptopResponse> future = futureStub
+                    .withDeadlineAfter(DEADLINE_SECONDS, TimeUnit.SECONDS)
+                    .createLaptop(request);
+            // cancelling the CompletableFuture cancels the RPC as well
+            result.whenComplete((id, t) -> future.cancel(false));
+            Futures.addCallback(future, new FutureCallback<>() {
+                @Override
+                public void onSuccess(CreateLaptopResponse response) {
+                    finished();
+                    result.complete(response.getId());
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    finished();
+                    result.completeExceptionally(t);
+                }
+            }, MoreExecutors.directExecutor());
+        });
+        return result;
+    }
+
+    // the search starts when a subscriber subscribes, and the server is only asked for as many laptops
+    // as the subscriber requested, so a slow consumer applies back-pressure all the way to the server
+    public Flow.Publisher<Laptop> searchLaptop(Filter filter) {
+        return searchLaptop(filter, null);
+    }
+
+    // the search fails with DEADLINE_EXCEEDED if it isn't done by the deadline, null for none
+    public Flow.Publisher<Laptop> searchLaptop(Filter filter, Deadline deadline) {
+        SearchLaptopRequest request = SearchLaptopRequest.newBuilder().setFilter(filter).build();
+        return subscriber -> {
+            SearchSubscription subscription = new SearchSubscription(subscriber);
+            subscriber.onSubscribe(subscription);
+            submit(() -> {
+                asyncStub.withDeadline(deadline).searchLaptop(request, subscription);
+                subscription.started();
+            });
+        };
+    }
+
+    public CompletableFuture<UploadImageResponse> uploadImage(String laptopID, Path imagePath) {
+        CompletableFuture<UploadImageResponse> result = new CompletableFuture<>();
+        String fileName = imagePath.getFileName().toString();
+        String imageType = fileName.substring(fileName.lastIndexOf("."));
+        AtomicReference<ClientCallStreamObserver<UploadImageRequest>> call = new AtomicReference<>();
+
+        submit(() -> {
+            asyncStub
+                    .withDeadlineAfter(DEADLINE_SECONDS, TimeUnit.SECONDS)
+                    .uploadImage(new ClientResponseObserver<UploadImageRequest, UploadImageResponse>() {
+                        private InputStream image;
+                        private boolean sent;
+
+                        @Override
+                        public void beforeStart(ClientCallStreamObserver<UploadImageRequest> requestStream) {
+                            call.set(requestStream);
+                            // only read the next chunk from disk when the transport can take it
+                            requestStream.setOnReadyHandler(() -> sendChunks(requestStream));
+                        }
+
+                        private void sendChunks(ClientCallStreamObserver<UploadImageRequest> requestStream) {
+                            if (sent) {
+                                return;
+                            }
+                            try {
+                                if (image == null) {
+                                    image = Files.newInputStream(imagePath);
+                                    ImageInfo info = ImageInfo.newBuilder().setLaptopId(laptopID).setImageType(imageType).build();
+                                    requestStream.onNext(UploadImageRequest.newBuilder().setInfo(info).build());
+                                }
+
+                                byte[] buffer = new byte[CHUNK_SIZE];
+                                while (requestStream.isReady()) {
+                                    int n = image.read(buffer);
+                                    if (n <= 0) {
+                                        sent = true;
+                                        image.close();
+                                        requestStream.onCompleted();
+                                        return;
+                                    }
+                                    requestStream.onNext(UploadImageRequest.newBuilder()
+                                            .setChunkData(ByteString.copyFrom(buffer, 0, n))
+                                            .build());
+                                }
+                            } catch (IOException e) {
+                                sent = true;
+                                requestStream.onError(Status.INTERNAL
+                                        .withDescription("cannot read image file: " + e.getMessage())
+                                        .asRuntimeException());
+                            }
+                        }
+
+                        @Override
+                        public void onNext(UploadImageResponse response) {
+                            result.complete(response);
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            closeImage();
+                            finished();
+                            result.completeExceptionally(t);
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                            closeImage();
+                            finished();
+                            result.complete(null);
+                        }
+
+                        private void closeImage() {
+                            try {
+                                if (image != null) {
+                                    image.close();
+                                }
+                            } catch (IOException ignored) {
+                            }
+                        }
+                    });
+            // cancelling the CompletableFuture cancels the upload as well, registered once the call has started,
+            // as a call can't be cancelled before that
+            result.whenComplete((response, t) -> {
+                if (result.isCancelled()) {
+                    call.get().cancel("upload cancelled", null);
+                }
+            });
+        });
+        return result;
+    }
+
+    // ratings are pipelined on one bidirectional stream: rate() returns immediately and its future completes
+    // when the server answers, responses arrive in request order
+    public RateLaptopStream rateLaptop() {
+        return rateLaptop(null);
+    }
+
+    // the stream fails with DEADLINE_EXCEEDED if it isn't completed by the deadline, null for none
+    public RateLaptopStream rateLaptop(Deadline deadline) {
+        RateLaptopStream stream = new RateLaptopStream();
+        submit(() -> stream.start(asyncStub.withDeadline(deadline)::rateLaptop));
+        return stream;
+    }
+
+    public synchronized int getOutstandingRequests() {
+        return outstandingRequests;
+    }
+
+    private void submit(Runnable call) {
+        synchronized (this) {
+            waiting.add(call);
+        }
+        drain();
+    }
+
+    private void finished() {
+        synchronized (this) {
+            outstandingRequests--;
+        }
+        drain();
+    }
+
+    // queued calls are started in a loop by one thread at a time, a call that finishes while being started,
+    // e.g. one failing right away on this thread, leaves its successor to that loop instead of starting it
+    // from its callback, so a long queue never nests calls on the stack
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                // checked and given up in one step, so a call finishing meanwhile finds draining over and drains itself
+                if (outstandingRequests >= maxOutstandingRequests || waiting.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                next = waiting.poll();
+                outstandingRequests++;
+            }
+            next.run();
+        }
+    }
+
+    private class SearchSubscription implements Flow.Subscription, ClientResponseObserver<SearchLaptopRequest, SearchLaptopResponse> {
+        private final Flow.Subscriber<? super Laptop> subscriber;
+        private ClientCallStreamObserver<SearchLaptopRequest> requestStream;
+        private long pendingDemand;
+        private boolean started;
+        private boolean cancelled;
+
+        SearchSubscription(Flow.Subscriber<? super Laptop> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        // the stream can't take request() or cancel() until the call has started, so demand is buffered until then
+        @Override
+        public void beforeStart(ClientCallStreamObserver<SearchLaptopRequest> requestStream) {
+            synchronized (this) {
+                this.requestStream = requestStream;
+                requestStream.disableAutoRequestWithInitial((int) Math.min(pendingDemand, Integer.MAX_VALUE));
+                pendingDemand -= Math.min(pendingDemand, Integer.MAX_VALUE);
+            }
+        }
+
+        void started() {
+            long demand;
+            synchronized (this) {
+                started = true;
+                demand = pendingDemand;
+                pendingDemand = 0;
+                if (cancelled) {
+                    requestStream.cancel("subscription cancelled", null);
+                    return;
+                }
+            }
+            requestMessages(requestStream, demand);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("request must be positive: " + n));
+                return;
+            }
+
+            synchronized (this) {
+                if (!started) {
+                    pendingDemand = Math.max(pendingDemand + n, pendingDemand);
+                    return;
+                }
+            }
+            requestMessages(requestStream, n);
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                if (!started) {
+                    return;
+                }
+            }
+            requestStream.cancel("subscription cancelled", null);
+        }
+
+        @Override
+        public void onNext(SearchLaptopResponse response) {
+            subscriber.onNext(response.getLaptop());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            finished();
+            if (!isCancelled()) {
+                subscriber.onError(t);
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            finished();
+            subscriber.onComplete();
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        // a demand of Integer.MAX_VALUE is already unbounded for the call, so a subscriber asking for
+        // Long.MAX_VALUE must not be split into billions of request() calls
+        private static void requestMessages(ClientCallStreamObserver<SearchLaptopRequest> stream, long n) {
+            if (n > 0) {
+                stream.request((int) Math.min(n, Integer.MAX_VALUE));
+            }
+        }
+    }
+
+    public class RateLaptopStream {
+        private final Queue<CompletableFuture<RateLaptopResponse>> pending = new ArrayDeque<>();
+        private final Queue<RateLaptopRequest> buffered = new ArrayDeque<>();
+        private StreamObserver<RateLaptopRequest> requestObserver;
+        private boolean completed;
+        private Throwable error;
+
+        public CompletableFuture<RateLaptopResponse> rate(String laptopID, double score) {
+            RateLaptopRequest request = RateLaptopRequest.newBuilder().setLaptopId(laptopID).setScore(score).build();
+            CompletableFuture<RateLaptopResponse> result = new CompletableFuture<>();
+
+            synchronized (this) {
+                if (error != null || completed) {
+                    result.completeExceptionally(error != null ? error : new IllegalStateException("stream is completed"));
+                    return result;
+                }
+                pending.add(result);
+                // the call may still be waiting for a free slot, in that case send once it starts
+                if (requestObserver == null) {
+                    buffered.add(request);
+                    return result;
+                }
+                requestObserver.onNext(request);
+            }
+            return result;
+        }
+
+        // no more ratings will be sent, the stream closes once all pending ratings are answered
+        public synchronized void complete() {
+            completed = true;
+            if (requestObserver != null) {
+                requestObserver.onCompleted();
+            }
+        }
+
+        private void start(Function<StreamObserver<RateLaptopResponse>, StreamObserver<RateLaptopRequest>> call) {
+            StreamObserver<RateLaptopRequest> observer = call.apply(new StreamObserver<>() {
+                @Override
+                public void onNext(RateLaptopResponse response) {
+                    CompletableFuture<RateLaptopResponse> next;
+                    synchronized (RateLaptopStream.this) {
+                        next = pending.poll();
+                    }
+                    if (next != null) {
+                        next.complete(response);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    finished();
+                    failPending(t);
+                }
+
+                @Override
+                public void onCompleted() {
+                    finished();
+                    failPending(new IllegalStateException("stream closed before all ratings were answered"));
+                }
+            });
+
+            synchronized (this) {
+                requestObserver = observer;
+                RateLaptopRequest request;
+                while ((request = buffered.poll()) != null) {
+                    observer.onNext(request);
+                }
+                if (completed) {
+                    observer.onCompleted();
+                }
+            }
+        }
+
+        private void failPending(Throwable t) {
+            Queue<CompletableFuture<RateLaptopResponse>> failed;
+            synchronized (this) {
+                error = t;
+                failed = new ArrayDeque<>(pending);
+                pending.clear();
+            }
+            failed.forEach(future -> future.completeExceptionally(t));
+        }
+    }
+}
@@ -11,8 +11,13 @@ import io.grpc.stub.StreamObserver;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -27,22 +32,124 @@ public class LaptopClient {
     private final LaptopServiceGrpc.LaptopServiceBlockingStub blockingStub;
     // we cannot use blocking stub to call the client streaming RPC, bidirectional-streaming RPC instead need to use asynchronous stub
     private final LaptopServiceGrpc.LaptopServiceStub asyncStub;
+    private volatile LaptopNearCache nearCache;
 
 
     public LaptopClient(String host, int port) {
-        channel = ManagedChannelBuilder.forAddress(host, port)
+        this(host, port, CompressionPolicy.none());
+    }
+
+    // the encodings listed in compressionPolicy are the only ones advertised to the server,
+    // so the client decides whether responses may come back compressed
+    public LaptopClient(String host, int port, CompressionPolicy compressionPolicy) {
+        this(newChannel(host, port, compressionPolicy));
+    }
+
+    // spreads calls over poolSize connections to the server, idle connections are closed after 5 minutes
+    public LaptopClient(String host, int port, int poolSize, ChannelPool.Strategy strategy) {
+        this(host, port, poolSize, strategy, CompressionPolicy.none());
+    }
+
+    // same as above, every channel of the pool uses compressionPolicy
+    public LaptopClient(String host, int port, int poolSize, ChannelPool.Strategy strategy, CompressionPolicy compressionPolicy) {
+        this(new ChannelPool(() -> newChannel(host, port, compressionPolicy), poolSize, strategy, 5, TimeUnit.MINUTES));
+    }
+
+    // target is resolved by StaticNameResolverProvider or FileNameResolverProvider, e.g. static:///host1:50051,host2:50051,
+    // loadBalancingPolicy is "round_robin" or "weighted_least_request"; endpoints that keep failing are ejected for a while
+    public LaptopClient(String target, String loadBalancingPolicy) {
+        this(ManagedChannelBuilder.forTarget(target)
                 .usePlaintext()
-                .build();
+                .defaultServiceConfig(loadBalancingConfig(loadBalancingPolicy))
+                .build());
+    }
+
+    // same as above, and the latency of every call is kept in recorder,
+    // e.g. to hedge a later client after the p95 seen here, see RetryPolicy.fromObservedLatency
+    public LaptopClient(String target, String loadBalancingPolicy, LatencyRecorder recorder) {
+        this(ManagedChannelBuilder.forTarget(target)
+                .usePlaintext()
+                .defaultServiceConfig(loadBalancingConfig(loadBalancingPolicy))
+                .intercept(recorder)
+                .build());
+    }
 
+    // same as above, and idempotent calls are hedged or retried as described in RetryPolicy
+    public LaptopClient(String target, String loadBalancingPolicy, RetryPolicy retryPolicy) {
+        this(newChannel(target, loadBalancingPolicy, retryPolicy));
+    }
+
+    // use any channel, e.g. one from EmbeddedLaptopServer.newChannel() to call a server in the same JVM
+    public LaptopClient(ManagedChannel channel) {
+        this.channel = channel;
         blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
         asyncStub = LaptopServiceGrpc.newStub(channel);
     }
 
+    // the channel of the client above, e.g. for a LaptopAsyncClient that hedges its reads the same way
+    // the service config is fixed once the channel is built, a delay from newer latencies needs a new channel
+    public static ManagedChannel newChannel(String target, String loadBalancingPolicy, RetryPolicy retryPolicy) {
+        return ManagedChannelBuilder.forTarget(target)
+                .usePlaintext()
+                .defaultServiceConfig(withRetryPolicy(loadBalancingConfig(loadBalancingPolicy), retryPolicy))
+                .enableRetry()
+                .build();
+    }
+
+    private static ManagedChannel newChannel(String host, int port, CompressionPolicy compressionPolicy) {
+        return ManagedChannelBuilder.forAddress(host, port)
+                .usePlaintext()
+                .decompressorRegistry(compressionPolicy.decompressorRegistry())
+                .compressorRegistry(compressionPolicy.compressorRegistry())
+                .intercept(new CompressionClientInterceptor(compressionPolicy))
+                .build();
+    }
+
+    private static Map<String, ?> loadBalancingConfig(String policy) {
+        return loadBalancingConfig(policy, "10s");
+    }
+
+    // service config values follow the JSON model: numbers are doubles, durations are strings
+    // ejectionInterval is how often failure rates are checked, tests use a shorter one
+    static Map<String, ?> loadBalancingConfig(String policy, String ejectionInterval) {
+        Map<String, Object> failurePercentageEjection = Map.of(
+                "threshold", 50.0,
+                "enforcementPercentage", 100.0,
+                "minimumHosts", 2.0,
+                "requestVolume", 10.0);
+        Map<String, Object> outlierDetection = Map.of(
+                "interval", ejectionInterval,
+                "baseEjectionTime", "30s",
+                "maxEjectionTime", "300s",
+                "maxEjectionPercentage", 50.0,
+                "failurePercentageEjection", failurePercentageEjection,
+                "childPolicy", List.of(Map.of(policy, Map.of())));
+
+        return Map.of(
+                "loadBalancingConfig", List.of(Map.of("outlier_detection_experimental", outlierDetection)),
+                "healthCheckConfig", Map.of("serviceName", LaptopServiceGrpc.SERVICE_NAME));
+    }
+
+    // non-blocking API on the same channel, with at most maxOutstandingRequests calls in flight
+    public LaptopAsyncClient newAsyncClient(int maxOutstandingRequests) {
+        return new LaptopAsyncClient(channel, maxOutstandingRequests);
+    }
+
+    private static Map<String, ?> withRetryPolicy(Map<String, ?> serviceConfig, RetryPolicy retryPolicy) {
+        Map<String, Object> merged = new HashMap<>(serviceConfig);
+        merged.putAll(retryPolicy.toServiceConfig());
+        return merged;
+    }
+
     public void shutdown() throws InterruptedException {
         channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
     }
 
     public void createLaptop(Laptop laptop) {
+        // the ID is fixed before the first attempt, so a retried create can't save the laptop twice, see RetryPolicy
+        if (laptop.getId().isEmpty()) {
+            laptop = laptop.toBuilder().setId(UUID.randomUUID().toString()).build();
+        }
         CreateLaptopRequest request = CreateLaptopRequest.newBuilder().setLaptop(laptop).build();
         CreateLaptopResponse response = CreateLaptopResponse.getDefaultInstance();
 
@@ -67,6 +174,96 @@ public class LaptopClient {
         logger.info("laptop created with ID: " + response.getId());
     }
 
+    // hot laptops are then served from memory, see LaptopNearCache
+    public void enableNearCache(int maxEntries, long ttl, TimeUnit unit) {
+        nearCache = new LaptopNearCache(maxEntries, ttl, unit);
+    }
+
+    public LaptopNearCache getNearCache() {
+        return nearCache;
+    }
+
+    // returns null if the laptop doesn't exist or the request failed
+    public Laptop getLaptop(String id) {
+        LaptopNearCache cache = nearCache;
+        Laptop cached = null;
+        if (cache != null) {
+            Laptop fresh = cache.getFresh(id);
+            if (fresh != null) {
+                return fresh;
+            }
+            cached = cache.get(id);
+        }
+
+        GetLaptopRequest.Builder request = GetLaptopRequest.newBuilder().setId(id);
+        if (cached != null) {
+            request.setKnownUpdatedAt(cached.getUpdatedAt());
+        }
+
+        GetLaptopResponse response;
+        try {
+            response = blockingStub.withDeadlineAfter(5, TimeUnit.SECONDS).getLaptop(request.build());
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() == Status.Code.NOT_FOUND) {
+                if (cache != null) {
+                    cache.invalidate(id);
+                }
+                return null;
+            }
+            logger.log(Level.SEVERE, "request failed: " + e.getMessage());
+            return null;
+        }
+
+        Laptop laptop = response.getNotModified() ? cached : response.getLaptop();
+        if (cache != null) {
+            cache.put(laptop);
+        }
+        return laptop;
+    }
+
+    // returns the laptops found, keyed by the requested IDs, only IDs missing from the near cache are sent to the server
+    public Map<String, Laptop> batchGetLaptops(List<String> ids) {
+        LaptopNearCache cache = nearCache;
+        // keyed by the canonical ID, the server returns laptops under their saved lower-case ID
+        Map<String, Laptop> found = new LinkedHashMap<>();
+        BatchGetLaptopsRequest.Builder request = BatchGetLaptopsRequest.newBuilder();
+        for (String id : ids) {
+            Laptop fresh = cache == null ? null : cache.getFresh(id);
+            if (fresh != null) {
+                found.put(key(id), fresh);
+            } else {
+                request.addIds(id);
+            }
+        }
+
+        if (request.getIdsCount() > 0) {
+            try {
+                BatchGetLaptopsResponse response = blockingStub.withDeadlineAfter(5, TimeUnit.SECONDS).batchGetLaptops(request.build());
+                for (Laptop laptop : response.getLaptopsList()) {
+                    found.put(key(laptop.getId()), laptop);
+                    if (cache != null) {
+                        cache.put(laptop);
+                    }
+                }
+                if (cache != null) {
+                    response.getMissingIdsList().forEach(cache::invalidate);
+                }
+            } catch (StatusRuntimeException e) {
+                logger.log(Level.SEVERE, "request failed: " + e.getMessage());
+            }
+        }
+
+        // keep the order of the requested IDs
+        Map<String, Laptop> ordered = new LinkedHashMap<>();
+        for (String id : ids) {
+            Laptop laptop = found.get(key(id));
+            if (laptop != null) {
+                ordered.put(id, laptop);
+            }
+        }
+        return ordered;
+    }
+
     public void searchLaptop(Filter filter) {
         logger.info("search started");
 
@@ -291,4 +488,7 @@ public class LaptopClient {
         }
     }
 
+    private static String key(String id) {
+        return Uuids.isValid(id) ? Uuids.canonical(id) : id;
+    }
 }
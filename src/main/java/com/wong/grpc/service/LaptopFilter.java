@@ -0,0 +1,366 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+// a Filter compiled once per query into a tree of predicates, each testing a single condition with its operands
+// converted up front (memory to bits, pounds to kilograms), so testing a laptop does nothing the filter doesn't ask for:
+// the minimum bounds left at their zero value are dropped, and a filter without a where tests the four classic bounds only
+// max_price_usd always applies like it always did, a filter that leaves it at zero only matches laptops priced at zero
+// the children of an all_of run in the order that rejects a laptop soonest for the least work,
+// those of an any_of in the order that accepts it soonest: by cost over the chance to decide the laptop
+// the chance is measured on a sample of the store when there is one, and guessed from the kind of condition otherwise
+public final class LaptopFilter {
+
+    // laptops of the sample a filter is estimated on
+    static final int SAMPLE_SIZE = 256;
+    private static final double KG_PER_LB = 0.45359237;
+
+    private final Node root;
+
+    private LaptopFilter(Node root) {
+        this.root = root;
+    }
+
+    public static LaptopFilter Compile(Filter filter) {
+        return Compile(filter, List.of());
+    }
+
+    // throws IllegalArgumentException for a condition that isn't set or can't be met by construction
+    public static LaptopFilter Compile(Filter filter, Iterable<Laptop> sample) {
+        List<Laptop> laptops = take(sample);
+        List<Node> terms = new ArrayList<>();
+        double maxPrice = filter.getMaxPriceUsd();
+        terms.add(new Node(laptop -> laptop.getPriceUsd() <= maxPrice, 1, 0.5));
+        if (filter.getMinCpuCores() > 0) {
+            int minCores = filter.getMinCpuCores();
+            terms.add(new Node(laptop -> laptop.getCpu().getNumberCores() >= minCores, 1, 0.5));
+        }
+        if (filter.getMinCpuGhz() > 0) {
+            double minGhz = filter.getMinCpuGhz();
+            terms.add(new Node(laptop -> laptop.getCpu().getMinGhz() >= minGhz, 1, 0.5));
+        }
+        long minRam = InMemoryLaptopStore.toBit(filter.getMinRam());
+        if (minRam > 0) {
+            terms.add(new Node(laptop -> InMemoryLaptopStore.toBit(laptop.getRam()) >= minRam, 1, 0.5));
+        }
+        for (Node term : terms) {
+            term.estimate(laptops);
+        }
+        if (filter.hasWhere()) {
+            terms.add(compile(filter.getWhere(), laptops));
+        }
+        return new LaptopFilter(all(terms));
+    }
+
+    // throws the IllegalArgumentException Compile would, without building the predicates, for callers that
+    // only check a filter before handing it on to a store, which compiles it on a sample of its own
+    public static void Validate(Filter filter) {
+        if (filter.hasWhere()) {
+            validate(filter.getWhere());
+        }
+    }
+
+    // only the where part, for stores that test the classic bounds another way
+    public static LaptopFilter Compile(Condition condition) {
+        return new LaptopFilter(compile(condition, List.of()));
+    }
+
+    public boolean Matches(Laptop laptop) {
+        return root.test.test(laptop);
+    }
+
+    private static void validate(Condition condition) {
+        switch (condition.getConditionCase()) {
+            case ALL_OF:
+                validate(condition.getAllOf());
+                break;
+            case ANY_OF:
+                validate(condition.getAnyOf());
+                break;
+            case BRAND:
+                checkMatch(condition.getBrand());
+                break;
+            case NAME:
+                checkMatch(condition.getName());
+                break;
+            case RELEASE_YEAR:
+                checkRange(condition.getReleaseYear());
+                break;
+            case WEIGHT_KG:
+                checkRange(condition.getWeightKg());
+                break;
+            case SCREEN_SIZE_INCH:
+                checkRange(condition.getScreenSizeInch());
+                break;
+            case STORAGE_TOTAL:
+                checkStorage(condition.getStorageTotal());
+                break;
+            case CONDITION_NOT_SET:
+                throw new IllegalArgumentException("condition is not set");
+            default:
+                break;
+        }
+    }
+
+    private static void validate(Conditions conditions) {
+        checkChildren(conditions);
+        for (Condition condition : conditions.getConditionsList()) {
+            validate(condition);
+        }
+    }
+
+    private static Node compile(Condition condition, List<Laptop> sample) {
+        Node node;
+        switch (condition.getConditionCase()) {
+            case ALL_OF:
+                node = all(children(condition.getAllOf(), sample));
+                break;
+            case ANY_OF:
+                node = any(children(condition.getAnyOf(), sample));
+                break;
+            case BRAND:
+                node = string(condition.getBrand(), Laptop::getBrand);
+                break;
+            case NAME:
+                node = string(condition.getName(), Laptop::getName);
+                break;
+            case RELEASE_YEAR:
+                node = range(condition.getReleaseYear(), laptop -> laptop.getReleaseYear(), 1);
+                break;
+            case WEIGHT_KG:
+                node = range(condition.getWeightKg(), LaptopFilter::weightKg, 2);
+                break;
+            case SCREEN_SIZE_INCH:
+                node = range(condition.getScreenSizeInch(), laptop -> laptop.getScreen().getSizeInch(), 2);
+                break;
+            case MIN_SCREEN_RESOLUTION: {
+                int width = condition.getMinScreenResolution().getWidth();
+                int height = condition.getMinScreenResolution().getHeight();
+                node = new Node(laptop -> laptop.getScreen().getResolution().getWidth() >= width
+                        && laptop.getScreen().getResolution().getHeight() >= height, 3, 0.5);
+                break;
+            }
+            case SCREEN_PANEL: {
+                Screen.Panel panel = condition.getScreenPanel();
+                node = new Node(laptop -> laptop.getScreen().getPanel() == panel, 2, 0.5);
+                break;
+            }
+            case SCREEN_MULTITOUCH: {
+                boolean multitouch = condition.getScreenMultitouch();
+                node = new Node(laptop -> laptop.getScreen().getMultitouch() == multitouch, 2, 0.5);
+                break;
+            }
+            case MIN_GPU_MEMORY: {
+                long bits = InMemoryLaptopStore.toBit(condition.getMinGpuMemory());
+                node = new Node(laptop -> {
+                    for (GPU gpu : laptop.getGpusList()) {
+                        if (InMemoryLaptopStore.toBit(gpu.getMemory()) >= bits) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }, 4, 0.5);
+                break;
+            }
+            case STORAGE_TOTAL:
+                node = storage(condition.getStorageTotal());
+                break;
+            case KEYBOARD_LAYOUT: {
+                Keyboard.Layout layout = condition.getKeyboardLayout();
+                node = new Node(laptop -> laptop.getKeyboard().getLayout() == layout, 2, 0.3);
+                break;
+            }
+            case KEYBOARD_BACKLIT: {
+                boolean backlit = condition.getKeyboardBacklit();
+                node = new Node(laptop -> laptop.getKeyboard().getBacklit() == backlit, 2, 0.5);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("condition is not set");
+        }
+        node.estimate(sample);
+        return node;
+    }
+
+    private static List<Node> children(Conditions conditions, List<Laptop> sample) {
+        checkChildren(conditions);
+        List<Node> children = new ArrayList<>(conditions.getConditionsCount());
+        for (Condition condition : conditions.getConditionsList()) {
+            children.add(compile(condition, sample));
+        }
+        return children;
+    }
+
+    // the guess assumes the children are independent, a sample measures the combination itself
+    private static Node all(List<Node> children) {
+        if (children.size() == 1) {
+            return children.get(0);
+        }
+        Node[] order = children.toArray(new Node[0]);
+        Arrays.sort(order, Comparator.comparingDouble(node -> node.cost / Math.max(1e-9, 1 - node.pass)));
+        double cost = 0;
+        double pass = 1;
+        for (Node node : order) {
+            cost += pass * node.cost;
+            pass *= node.pass;
+        }
+        return new Node(laptop -> {
+            for (Node node : order) {
+                if (!node.test.test(laptop)) {
+                    return false;
+                }
+            }
+            return true;
+        }, cost, pass);
+    }
+
+    private static Node any(List<Node> children) {
+        if (children.size() == 1) {
+            return children.get(0);
+        }
+        Node[] order = children.toArray(new Node[0]);
+        Arrays.sort(order, Comparator.comparingDouble(node -> node.cost / Math.max(1e-9, node.pass)));
+        double cost = 0;
+        double fail = 1;
+        for (Node node : order) {
+            cost += fail * node.cost;
+            fail *= 1 - node.pass;
+        }
+        return new Node(laptop -> {
+            for (Node node : order) {
+                if (node.test.test(laptop)) {
+                    return true;
+                }
+            }
+            return false;
+        }, cost, 1 - fail);
+    }
+
+    private static Node string(StringMatch match, Function<Laptop, String> field) {
+        checkMatch(match);
+        if (match.getMatchCase() == StringMatch.MatchCase.EQUALS) {
+            String value = match.getEquals();
+            return new Node(laptop -> field.apply(laptop).equals(value), 2, 0.2);
+        }
+        String prefix = match.getPrefix();
+        return new Node(laptop -> field.apply(laptop).startsWith(prefix), 2, 0.3);
+    }
+
+    private static Node range(Range range, ToDoubleFunction<Laptop> field, double cost) {
+        checkRange(range);
+        double min = range.hasMin() ? range.getMin() : Double.NEGATIVE_INFINITY;
+        double max = range.hasMax() ? range.getMax() : Double.POSITIVE_INFINITY;
+        if (range.hasMin() && range.hasMax()) {
+            return new Node(laptop -> {
+                double value = field.applyAsDouble(laptop);
+                return value >= min && value <= max;
+            }, cost, 0.3);
+        }
+        if (range.hasMin()) {
+            return new Node(laptop -> field.applyAsDouble(laptop) >= min, cost, 0.5);
+        }
+        if (range.hasMax()) {
+            return new Node(laptop -> field.applyAsDouble(laptop) <= max, cost, 0.5);
+        }
+        // NaN for laptops without a value, which then fail any bound
+        return new Node(laptop -> !Double.isNaN(field.applyAsDouble(laptop)), cost, 0.9);
+    }
+
+    private static Node storage(StorageTotal total) {
+        checkStorage(total);
+        Storage.Driver driver = total.getDriver();
+        long min = total.hasMin() ? InMemoryLaptopStore.toBit(total.getMin()) : Long.MIN_VALUE;
+        long max = total.hasMax() ? InMemoryLaptopStore.toBit(total.getMax()) : Long.MAX_VALUE;
+        return new Node(laptop -> {
+            long bits = 0;
+            for (Storage storage : laptop.getStoragesList()) {
+                if (driver == Storage.Driver.UNKNOWN || storage.getDriver() == driver) {
+                    bits += InMemoryLaptopStore.toBit(storage.getMemory());
+                }
+            }
+            return bits >= min && bits <= max;
+        }, 5, 0.5);
+    }
+
+    private static void checkChildren(Conditions conditions) {
+        if (conditions.getConditionsCount() == 0) {
+            throw new IllegalArgumentException("all_of and any_of need at least one condition");
+        }
+    }
+
+    private static void checkMatch(StringMatch match) {
+        if (match.getMatchCase() == StringMatch.MatchCase.MATCH_NOT_SET) {
+            throw new IllegalArgumentException("string match has neither equals nor prefix");
+        }
+    }
+
+    private static void checkRange(Range range) {
+        if (range.hasMin() && range.hasMax() && range.getMin() > range.getMax()) {
+            throw new IllegalArgumentException("range min " + range.getMin() + " is above its max " + range.getMax());
+        }
+    }
+
+    private static void checkStorage(StorageTotal total) {
+        if (!total.hasMin() && !total.hasMax()) {
+            throw new IllegalArgumentException("storage total has neither min nor max");
+        }
+    }
+
+    private static double weightKg(Laptop laptop) {
+        switch (laptop.getWeightCase()) {
+            case WEIGHT_KG:
+                return laptop.getWeightKg();
+            case WEIGHT_LB:
+                return laptop.getWeightLb() * KG_PER_LB;
+            default:
+                return Double.NaN;
+        }
+    }
+
+    private static List<Laptop> take(Iterable<Laptop> sample) {
+        List<Laptop> laptops = new ArrayList<>(SAMPLE_SIZE);
+        for (Laptop laptop : sample) {
+            if (laptops.size() == SAMPLE_SIZE) {
+                break;
+            }
+            laptops.add(laptop);
+        }
+        return laptops;
+    }
+
+    private static final class Node {
+        private final Predicate<Laptop> test;
+        // relative work of one test, a field comparison costs 1
+        private final double cost;
+        // the share of laptops expected to pass
+        private double pass;
+
+        private Node(Predicate<Laptop> test, double cost, double pass) {
+            this.test = test;
+            this.cost = cost;
+            this.pass = pass;
+        }
+
+        // smoothed, so a condition that no sampled laptop meets is still ranked by its cost
+        private void estimate(List<Laptop> sample) {
+            if (sample.isEmpty()) {
+                return;
+            }
+            int passed = 0;
+            for (Laptop laptop : sample) {
+                if (test.test(laptop)) {
+                    passed++;
+                }
+            }
+            pass = (passed + 1.0) / (sample.size() + 2.0);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Laptop;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// bounded LRU cache of laptops on the client side
+// an entry younger than the TTL is served without asking the server, an older one is revalidated
+// by sending its updated_at so the server only sends the laptop back if it has changed
+// entries are keyed by the canonical ID, so any spelling of a UUID finds the same laptop
+public class LaptopNearCache {
+
+    private final long ttlNanos;
+    private final Map<String, Entry> entries;
+    private long hits;
+    private long misses;
+
+    public LaptopNearCache(int maxEntries, long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // returns the cached laptop only if it doesn't need revalidation yet
+    public synchronized Laptop getFresh(String id) {
+        Entry entry = entries.get(key(id));
+        if (entry != null && System.nanoTime() - entry.fetchedAt < ttlNanos) {
+            hits++;
+            return entry.laptop;
+        }
+        misses++;
+        return null;
+    }
+
+    // returns the cached laptop regardless of its age, used as the base for revalidation
+    public synchronized Laptop get(String id) {
+        Entry entry = entries.get(key(id));
+        return entry == null ? null : entry.laptop;
+    }
+
+    // stores the laptop, or restarts the TTL of a revalidated one
+    public synchronized void put(Laptop laptop) {
+        entries.put(key(laptop.getId()), new Entry(laptop, System.nanoTime()));
+    }
+
+    public synchronized void invalidate(String id) {
+        entries.remove(key(id));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static String key(String id) {
+        return Uuids.isValid(id) ? Uuids.canonical(id) : id;
+    }
+
+    private static class Entry {
+        private final Laptop laptop;
+        private final long fetchedAt;
+
+        Entry(Laptop laptop, long fetchedAt) {
+            this.laptop = laptop;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.wong.grpc.service;
+
+import java.util.Comparator;
+
+// the votes of one laptop, as listed by RatingStore.TopRated
+public class LaptopRating {
+    // best average first, ties go to the laptop with more votes, then to the lower ID
+    // the halves of a UUID compared unsigned order like its lower-case string, without reaching into the string
+    static final Comparator<LaptopRating> BEST_FIRST = (a, b) -> {
+        int order = Double.compare(b.average, a.average);
+        if (order == 0) {
+            order = Integer.compare(b.count, a.count);
+        }
+        if (order == 0) {
+            order = Long.compareUnsigned(a.msb, b.msb);
+        }
+        return order != 0 ? order : Long.compareUnsigned(a.lsb, b.lsb);
+    };
+
+    private final String laptopID;
+    private final Rating rating;
+    // kept to rank the entry without dividing or following the rating and ID on every comparison
+    private final double average;
+    private final int count;
+    private final long msb;
+    private final long lsb;
+
+    public LaptopRating(String laptopID, Rating rating) {
+        this(laptopID, Uuids.mostSignificantBits(laptopID), Uuids.leastSignificantBits(laptopID), rating);
+    }
+
+    LaptopRating(String laptopID, long msb, long lsb, Rating rating) {
+        this.laptopID = laptopID;
+        this.rating = rating;
+        this.average = rating.getAverage();
+        this.count = rating.getCount();
+        this.msb = msb;
+        this.lsb = lsb;
+    }
+
+    public String getLaptopID() {
+        return laptopID;
+    }
+
+    public Rating getRating() {
+        return rating;
+    }
+
+    public double getAverage() {
+        return average;
+    }
+}
@@ -1,33 +1,107 @@
 package com.wong.grpc.service;
 
+import com.wong.grpc.pb.LaptopServiceGrpc;
+import com.wong.grpc.pb.ReplicationServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.protobuf.services.HealthStatusManager;
 import io.grpc.protobuf.services.ProtoReflectionService;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
 import java.util.concurrent.TimeUnit;
 
 public class LaptopServer {
     private static final Logger logger = Logger.getLogger(LaptopServer.class.getName());
 
+    // connections are closed with a GOAWAY after this age, so clients re-resolve and spread onto new instances
+    private static final long MAX_CONNECTION_AGE_MINUTES = 5;
+    // time given to calls on an aged connection before it is closed forcibly
+    private static final long MAX_CONNECTION_AGE_GRACE_SECONDS = 30;
+    private static final long DRAIN_TIMEOUT_SECONDS = 30;
+
     private final int port;
     private final Server server;
+    private final HealthStatusManager health;
+    private final InFlightCallTracker inFlightCalls;
+    private final ServingGate gate;
+    private final LaptopWatchers watchers;
+    // see onDrain
+    private final List<Runnable> drainActions;
 
     public LaptopServer(int port, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore){
-        this(ServerBuilder.forPort(port), port, laptopStore, imageStore, ratingStore);
+        this(newServerBuilder(port), port, laptopStore, imageStore, ratingStore);
+    }
+
+    public LaptopServer(ServerBuilder<?> serverBuilder, int port, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore) {
+        this(serverBuilder, port, laptopStore, imageStore, ratingStore, CompressionPolicy.none());
     }
 
-    public LaptopServer(ServerBuilder serverBuilder, int port, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore) {
+    public LaptopServer(ServerBuilder<?> serverBuilder, int port, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore,
+                        CompressionPolicy compressionPolicy) {
         this.port = port;
-        LaptopService laptopService = new LaptopService(laptopStore, imageStore, ratingStore);
-        server = serverBuilder.addService(laptopService)
+        this.health = new HealthStatusManager();
+        this.inFlightCalls = new InFlightCallTracker();
+        this.gate = new ServingGate();
+        this.watchers = new LaptopWatchers();
+        this.drainActions = new CopyOnWriteArrayList<>();
+        LaptopService laptopService = new LaptopService(laptopStore, imageStore, ratingStore, watchers);
+        // the health service is left out of call tracking, its Watch streams stay open until the server terminates
+        // calls the gate rejects are not tracked either
+        server = serverBuilder.addService(ServerInterceptors.intercept(laptopService,
+                        new CompressionServerInterceptor(compressionPolicy), inFlightCalls, gate))
+                .addService(health.getHealthService())
                 .addService(ProtoReflectionService.newInstance())
+                .compressorRegistry(compressionPolicy.compressorRegistry())
+                .decompressorRegistry(compressionPolicy.decompressorRegistry())
                 .build();
 
     }
 
+    public static ServerBuilder<?> newServerBuilder(int port) {
+        return ServerBuilder.forPort(port)
+                .maxConnectionAge(MAX_CONNECTION_AGE_MINUTES, TimeUnit.MINUTES)
+                .maxConnectionAgeGrace(MAX_CONNECTION_AGE_GRACE_SECONDS, TimeUnit.SECONDS);
+    }
+
     public void start() throws IOException{
+        startServer();
+        setServingStatus(ServingStatus.SERVING);
+    }
+
+    // the server accepts connections right away but reports NOT_SERVING until the preload finished,
+    // so health-checking clients and load balancers keep sending traffic to other nodes meanwhile,
+    // and LaptopService calls that still come in fail with UNAVAILABLE
+    // if the preload fails the server stays NOT_SERVING and keeps failing them rather than serve an incomplete catalog
+    public void start(CatalogPreloader preloader) throws IOException {
+        long start = System.nanoTime();
+        gate.close("catalog preload in progress");
+        startServer();
+        setServingStatus(ServingStatus.NOT_SERVING);
+
+        Thread preload = new Thread(() -> {
+            try {
+                preloader.Preload();
+                gate.open();
+                setServingStatus(ServingStatus.SERVING);
+                logger.info("server ready " + (System.nanoTime() - start) / 1_000_000 + " ms after start");
+            } catch (IOException | RuntimeException e) {
+                gate.close("catalog preload failed");
+                logger.severe("catalog preload failed, server stays NOT_SERVING: " + e.getMessage());
+            }
+        }, "catalog-preload");
+        preload.setDaemon(true);
+        preload.start();
+    }
+
+    private void startServer() throws IOException {
         server.start();
         logger.info("server started on port: " + port);
 
@@ -45,10 +119,61 @@ public class LaptopServer {
         });
     }
 
+    // the bound port, which differs from the configured one when the server was built for port 0
+    public int getPort() {
+        return server.getPort();
+    }
+
     public void stop() throws InterruptedException {
-        if (server != null) {
-            server.shutdown().awaitTermination(30,TimeUnit.SECONDS );
+        drain(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // takes the server out of rotation without cutting off calls in progress:
+    // health turns NOT_SERVING, a GOAWAY stops new calls on existing connections,
+    // and calls still running when the timeout elapses are cancelled so their clients reconnect elsewhere
+    public void drain(long timeout, TimeUnit unit) throws InterruptedException {
+        if (server == null || server.isTerminated()) {
+            return;
+        }
+
+        health.enterTerminalState();
+        server.shutdown();
+        // watches never finish on their own
+        watchers.close();
+        for (Runnable action : drainActions) {
+            action.run();
         }
+        logger.info("draining server, in-flight calls: " + inFlightCalls.getActiveCalls());
+
+        if (!inFlightCalls.awaitIdle(timeout, unit)) {
+            logger.warning("cancel " + inFlightCalls.getActiveCalls() + " calls still running after drain timeout");
+            server.shutdownNow();
+        }
+        server.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    // runs action once the server stops taking calls, e.g. to end the streams of a ReplicationService
+    // added to its builder, which aren't tracked as in-flight calls and never finish on their own
+    public void onDrain(Runnable action) {
+        drainActions.add(action);
+    }
+
+    public int getInFlightCalls() {
+        return inFlightCalls.getActiveCalls();
+    }
+
+    public int getWatcherCount() {
+        return watchers.getWatcherCount();
+    }
+
+    // the WatchLaptops subscribers, for writes that reach the stores without going through LaptopService
+    public LaptopWatchers getWatchers() {
+        return watchers;
+    }
+
+    private void setServingStatus(ServingStatus status) {
+        health.setStatus(HealthStatusManager.SERVICE_NAME_ALL_SERVICES, status);
+        health.setStatus(LaptopServiceGrpc.SERVICE_NAME, status);
     }
 
     private void blockUntilShutdown() throws InterruptedException {
@@ -57,13 +182,62 @@ public class LaptopServer {
         }
     }
 
+    // usage: LaptopServer [laptops snapshot [ratings snapshot]], see CatalogPreloader for writing snapshots
+    // -Dport=<port> listens on another port than 8080, -Dstore=offheap keeps the laptops in an OffHeapLaptopStore,
+    // -Dstore=indexed in an IndexedLaptopStore
+    // -Dreplication=leader logs every write for read replicas, -Dreplication=<host:port> makes a read replica of that leader,
+    // which answers writes with FAILED_PRECONDITION
     public static void main(String args[]) throws IOException, InterruptedException {
-        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
+        int port = Integer.getInteger("port", 8080);
+        String replication = System.getProperty("replication");
+        String store = System.getProperty("store", "");
+        LaptopStore localLaptopStore = store.equals("offheap") ? new OffHeapLaptopStore()
+                : store.equals("indexed") ? new IndexedLaptopStore() : new InMemoryLaptopStore();
+        InMemoryRatingStore inMemoryRatingStore = new InMemoryRatingStore();
+        LaptopStore laptopStore = localLaptopStore;
+        RatingStore ratingStore = inMemoryRatingStore;
         DiskImageStore imageStore = new DiskImageStore("img");
-        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        ServerBuilder<?> serverBuilder = newServerBuilder(port);
 
-        LaptopServer laptopServer = new LaptopServer(8080, laptopStore, imageStore, ratingStore);
-        laptopServer.start();
+        // a laptop is about 230 bytes, so a SearchLaptop message never reaches 1 KiB and is left alone:
+        // only the methods that send many laptops or ratings in one message compress, see CompressionBenchmark
+        CompressionPolicy compressionPolicy = new CompressionPolicy(1024)
+                .setCodecs(LaptopServiceGrpc.getBatchGetLaptopsMethod().getFullMethodName(), "gzip", "deflate")
+                .setCodecs(LaptopServiceGrpc.getTopRatedLaptopsMethod().getFullMethodName(), "gzip", "deflate")
+                .setCodecs(ReplicationServiceGrpc.getReplicateMethod().getFullMethodName(), "gzip", "deflate");
+
+        ReplicationService replicationService = null;
+        ManagedChannel leader = null;
+        if ("leader".equals(replication)) {
+            ReplicationLog log = new ReplicationLog();
+            laptopStore = new ReplicatedLaptopStore(localLaptopStore, log);
+            ratingStore = new ReplicatedRatingStore(inMemoryRatingStore, log);
+            replicationService = new ReplicationService(log, localLaptopStore, inMemoryRatingStore);
+            serverBuilder.addService(ServerInterceptors.intercept(replicationService,
+                    new CompressionServerInterceptor(compressionPolicy)));
+        } else if (replication != null) {
+            leader = ManagedChannelBuilder.forTarget(replication)
+                    .usePlaintext()
+                    .decompressorRegistry(compressionPolicy.decompressorRegistry())
+                    .build();
+            serverBuilder.intercept(new ReadReplicaInterceptor(replication));
+        }
+
+        LaptopServer laptopServer = new LaptopServer(serverBuilder, port, laptopStore, imageStore, ratingStore, compressionPolicy);
+        if (replicationService != null) {
+            laptopServer.onDrain(replicationService::close);
+        }
+        if (leader != null) {
+            new ReplicationFollower(leader, localLaptopStore, inMemoryRatingStore, laptopServer.getWatchers(), 0).start();
+            logger.info("read replica of " + replication);
+        }
+        if (args.length > 0) {
+            laptopServer.start(new CatalogPreloader(laptopStore, ratingStore,
+                    Path.of(args[0]), args.length > 1 ? Path.of(args[1]) : null,
+                    Runtime.getRuntime().availableProcessors()));
+        } else {
+            laptopServer.start();
+        }
         laptopServer.blockUntilShutdown();
     }
 
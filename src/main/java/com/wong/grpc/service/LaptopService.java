@@ -4,11 +4,15 @@ import com.google.protobuf.ByteString;
 import com.wong.grpc.pb.*;
 import io.grpc.Context;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 import javax.print.DocFlavor;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
@@ -16,14 +20,22 @@ import java.util.logging.Logger;
 public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
 
     private static final Logger logger = Logger.getLogger(LaptopService.class.getName());
+    private static final int maxBatchGetSize = 1000;
+    private static final int maxTopRated = 1000;
     private LaptopStore laptopStore;
     private ImageStore imageStore;
     private RatingStore ratingStore;
+    private LaptopWatchers watchers;
 
     public LaptopService(LaptopStore laptopStore, ImageStore imageStore,  RatingStore ratingStore) {
+        this(laptopStore, imageStore, ratingStore, new LaptopWatchers());
+    }
+
+    public LaptopService(LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore, LaptopWatchers watchers) {
         this.laptopStore = laptopStore;
         this.imageStore = imageStore;
         this.ratingStore = ratingStore;
+        this.watchers = watchers;
     }
     @Override
     public void createLaptop(CreateLaptopRequest request, StreamObserver<CreateLaptopResponse> responseObserver) {
@@ -90,6 +102,9 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
             return;
         }
 
+        // published before the response, so a client that waits for it sees its creates watched in order
+        watchers.Publish(other);
+
         CreateLaptopResponse response = CreateLaptopResponse.newBuilder().setId(other.getId()).build();
         responseObserver.onNext(response);
         responseObserver.onCompleted();
@@ -101,21 +116,115 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
     public void searchLaptop(SearchLaptopRequest request, StreamObserver<SearchLaptopResponse> responseObserver) {
         Filter filter = request.getFilter();
         logger.info("got a search-laptop request with filter:\n" + filter);
+        try {
+            LaptopFilter.Validate(filter);
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription(e.getMessage())
+                            .asRuntimeException()
+            );
+            return;
+        }
 
-        laptopStore.Search(Context.current(), filter, new LaptopStream() {
-            @Override
-            public void Send(Laptop laptop) {
-                logger.info("found laptop with ID: " + laptop.getId());
-                SearchLaptopResponse response = SearchLaptopResponse.newBuilder().setLaptop(laptop).build();
-                responseObserver.onNext(response); // send this response to client
-            }
-        });
+        try {
+            laptopStore.Search(Context.current(), filter, new LaptopStream() {
+                @Override
+                public void Send(Laptop laptop) {
+                    logger.info("found laptop with ID: " + laptop.getId());
+                    SearchLaptopResponse response = SearchLaptopResponse.newBuilder().setLaptop(laptop).build();
+                    responseObserver.onNext(response); // send this response to client
+                }
+            });
+        } catch (StoreUnavailableException e) {
+            // the laptops already sent are only part of the result, the client has to search again
+            responseObserver.onError(
+                    Status.UNAVAILABLE
+                            .withDescription(e.getMessage())
+                            .asRuntimeException()
+            );
+            return;
+        }
 
         // tell client there won't be anymore responses
         responseObserver.onCompleted();
         logger.info("search laptop completed");
     }
 
+    // the stream stays open until the client cancels it, laptops saved before the call are not sent
+    @Override
+    public void watchLaptops(WatchLaptopsRequest request, StreamObserver<WatchLaptopsResponse> responseObserver) {
+        logger.info("got a watch-laptops request with filter:\n" + request.getFilter());
+        try {
+            watchers.Subscribe(request.getFilter(), (ServerCallStreamObserver<WatchLaptopsResponse>) responseObserver);
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription(e.getMessage())
+                            .asRuntimeException()
+            );
+        }
+    }
+
+    @Override
+    public void getLaptop(GetLaptopRequest request, StreamObserver<GetLaptopResponse> responseObserver) {
+        String id = request.getId();
+        logger.info("got a get-laptop request with ID: " + id);
+
+        Laptop found = laptopStore.Find(id);
+        if (found == null) {
+            responseObserver.onError(
+                    Status.NOT_FOUND
+                            .withDescription("laptop ID doesn't exist")
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        GetLaptopResponse.Builder response = GetLaptopResponse.newBuilder();
+        if (request.hasKnownUpdatedAt() && request.getKnownUpdatedAt().equals(found.getUpdatedAt())) {
+            // the client's copy is still current, don't send the laptop again
+            response.setNotModified(true);
+        } else {
+            response.setLaptop(found);
+        }
+
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void batchGetLaptops(BatchGetLaptopsRequest request, StreamObserver<BatchGetLaptopsResponse> responseObserver) {
+        List<String> ids = request.getIdsList();
+        logger.info("got a batch-get-laptops request with " + ids.size() + " IDs");
+
+        if (ids.size() > maxBatchGetSize) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription("too many IDs in one request: " + ids.size())
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        Map<String, Laptop> found = laptopStore.FindAll(ids);
+        // found is keyed by the requested spellings, a laptop asked for in two of them is sent once
+        Map<String, Laptop> laptops = new LinkedHashMap<>();
+        for (Laptop laptop : found.values()) {
+            laptops.putIfAbsent(laptop.getId(), laptop);
+        }
+        BatchGetLaptopsResponse.Builder response = BatchGetLaptopsResponse.newBuilder()
+                .addAllLaptops(laptops.values());
+        for (String id : ids) {
+            if (!found.containsKey(id)) {
+                response.addMissingIds(id);
+            }
+        }
+
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
     @Override
     public StreamObserver<UploadImageRequest> uploadImage(StreamObserver<UploadImageResponse> responseObserver) {
         return new StreamObserver<UploadImageRequest>() {
@@ -215,6 +324,42 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
 
     }
 
+    @Override
+    public void topRatedLaptops(TopRatedLaptopsRequest request, StreamObserver<TopRatedLaptopsResponse> responseObserver) {
+        int k = request.getK();
+        int minVotes = request.getMinVotes();
+        logger.info("got a top-rated-laptops request for " + Integer.toUnsignedString(k) + " laptops with at least "
+                + Integer.toUnsignedString(minVotes) + " votes");
+
+        if (k <= 0 || k > maxTopRated) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription("k must be between 1 and " + maxTopRated)
+                            .asRuntimeException()
+            );
+            return;
+        }
+        // min_votes is a uint32, one above Integer.MAX_VALUE reads as negative, which TopRated takes as no minimum
+        if (minVotes < 0) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription("min_votes must be at most " + Integer.MAX_VALUE)
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        TopRatedLaptopsResponse.Builder response = TopRatedLaptopsResponse.newBuilder();
+        for (LaptopRating entry : ratingStore.TopRated(k, minVotes)) {
+            response.addRatings(RateLaptopResponse.newBuilder()
+                    .setLaptopId(entry.getLaptopID())
+                    .setRatedCount(entry.getRating().getCount())
+                    .setAverageScore(entry.getRating().getAverage()));
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
     @Override
     public StreamObserver<RateLaptopRequest> rateLaptop(StreamObserver<RateLaptopResponse> responseObserver) {
         return new StreamObserver<RateLaptopRequest>() {
@@ -235,14 +380,20 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
                     return;
                 }
 
+                // the ID the laptop was saved with, the request may spell its hex digits in upper case
+                laptopId = found.getId();
                 Rating rating = ratingStore.Add(laptopId, score);
-                RateLaptopResponse response = RateLaptopResponse.newBuilder()
+                RateLaptopResponse.Builder response = RateLaptopResponse.newBuilder()
                         .setLaptopId(laptopId)
                         .setRatedCount(rating.getCount())
-                        .setAverageScore(rating.getSum() / rating.getCount())
-                        .build();
+                        .setAverageScore(rating.getSum() / rating.getCount());
+                if (request.getWithRecent()) {
+                    response.setLastHour(recent(laptopId, RatingWindow.HOUR))
+                            .setLastDay(recent(laptopId, RatingWindow.DAY))
+                            .setLastWeek(recent(laptopId, RatingWindow.WEEK));
+                }
 
-                responseObserver.onNext(response);
+                responseObserver.onNext(response.build());
             }
 
             @Override
@@ -257,4 +408,11 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
         };
     }
 
+    private RecentRating recent(String laptopId, RatingWindow window) {
+        Rating rating = ratingStore.Find(laptopId, window);
+        return RecentRating.newBuilder()
+                .setRatedCount(rating.getCount())
+                .setAverageScore(rating.getAverage())
+                .build();
+    }
 }
@@ -4,9 +4,14 @@ import com.wong.grpc.pb.Filter;
 import com.wong.grpc.pb.Laptop;
 import io.grpc.Context;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface LaptopStore {
     void Save(Laptop laptop) throws Exception;
     Laptop Find(String id);
+    // returns the laptops found, keyed and ordered by the given IDs, missing IDs are left out
+    Map<String, Laptop> FindAll(Collection<String> ids);
 
     void Search(Context ctx, Filter filter, LaptopStream stream);
 }
@@ -0,0 +1,348 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.pb.WatchLaptopsResponse;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+// the subscribers of WatchLaptops, matched against every newly saved laptop
+// subscriptions are indexed on each bound of their filter: sorted by max price, min cores, min GHz and min RAM,
+// a laptop can only match the subscriptions on one side of its own value in each of them,
+// so Publish binary searches all four and only tests the filters on the shortest side
+// the index is an immutable snapshot, rebuilt by a Publish at most once per rebuild interval and outside the lock,
+// watchers that subscribed since are tested one by one and those that left are skipped until then,
+// so neither Publish nor Subscribe waits for a sort however many watchers come and go
+// every watcher has a bounded queue drained onto its stream on a shared pool as the client is ready for more,
+// a watcher whose queue overflows is ended with RESOURCE_EXHAUSTED, as it has missed laptops
+// and should SearchLaptop to catch up before it watches again
+public class LaptopWatchers {
+
+    private static final Logger logger = Logger.getLogger(LaptopWatchers.class.getName());
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final long DEFAULT_REBUILD_INTERVAL_MILLIS = 100;
+
+    private final int queueCapacity;
+    private final long rebuildIntervalNanos;
+    private final ExecutorService senders;
+    private final Set<Watch> watches;
+    // the watches subscribed since the index was built, shared with the snapshots, which only read up to their count
+    private Watch[] added;
+    // changes to the watches, so a rebuild can tell whether any came in while it sorted
+    private long changes;
+    private boolean rebuilding;
+    private boolean closed;
+    private volatile Snapshot snapshot;
+
+    public LaptopWatchers() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public LaptopWatchers(int queueCapacity) {
+        this(queueCapacity, DEFAULT_REBUILD_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public LaptopWatchers(int queueCapacity, long rebuildInterval, TimeUnit unit) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queue capacity must be positive: " + queueCapacity);
+        }
+        if (rebuildInterval < 0) {
+            throw new IllegalArgumentException("rebuild interval must not be negative: " + rebuildInterval);
+        }
+        this.queueCapacity = queueCapacity;
+        this.rebuildIntervalNanos = unit.toNanos(rebuildInterval);
+        this.senders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "laptop-watchers");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watches = new HashSet<>();
+        this.added = new Watch[16];
+        this.snapshot = new Snapshot(Index.EMPTY, added, 0, false, System.nanoTime());
+    }
+
+    // the watch ends when the client cancels the call or falls behind
+    // throws IllegalArgumentException for a filter LaptopFilter can't compile
+    public void Subscribe(Filter filter, ServerCallStreamObserver<WatchLaptopsResponse> stream) {
+        Watch watch = new Watch(filter, stream, queueCapacity);
+        stream.setOnCancelHandler(() -> unsubscribe(watch));
+        stream.setOnReadyHandler(() -> schedule(watch));
+        synchronized (this) {
+            watches.add(watch);
+            changes++;
+            Snapshot current = snapshot;
+            if (current.addedCount == added.length) {
+                added = Arrays.copyOf(added, 2 * added.length);
+            }
+            added[current.addedCount] = watch;
+            snapshot = new Snapshot(current.index, added, current.addedCount + 1, true, current.builtAt);
+        }
+    }
+
+    public void Publish(Laptop laptop) {
+        Snapshot current = snapshot;
+        if (current.stale && System.nanoTime() - current.builtAt >= rebuildIntervalNanos) {
+            rebuild();
+            current = snapshot;
+        }
+        Consumer<Watch> offer = watch -> {
+            if (!watch.subscribed || watch.ending != null || !watch.matcher.Matches(laptop)) {
+                return;
+            }
+            if (!watch.queue.offer(laptop)) {
+                logger.warning("end a watcher that fell more than " + queueCapacity + " laptops behind");
+                unsubscribe(watch);
+                watch.ending = Status.RESOURCE_EXHAUSTED
+                        .withDescription("watcher fell more than " + queueCapacity + " laptops behind");
+            }
+            schedule(watch);
+        };
+        current.index.ForEachCandidate(laptop, offer);
+        for (int i = 0; i < current.addedCount; i++) {
+            offer.accept(current.added[i]);
+        }
+    }
+
+    // completes every watch, e.g. when the server drains, laptops still queued are sent first
+    // the sender threads end once they did, laptops published afterwards are dropped
+    public void close() {
+        List<Watch> closing;
+        synchronized (this) {
+            closing = new ArrayList<>(watches);
+            watches.clear();
+            closed = true;
+            changes++;
+            added = new Watch[16];
+            snapshot = new Snapshot(Index.EMPTY, added, 0, false, System.nanoTime());
+        }
+        for (Watch watch : closing) {
+            watch.subscribed = false;
+            watch.ending = Status.OK;
+            schedule(watch);
+        }
+        senders.shutdown();
+    }
+
+    public synchronized int getWatcherCount() {
+        return watches.size();
+    }
+
+    private synchronized void unsubscribe(Watch watch) {
+        if (watches.remove(watch)) {
+            watch.subscribed = false;
+            changes++;
+            Snapshot current = snapshot;
+            snapshot = new Snapshot(current.index, current.added, current.addedCount, true, current.builtAt);
+        }
+    }
+
+    // only one Publish sorts at a time, the others go on with the snapshot they have
+    private void rebuild() {
+        List<Watch> indexed;
+        int copied;
+        long changesCopied;
+        synchronized (this) {
+            if (rebuilding || closed || !snapshot.stale) {
+                return;
+            }
+            rebuilding = true;
+            indexed = new ArrayList<>(watches);
+            copied = snapshot.addedCount;
+            changesCopied = changes;
+        }
+
+        Index index = null;
+        try {
+            index = new Index(indexed);
+        } finally {
+            synchronized (this) {
+                rebuilding = false;
+                Snapshot current = snapshot;
+                // after a close meanwhile its empty snapshot stays
+                if (index != null && !closed) {
+                    // the watches that subscribed while sorting aren't in the index, they are still tested one by one
+                    int count = current.addedCount - copied;
+                    added = Arrays.copyOfRange(current.added, copied, copied + Math.max(16, 2 * count));
+                    snapshot = new Snapshot(index, added, count, changes != changesCopied, System.nanoTime());
+                }
+            }
+        }
+    }
+
+    // only one drain per watch runs at a time, a drain asked for while one runs makes it loop once more
+    private void schedule(Watch watch) {
+        if (watch.pending.getAndIncrement() == 0) {
+            try {
+                senders.execute(() -> drain(watch));
+            } catch (RejectedExecutionException e) {
+                // closed, the watch already got its last drain
+            }
+        }
+    }
+
+    // the stream is only used here, so its calls never run at the same time
+    private void drain(Watch watch) {
+        int missed = 1;
+        do {
+            Status ending = watch.ending;
+            if (ending != null && !ending.isOk()) {
+                watch.queue.clear();
+            }
+            Laptop laptop;
+            while (watch.stream.isReady() && !watch.stream.isCancelled() && (laptop = watch.queue.poll()) != null) {
+                watch.stream.onNext(WatchLaptopsResponse.newBuilder().setLaptop(laptop).build());
+            }
+            if (ending != null && watch.queue.isEmpty() && !watch.closed && !watch.stream.isCancelled()) {
+                watch.closed = true;
+                if (ending.isOk()) {
+                    watch.stream.onCompleted();
+                } else {
+                    watch.stream.onError(ending.asRuntimeException());
+                }
+            }
+            missed = watch.pending.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private static class Watch {
+        private final Filter filter;
+        private final LaptopFilter matcher;
+        private final ServerCallStreamObserver<WatchLaptopsResponse> stream;
+        private final BlockingQueue<Laptop> queue;
+        private final AtomicInteger pending;
+        // cleared once it left, until the next rebuild the index still holds it
+        private volatile boolean subscribed = true;
+        // set once the watch is to end: OK after the queued laptops are sent, an error right away
+        private volatile Status ending;
+        // only read and written by the drain
+        private boolean closed;
+
+        private Watch(Filter filter, ServerCallStreamObserver<WatchLaptopsResponse> stream, int queueCapacity) {
+            this.filter = filter;
+            this.matcher = LaptopFilter.Compile(filter);
+            this.stream = stream;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.pending = new AtomicInteger();
+        }
+    }
+
+    // what Publish matches against: the index as last built, and the watches subscribed since
+    // stale once anything changed since the build
+    private static class Snapshot {
+        private final Index index;
+        private final Watch[] added;
+        private final int addedCount;
+        private final boolean stale;
+        private final long builtAt;
+
+        private Snapshot(Index index, Watch[] added, int addedCount, boolean stale, long builtAt) {
+            this.index = index;
+            this.added = added;
+            this.addedCount = addedCount;
+            this.stale = stale;
+            this.builtAt = builtAt;
+        }
+    }
+
+    // the watches sorted by each bound, with the bounds in a primitive array next to them for the binary search
+    private static class Index {
+        private static final Index EMPTY = new Index(List.of());
+
+        private final Watch[] byMaxPrice;
+        private final double[] maxPrices;
+        private final Watch[] byMinCores;
+        private final long[] minCores;
+        private final Watch[] byMinGhz;
+        private final double[] minGhz;
+        private final Watch[] byMinRam;
+        private final long[] minRam;
+
+        private Index(Collection<Watch> watches) {
+            byMaxPrice = sorted(watches, Comparator.comparingDouble(watch -> watch.filter.getMaxPriceUsd()));
+            maxPrices = Arrays.stream(byMaxPrice).mapToDouble(watch -> watch.filter.getMaxPriceUsd()).toArray();
+            byMinCores = sorted(watches, Comparator.comparingLong(watch -> (long) watch.filter.getMinCpuCores()));
+            minCores = Arrays.stream(byMinCores).mapToLong(watch -> (long) watch.filter.getMinCpuCores()).toArray();
+            byMinGhz = sorted(watches, Comparator.comparingDouble(watch -> watch.filter.getMinCpuGhz()));
+            minGhz = Arrays.stream(byMinGhz).mapToDouble(watch -> watch.filter.getMinCpuGhz()).toArray();
+            byMinRam = sorted(watches, Comparator.comparingLong(watch -> InMemoryLaptopStore.toBit(watch.filter.getMinRam())));
+            minRam = Arrays.stream(byMinRam).mapToLong(watch -> InMemoryLaptopStore.toBit(watch.filter.getMinRam())).toArray();
+        }
+
+        private void ForEachCandidate(Laptop laptop, Consumer<Watch> consumer) {
+            // max price at least the laptop's price: a suffix, the other bounds at most the laptop's value: a prefix
+            int priceFrom = firstAtLeast(maxPrices, laptop.getPriceUsd());
+            int coresTo = firstAbove(minCores, laptop.getCpu().getNumberCores());
+            int ghzTo = firstAbove(minGhz, laptop.getCpu().getMinGhz());
+            int ramTo = firstAbove(minRam, InMemoryLaptopStore.toBit(laptop.getRam()));
+
+            int fewest = Math.min(Math.min(maxPrices.length - priceFrom, coresTo), Math.min(ghzTo, ramTo));
+            if (fewest == maxPrices.length - priceFrom) {
+                for (int i = priceFrom; i < byMaxPrice.length; i++) {
+                    consumer.accept(byMaxPrice[i]);
+                }
+            } else {
+                Watch[] side = fewest == coresTo ? byMinCores : fewest == ghzTo ? byMinGhz : byMinRam;
+                for (int i = 0; i < fewest; i++) {
+                    consumer.accept(side[i]);
+                }
+            }
+        }
+
+        private static Watch[] sorted(Collection<Watch> watches, Comparator<Watch> comparator) {
+            Watch[] sorted = watches.toArray(new Watch[0]);
+            Arrays.sort(sorted, comparator);
+            return sorted;
+        }
+
+        private static int firstAtLeast(double[] values, double value) {
+            int low = 0, high = values.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private static int firstAbove(double[] values, double value) {
+            int low = 0, high = values.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[mid] <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private static int firstAbove(long[] values, long value) {
+            int low = 0, high = values.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[mid] <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
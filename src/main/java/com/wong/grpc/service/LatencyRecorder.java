@@ -0,0 +1,70 @@
+package com.wong.grpc.service;
+
+import io.grpc.*;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// keeps the latency of the last calls per method, used to derive hedging delays from the observed p95
+public class LatencyRecorder implements ClientInterceptor {
+
+    private final int window;
+    private final Map<String, Samples> samples;
+
+    public LatencyRecorder(int window) {
+        this.window = window;
+        this.samples = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+        Samples methodSamples = samples.computeIfAbsent(method.getFullMethodName(), name -> new Samples(window));
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                long start = System.nanoTime();
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        if (status.isOk()) {
+                            methodSamples.add(System.nanoTime() - start);
+                        }
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            }
+        };
+    }
+
+    // returns -1 if no call of this method has completed yet
+    public long percentileNanos(String fullMethodName, double percentile) {
+        Samples methodSamples = samples.get(fullMethodName);
+        return methodSamples == null ? -1 : methodSamples.percentile(percentile);
+    }
+
+    private static class Samples {
+        private final long[] nanos;
+        private int next;
+        private int count;
+
+        Samples(int window) {
+            this.nanos = new long[window];
+        }
+
+        synchronized void add(long value) {
+            nanos[next] = value;
+            next = (next + 1) % nanos.length;
+            count = Math.min(count + 1, nanos.length);
+        }
+
+        synchronized long percentile(double percentile) {
+            if (count == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) (count * percentile / 100))];
+        }
+    }
+}
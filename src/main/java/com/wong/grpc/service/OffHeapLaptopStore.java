@@ -0,0 +1,306 @@
+package com.wong.grpc.service;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import io.grpc.Context;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+// a LaptopStore that keeps laptops as serialized protobuf in large direct ByteBuffer arenas instead of object graphs,
+// so the heap only holds the ID index, two long arrays, and the GC has next to nothing to trace per laptop
+// a record is a header with the fields Search filters on, followed by the laptop's bytes:
+//   int length | double price | int cores | double min GHz | long RAM bits | laptop
+// Search walks the arenas in order reading only the headers, and parses just the laptops that match them,
+// which a filter's where is then tested on, Find parses on every call
+// records are placed in slots rounded up to SLOT_ALIGNMENT bytes, the slot of a replaced laptop goes to a free list
+// for its size and is reused by the next record of that size, until then its length is the negated slot size
+// slots are never split or merged, so a scan can carry on from an offset after letting go of the lock
+public class OffHeapLaptopStore implements LaptopStore {
+
+    private static final Logger logger = Logger.getLogger(OffHeapLaptopStore.class.getName());
+
+    public static final int DEFAULT_ARENA_SIZE = 64 << 20;
+    static final int HEADER_SIZE = 32;
+    static final int SLOT_ALIGNMENT = 32;
+    // records a Search looks at per read lock, so writers wait for a short batch rather than the whole scan
+    private static final int SEARCH_BATCH = 1024;
+
+    private final int arenaSize;
+    private final List<ByteBuffer> arenas;
+    // where the records of each full arena end, the tail of the last one is arenaEnd
+    private final List<Integer> arenaEnds;
+    // by the two halves of the laptop's UUID: arena number in the high 32 bits, offset in the low 32 bits
+    private final UUIDLongMap index;
+    private final Map<Integer, Deque<Long>> freeSlots;
+    // writers take the write lock, readers the read lock for one record at a time, so a reused slot is never read half-written
+    private final ReadWriteLock lock;
+    private int arenaEnd;
+    private long usedBytes;
+
+    public OffHeapLaptopStore() {
+        this(DEFAULT_ARENA_SIZE);
+    }
+
+    public OffHeapLaptopStore(int arenaSize) {
+        if (arenaSize < 1024) {
+            throw new IllegalArgumentException("arena size must be at least 1 KiB: " + arenaSize);
+        }
+        this.arenaSize = arenaSize;
+        this.arenas = new ArrayList<>();
+        this.arenaEnds = new ArrayList<>();
+        this.index = new UUIDLongMap();
+        this.freeSlots = new HashMap<>();
+        this.lock = new ReentrantReadWriteLock();
+        this.arenaEnd = arenaSize;
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        String id = laptop.getId();
+        Uuids.checkValid(id);
+        long msb = Uuids.mostSignificantBits(id);
+        long lsb = Uuids.leastSignificantBits(id);
+        byte[] bytes = laptop.toByteArray();
+        lock.writeLock().lock();
+        try {
+            if (index.get(msb, lsb) != UUIDLongMap.ABSENT) {
+                throw new AlreadyExistsException("laptop ID already exists");
+            }
+            index.put(msb, lsb, write(laptop, bytes, allocate(slotSize(bytes.length))));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // stores a new version of a laptop, in place when it fits in the old slot
+    public void Replace(Laptop laptop) {
+        String id = laptop.getId();
+        Uuids.checkValid(id);
+        long msb = Uuids.mostSignificantBits(id);
+        long lsb = Uuids.leastSignificantBits(id);
+        byte[] bytes = laptop.toByteArray();
+        lock.writeLock().lock();
+        try {
+            long old = index.get(msb, lsb);
+            int size = slotSize(bytes.length);
+            long location;
+            if (old != UUIDLongMap.ABSENT && size == slotSize(arena(old).getInt(offset(old)))) {
+                location = old;
+            } else {
+                if (old != UUIDLongMap.ABSENT) {
+                    release(old);
+                }
+                location = allocate(size);
+            }
+            index.put(msb, lsb, write(laptop, bytes, location));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        return parse(read(id));
+    }
+
+    @Override
+    public Map<String, Laptop> FindAll(Collection<String> ids) {
+        Map<String, Laptop> found = new LinkedHashMap<>();
+        for (String id : ids) {
+            Laptop laptop = Find(id);
+            if (laptop != null) {
+                found.put(id, laptop);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void Search(Context ctx, Filter filter, LaptopStream stream) {
+        long minRam = InMemoryLaptopStore.toBit(filter.getMinRam());
+        LaptopFilter where = filter.hasWhere() ? LaptopFilter.Compile(filter.getWhere()) : null;
+        // next arena and offset to look at
+        int[] position = new int[2];
+        List<byte[]> found = new ArrayList<>();
+        boolean more;
+        do {
+            if (ctx.isCancelled()) {
+                logger.info("context is cancelled");
+                return;
+            }
+            more = scan(position, filter, minRam, found);
+            for (byte[] bytes : found) {
+                Laptop laptop = parse(bytes);
+                if (where == null || where.Matches(laptop)) {
+                    stream.Send(laptop);
+                }
+            }
+            found.clear();
+        } while (more);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // bytes of the arenas taken by records, including slot padding
+    public long getUsedBytes() {
+        lock.readLock().lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // bytes of off-heap memory reserved for arenas
+    public long getReservedBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) arenas.size() * arenaSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the location is looked up under the lock, a replaced laptop's old slot may be reused by then
+    private byte[] read(String id) {
+        if (!Uuids.isValid(id)) {
+            return null;
+        }
+        long msb = Uuids.mostSignificantBits(id);
+        long lsb = Uuids.leastSignificantBits(id);
+        lock.readLock().lock();
+        try {
+            long location = index.get(msb, lsb);
+            if (location == UUIDLongMap.ABSENT) {
+                return null;
+            }
+            ByteBuffer arena = arena(location);
+            int offset = offset(location);
+            byte[] bytes = new byte[arena.getInt(offset)];
+            arena.get(offset + HEADER_SIZE, bytes);
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // copies out the matching records among the next SEARCH_BATCH, returns false once the last arena is done
+    // the four classic bounds of the filter, checked on the record header
+    private boolean scan(int[] position, Filter filter, long minRam, List<byte[]> found) {
+        lock.readLock().lock();
+        try {
+            for (int scanned = 0; scanned < SEARCH_BATCH; scanned++) {
+                if (position[0] >= arenas.size()) {
+                    return false;
+                }
+                ByteBuffer arena = arenas.get(position[0]);
+                int offset = position[1];
+                if (offset >= end(position[0])) {
+                    position[0]++;
+                    position[1] = 0;
+                    continue;
+                }
+
+                int length = arena.getInt(offset);
+                if (length < 0) {
+                    position[1] += -length;
+                    continue;
+                }
+                position[1] += slotSize(length);
+                if (arena.getDouble(offset + 4) > filter.getMaxPriceUsd()
+                        || arena.getInt(offset + 12) < filter.getMinCpuCores()
+                        || arena.getDouble(offset + 16) < filter.getMinCpuGhz()
+                        || arena.getLong(offset + 24) < minRam) {
+                    continue;
+                }
+                byte[] bytes = new byte[length];
+                arena.get(offset + HEADER_SIZE, bytes);
+                found.add(bytes);
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int end(int arena) {
+        return arena < arenaEnds.size() ? arenaEnds.get(arena) : arenaEnd;
+    }
+
+    private long write(Laptop laptop, byte[] bytes, long location) {
+        ByteBuffer arena = arena(location);
+        int offset = offset(location);
+        arena.putInt(offset, bytes.length)
+                .putDouble(offset + 4, laptop.getPriceUsd())
+                .putInt(offset + 12, laptop.getCpu().getNumberCores())
+                .putDouble(offset + 16, laptop.getCpu().getMinGhz())
+                .putLong(offset + 24, InMemoryLaptopStore.toBit(laptop.getRam()))
+                .put(offset + HEADER_SIZE, bytes);
+        return location;
+    }
+
+    private long allocate(int size) {
+        if (size > arenaSize) {
+            throw new IllegalArgumentException("laptop of " + size + " bytes doesn't fit in an arena of " + arenaSize);
+        }
+        usedBytes += size;
+        Deque<Long> free = freeSlots.get(size);
+        if (free != null && !free.isEmpty()) {
+            return free.pop();
+        }
+        if (arenaEnd + size > arenaSize) {
+            // the tail of the full arena is left unused
+            if (!arenas.isEmpty()) {
+                arenaEnds.add(arenaEnd);
+            }
+            arenas.add(ByteBuffer.allocateDirect(arenaSize));
+            arenaEnd = 0;
+        }
+        long location = ((long) (arenas.size() - 1) << 32) | arenaEnd;
+        arenaEnd += size;
+        return location;
+    }
+
+    private void release(long location) {
+        int size = slotSize(arena(location).getInt(offset(location)));
+        arena(location).putInt(offset(location), -size);
+        usedBytes -= size;
+        freeSlots.computeIfAbsent(size, s -> new ArrayDeque<>()).push(location);
+    }
+
+    private static int slotSize(int length) {
+        int size = HEADER_SIZE + length;
+        return (size + SLOT_ALIGNMENT - 1) / SLOT_ALIGNMENT * SLOT_ALIGNMENT;
+    }
+
+    private ByteBuffer arena(long location) {
+        return arenas.get((int) (location >>> 32));
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    private static Laptop parse(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return Laptop.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("corrupted laptop record: " + e.getMessage(), e);
+        }
+    }
+}
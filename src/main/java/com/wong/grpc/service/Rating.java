@@ -17,6 +17,10 @@ public class Rating {
         return sum;
     }
 
+    public double getAverage() {
+        return count == 0 ? 0 : sum / count;
+    }
+
     public static Rating add(Rating r1, Rating r2){
         return new Rating(r1.count + r2.count, r1.sum + r2.sum);
     }
@@ -1,5 +1,19 @@
 package com.wong.grpc.service;
 
+import java.util.List;
+import java.util.function.BiConsumer;
+
 public interface RatingStore {
     Rating Add(String laptopID, double score);
+    // adds several votes at once, e.g. when ratings are restored from a snapshot
+    // their time is unknown, so they only count for the lifetime rating and not for any RatingWindow
+    Rating Add(String laptopID, Rating rating);
+    // null when the laptop has no votes yet
+    Rating Find(String laptopID);
+    // the votes within the window up to now, null when the laptop has no votes yet
+    Rating Find(String laptopID, RatingWindow window);
+    // the k laptops with the highest average score among those with at least minVotes votes, best first
+    List<LaptopRating> TopRated(int k, int minVotes);
+    // every laptop with votes and its lifetime rating, each as of some moment during the call
+    void ForEach(BiConsumer<String, Rating> action);
 }
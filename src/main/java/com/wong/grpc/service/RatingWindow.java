@@ -0,0 +1,27 @@
+package com.wong.grpc.service;
+
+import java.util.concurrent.TimeUnit;
+
+// the recent periods votes are also counted for, each kept as a ring of time buckets,
+// so a window slides by whole buckets: the last hour is the last twelve 5-minute buckets
+public enum RatingWindow {
+    HOUR(TimeUnit.MINUTES.toMillis(5), 12),
+    DAY(TimeUnit.HOURS.toMillis(1), 24),
+    WEEK(TimeUnit.HOURS.toMillis(6), 28);
+
+    private final long bucketMillis;
+    private final int buckets;
+
+    RatingWindow(long bucketMillis, int buckets) {
+        this.bucketMillis = bucketMillis;
+        this.buckets = buckets;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+}
@@ -0,0 +1,54 @@
+package com.wong.grpc.service;
+
+// the recent votes of one laptop: the rings of every RatingWindow laid out one after another in primitive arrays
+// a bucket is reset and reused once the ring comes round to it again, so a vote allocates nothing
+// and the memory per laptop is the same however many votes it gets
+class RatingWindows {
+
+    private static final int[] OFFSETS = new int[RatingWindow.values().length + 1];
+
+    static {
+        for (RatingWindow window : RatingWindow.values()) {
+            OFFSETS[window.ordinal() + 1] = OFFSETS[window.ordinal()] + window.getBuckets();
+        }
+    }
+
+    // the bucket number since the epoch each slot was last used for, slots never used hold no votes
+    private final long[] times;
+    private final int[] counts;
+    private final double[] sums;
+
+    RatingWindows() {
+        int buckets = OFFSETS[OFFSETS.length - 1];
+        times = new long[buckets];
+        counts = new int[buckets];
+        sums = new double[buckets];
+    }
+
+    synchronized void Add(long nowMillis, int count, double sum) {
+        for (RatingWindow window : RatingWindow.values()) {
+            long time = nowMillis / window.getBucketMillis();
+            int bucket = OFFSETS[window.ordinal()] + (int) (time % window.getBuckets());
+            if (times[bucket] != time) {
+                times[bucket] = time;
+                counts[bucket] = 0;
+                sums[bucket] = 0;
+            }
+            counts[bucket] += count;
+            sums[bucket] += sum;
+        }
+    }
+
+    synchronized Rating Get(RatingWindow window, long nowMillis) {
+        long now = nowMillis / window.getBucketMillis();
+        int count = 0;
+        double sum = 0;
+        for (int bucket = OFFSETS[window.ordinal()]; bucket < OFFSETS[window.ordinal() + 1]; bucket++) {
+            if (times[bucket] > now - window.getBuckets() && times[bucket] <= now) {
+                count += counts[bucket];
+                sum += sums[bucket];
+            }
+        }
+        return new Rating(count, sum);
+    }
+}
@@ -0,0 +1,35 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.LaptopServiceGrpc;
+import io.grpc.*;
+
+import java.util.Set;
+
+// fails the LaptopService writes with FAILED_PRECONDITION on a read replica, whose stores only the
+// ReplicationFollower may change: a write applied there would never reach the leader or the other replicas
+// installed on the whole server, it passes reads and the calls of other services through
+public class ReadReplicaInterceptor implements ServerInterceptor {
+
+    private static final Set<String> WRITES = Set.of(
+            LaptopServiceGrpc.getCreateLaptopMethod().getFullMethodName(),
+            LaptopServiceGrpc.getRateLaptopMethod().getFullMethodName(),
+            LaptopServiceGrpc.getUploadImageMethod().getFullMethodName());
+
+    private final String leader;
+
+    // leader is named in the error, so a client can tell where the write has to go
+    public ReadReplicaInterceptor(String leader) {
+        this.leader = leader;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        if (WRITES.contains(call.getMethodDescriptor().getFullMethodName())) {
+            call.close(Status.FAILED_PRECONDITION.withDescription("read replica, send writes to the leader at " + leader),
+                    new Metadata());
+            return new ServerCall.Listener<>() {
+            };
+        }
+        return next.startCall(call, headers);
+    }
+}
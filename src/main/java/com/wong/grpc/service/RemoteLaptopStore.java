@@ -0,0 +1,106 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.*;
+import io.grpc.Channel;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// a LaptopStore kept by another LaptopServer, so a remote node can serve as a shard of ShardedLaptopStore
+public class RemoteLaptopStore implements LaptopStore {
+
+    private static final Logger logger = Logger.getLogger(RemoteLaptopStore.class.getName());
+
+    private static final long DEADLINE_SECONDS = 5;
+    // the server rejects larger BatchGetLaptops requests
+    private static final int MAX_BATCH_GET_SIZE = 1000;
+
+    private final LaptopServiceGrpc.LaptopServiceBlockingStub blockingStub;
+
+    public RemoteLaptopStore(Channel channel) {
+        this.blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        try {
+            stub().createLaptop(CreateLaptopRequest.newBuilder().setLaptop(laptop).build());
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() == Status.Code.ALREADY_EXISTS) {
+                throw new AlreadyExistsException(e.getStatus().getDescription());
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        try {
+            return stub().getLaptop(GetLaptopRequest.newBuilder().setId(id).build()).getLaptop();
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() == Status.Code.NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<String, Laptop> FindAll(Collection<String> ids) {
+        Map<String, Laptop> byID = new HashMap<>();
+        List<String> all = new ArrayList<>(ids);
+        for (int i = 0; i < all.size(); i += MAX_BATCH_GET_SIZE) {
+            BatchGetLaptopsResponse response = stub().batchGetLaptops(BatchGetLaptopsRequest.newBuilder()
+                    .addAllIds(all.subList(i, Math.min(i + MAX_BATCH_GET_SIZE, all.size())))
+                    .build());
+            for (Laptop laptop : response.getLaptopsList()) {
+                byID.put(key(laptop.getId()), laptop);
+            }
+        }
+
+        // the server answers with the IDs the laptops were saved with, which may be spelled in another case
+        Map<String, Laptop> found = new LinkedHashMap<>();
+        for (String id : ids) {
+            Laptop laptop = byID.get(key(id));
+            if (laptop != null) {
+                found.put(id, laptop);
+            }
+        }
+        return found;
+    }
+
+    // the call is started inside ctx, so cancelling ctx cancels the remote search as well
+    @Override
+    public void Search(Context ctx, Filter filter, LaptopStream stream) {
+        SearchLaptopRequest request = SearchLaptopRequest.newBuilder().setFilter(filter).build();
+        Iterator<SearchLaptopResponse> responses;
+        try {
+            responses = ctx.call(() -> blockingStub.searchLaptop(request));
+        } catch (Exception e) {
+            throw new IllegalStateException("cannot start remote search: " + e.getMessage(), e);
+        }
+
+        try {
+            while (responses.hasNext()) {
+                stream.Send(responses.next().getLaptop());
+            }
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() != Status.Code.CANCELLED || !ctx.isCancelled()) {
+                throw e;
+            }
+            logger.info("remote search is cancelled");
+        }
+    }
+
+    private LaptopServiceGrpc.LaptopServiceBlockingStub stub() {
+        return blockingStub.withDeadlineAfter(DEADLINE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static String key(String id) {
+        return Uuids.isValid(id) ? Uuids.canonical(id) : id;
+    }
+}
@@ -0,0 +1,41 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import io.grpc.Context;
+
+import java.util.Collection;
+import java.util.Map;
+
+// a leader's LaptopStore: saves go to the store and into the replication log, reads go to the store directly
+public class ReplicatedLaptopStore implements LaptopStore {
+
+    private final LaptopStore store;
+    private final ReplicationLog log;
+
+    public ReplicatedLaptopStore(LaptopStore store, ReplicationLog log) {
+        this.store = store;
+        this.log = log;
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        store.Save(laptop);
+        log.AppendLaptop(laptop);
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        return store.Find(id);
+    }
+
+    @Override
+    public Map<String, Laptop> FindAll(Collection<String> ids) {
+        return store.FindAll(ids);
+    }
+
+    @Override
+    public void Search(Context ctx, Filter filter, LaptopStream stream) {
+        store.Search(ctx, filter, stream);
+    }
+}
@@ -0,0 +1,70 @@
+package com.wong.grpc.service;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+// a leader's RatingStore: votes go to the store and into the replication log
+// the votes of one laptop are added and logged under one of STRIPES locks, so the log has them in the order
+// the store counted them and a follower can tell by the count which it already got with a snapshot
+public class ReplicatedRatingStore implements RatingStore {
+
+    private static final int STRIPES = 64;
+
+    private final RatingStore store;
+    private final ReplicationLog log;
+    private final Object[] stripes;
+
+    public ReplicatedRatingStore(RatingStore store, ReplicationLog log) {
+        this.store = store;
+        this.log = log;
+        this.stripes = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    @Override
+    public Rating Add(String laptopID, double score) {
+        synchronized (stripe(laptopID)) {
+            Rating rating = store.Add(laptopID, score);
+            log.AppendVote(laptopID, score, rating.getCount());
+            return rating;
+        }
+    }
+
+    @Override
+    public Rating Add(String laptopID, Rating rating) {
+        synchronized (stripe(laptopID)) {
+            Rating total = store.Add(laptopID, rating);
+            log.AppendRating(laptopID, rating, total.getCount());
+            return total;
+        }
+    }
+
+    @Override
+    public Rating Find(String laptopID) {
+        return store.Find(laptopID);
+    }
+
+    @Override
+    public Rating Find(String laptopID, RatingWindow window) {
+        return store.Find(laptopID, window);
+    }
+
+    @Override
+    public List<LaptopRating> TopRated(int k, int minVotes) {
+        return store.TopRated(k, minVotes);
+    }
+
+    @Override
+    public void ForEach(BiConsumer<String, Rating> action) {
+        store.ForEach(action);
+    }
+
+    // by the UUID's halves, so the spellings of an ID share a lock like they share a rating
+    private Object stripe(String laptopID) {
+        Uuids.checkValid(laptopID);
+        long hash = Uuids.mostSignificantBits(laptopID) ^ Uuids.leastSignificantBits(laptopID);
+        return stripes[(int) ((hash ^ hash >>> 32) & (STRIPES - 1))];
+    }
+}
@@ -0,0 +1,200 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.*;
+import io.grpc.Channel;
+import io.grpc.Context;
+import io.grpc.StatusRuntimeException;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// keeps the stores of a read replica up to date with a leader's ReplicationService
+// a LaptopServer over the same stores serves SearchLaptop and gets locally and must reject writes,
+// see ReadReplicaInterceptor, so the stores only ever hold the leader's writes
+// events are applied one at a time in sequence order, after a disconnect the follower asks for the next sequence
+// and gets a snapshot instead when the leader no longer has it
+public class ReplicationFollower {
+
+    private static final Logger logger = Logger.getLogger(ReplicationFollower.class.getName());
+
+    private static final long RETRY_MILLIS = 1_000;
+
+    private final ReplicationServiceGrpc.ReplicationServiceBlockingStub blockingStub;
+    private final LaptopStore laptopStore;
+    private final RatingStore ratingStore;
+    private final LaptopWatchers watchers;
+    private final Object progress;
+    private volatile long lastSequence;
+    private volatile boolean stopped;
+    private volatile Context.CancellableContext call;
+    private Thread thread;
+
+    public ReplicationFollower(Channel leader, LaptopStore laptopStore, RatingStore ratingStore) {
+        this(leader, laptopStore, ratingStore, null, 0);
+    }
+
+    // for stores that already hold the leader's writes up to lastSequence, e.g. those of a follower that was stopped
+    public ReplicationFollower(Channel leader, LaptopStore laptopStore, RatingStore ratingStore, long lastSequence) {
+        this(leader, laptopStore, ratingStore, null, lastSequence);
+    }
+
+    // laptops new to the replica are published to watchers, those of the LaptopServer over the same stores,
+    // so WatchLaptops on the replica sees the leader's creates; watchers may be null
+    public ReplicationFollower(Channel leader, LaptopStore laptopStore, RatingStore ratingStore, LaptopWatchers watchers,
+                               long lastSequence) {
+        this.lastSequence = lastSequence;
+        this.blockingStub = ReplicationServiceGrpc.newBlockingStub(leader);
+        this.laptopStore = laptopStore;
+        this.ratingStore = ratingStore;
+        this.watchers = watchers;
+        this.progress = new Object();
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("follower is already started");
+        }
+        thread = new Thread(this::run, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        stopped = true;
+        Context.CancellableContext current = call;
+        if (current != null) {
+            current.cancel(null);
+        }
+        Thread started;
+        synchronized (this) {
+            started = thread;
+        }
+        if (started != null) {
+            started.interrupt();
+            started.join();
+        }
+    }
+
+    // the sequence number of the last write applied to the local stores
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    // waits until the writes up to sequence are applied, e.g. to read on a replica what was just written to the leader
+    public boolean awaitSequence(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (progress) {
+            while (lastSequence < sequence) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                progress.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    private void run() {
+        while (!stopped) {
+            try {
+                follow();
+            } catch (StatusRuntimeException e) {
+                if (stopped) {
+                    break;
+                }
+                logger.warning("replication stream broke at sequence " + lastSequence + ": " + e.getStatus());
+            } catch (Exception e) {
+                logger.severe("cannot apply replicated write after sequence " + lastSequence + ": " + e.getMessage());
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void follow() throws Exception {
+        Context.CancellableContext ctx = Context.current().withCancellation();
+        call = ctx;
+        try {
+            ReplicateRequest request = ReplicateRequest.newBuilder().setFromSequence(lastSequence + 1).build();
+            Iterator<ReplicationBatch> batches = ctx.call(() -> blockingStub.replicate(request));
+            while (batches.hasNext()) {
+                apply(batches.next());
+            }
+        } finally {
+            ctx.cancel(null);
+        }
+    }
+
+    private void apply(ReplicationBatch batch) throws Exception {
+        boolean snapshot = batch.getSnapshotSequence() > 0 || batch.getSnapshotDone();
+        for (ReplicationEvent event : batch.getEventsList()) {
+            switch (event.getEventCase()) {
+                case LAPTOP_SAVED:
+                    try {
+                        laptopStore.Save(event.getLaptopSaved());
+                        if (watchers != null) {
+                            watchers.Publish(event.getLaptopSaved());
+                        }
+                    } catch (AlreadyExistsException e) {
+                        // a snapshot sent again after a cut-off repeats the laptops applied the first time,
+                        // those are the same as a laptop is never changed once saved
+                    }
+                    break;
+                case VOTE_CAST:
+                    if (!counted(event.getVoteCast().getLaptopId(), event.getRatedCount())) {
+                        ratingStore.Add(event.getVoteCast().getLaptopId(), event.getVoteCast().getScore());
+                    }
+                    break;
+                case RATING_ADDED:
+                    RatingSnapshot added = event.getRatingAdded();
+                    if (!counted(added.getLaptopId(), event.getRatedCount())) {
+                        ratingStore.Add(added.getLaptopId(), new Rating(added.getCount(), added.getSum()));
+                    }
+                    break;
+                case RATING_RESTORED:
+                    restore(event.getRatingRestored());
+                    break;
+                default:
+                    throw new IllegalStateException("unknown replication event " + event.getEventCase());
+            }
+            // a snapshot only counts once all of it is applied, a follower cut off halfway asks for it again
+            if (!snapshot) {
+                advance(event.getSequence());
+            }
+        }
+        if (batch.getSnapshotDone()) {
+            logger.info("caught up from a snapshot at sequence " + batch.getSnapshotSequence());
+            advance(batch.getSnapshotSequence());
+        }
+    }
+
+    // whether the votes that took the laptop to ratedCount are here already: a snapshot is read from the leader's
+    // stores while writes go on, so it may hold votes logged after its sequence, the votes of a laptop are logged
+    // in the order they were counted, so those are exactly the ones up to the count the snapshot had
+    private boolean counted(String laptopID, int ratedCount) {
+        Rating current = ratingStore.Find(laptopID);
+        return ratedCount > 0 && current != null && current.getCount() >= ratedCount;
+    }
+
+    // adds the difference to the leader's totals, so a snapshot applied twice leaves the same votes
+    private void restore(RatingSnapshot total) {
+        Rating current = ratingStore.Find(total.getLaptopId());
+        int count = current == null ? 0 : current.getCount();
+        double sum = current == null ? 0 : current.getSum();
+        if (count != total.getCount() || sum != total.getSum()) {
+            ratingStore.Add(total.getLaptopId(), new Rating(total.getCount() - count, total.getSum() - sum));
+        }
+    }
+
+    private void advance(long sequence) {
+        synchronized (progress) {
+            lastSequence = sequence;
+            progress.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.pb.RatingSnapshot;
+import com.wong.grpc.pb.ReplicationEvent;
+import com.wong.grpc.pb.VoteCast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// the ordered log of writes on a leader, read by ReplicationService to keep read replicas up to date
+// a write is applied to its store first and logged once it succeeded, the lock is only held to number the event
+// and keep it, so writes don't wait on each other's store writes; writes of different laptops may be logged
+// in another order than they reached the stores, which doesn't matter as they commute,
+// the votes of one laptop are logged in their order, see ReplicatedRatingStore
+// only the last capacity events are kept, a follower that falls further behind catches up from a snapshot
+// that ReplicationService reads from the stores themselves
+public class ReplicationLog {
+
+    public static final int DEFAULT_CAPACITY = 100_000;
+
+    private final ReplicationEvent[] tail;
+    private long lastSequence;
+
+    public ReplicationLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ReplicationLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.tail = new ReplicationEvent[capacity];
+    }
+
+    // for a laptop already in the store
+    public void AppendLaptop(Laptop laptop) {
+        append(ReplicationEvent.newBuilder().setLaptopSaved(laptop));
+    }
+
+    // for a vote already added, ratedCount is the laptop's vote count with it
+    public void AppendVote(String laptopID, double score, int ratedCount) {
+        append(ReplicationEvent.newBuilder()
+                .setVoteCast(VoteCast.newBuilder().setLaptopId(laptopID).setScore(score))
+                .setRatedCount(ratedCount));
+    }
+
+    // for votes already added, ratedCount is the laptop's vote count with them
+    public void AppendRating(String laptopID, Rating votes, int ratedCount) {
+        append(ReplicationEvent.newBuilder().setRatingAdded(toSnapshot(laptopID, votes)).setRatedCount(ratedCount));
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    // the oldest sequence number still in the log
+    public synchronized long getFirstSequence() {
+        return Math.max(1, lastSequence - tail.length + 1);
+    }
+
+    // returns at most max events starting at sequence from, waiting up to waitMillis for the first one,
+    // or null when from is no longer in the log and the reader needs a snapshot first
+    // a reader ahead of the log followed an earlier leader, it gets a snapshot as well
+    // checked again after each wait, writes that come in meanwhile may push from out of a small log
+    public synchronized List<ReplicationEvent> Read(long from, int max, long waitMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + waitMillis * 1_000_000;
+        while (true) {
+            if (from < getFirstSequence() || from > lastSequence + 1) {
+                return null;
+            }
+            if (lastSequence >= from) {
+                break;
+            }
+            long remaining = (deadline - System.nanoTime()) / 1_000_000;
+            if (remaining <= 0) {
+                return List.of();
+            }
+            wait(remaining);
+        }
+
+        int count = (int) Math.min(max, lastSequence - from + 1);
+        List<ReplicationEvent> events = new ArrayList<>(count);
+        for (long sequence = from; sequence < from + count; sequence++) {
+            events.add(tail[(int) (sequence % tail.length)]);
+        }
+        return events;
+    }
+
+    static RatingSnapshot toSnapshot(String laptopID, Rating rating) {
+        return RatingSnapshot.newBuilder()
+                .setLaptopId(laptopID)
+                .setCount(rating.getCount())
+                .setSum(rating.getSum())
+                .build();
+    }
+
+    private synchronized void append(ReplicationEvent.Builder event) {
+        lastSequence++;
+        tail[(int) (lastSequence % tail.length)] = event.setSequence(lastSequence).build();
+        notifyAll();
+    }
+}
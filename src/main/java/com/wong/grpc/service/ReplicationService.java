@@ -0,0 +1,201 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.*;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+// streams a leader's ReplicationLog to its followers, see ReplicationFollower
+// a follower the log has moved past gets a snapshot first, read from the leader's stores
+// each follower gets a sender thread, the gRPC callbacks of a call run one at a time,
+// so the handler returns and leaves the long-lived stream to that thread to still hear about onReady
+public class ReplicationService extends ReplicationServiceGrpc.ReplicationServiceImplBase {
+
+    private static final Logger logger = Logger.getLogger(ReplicationService.class.getName());
+
+    static final int MAX_BATCH_EVENTS = 512;
+    static final int MAX_BATCH_BYTES = 1 << 20;
+    // how long a sender waits for new writes before checking whether its follower is gone
+    private static final long POLL_MILLIS = 100;
+    private static final Filter ALL = Filter.newBuilder().setMaxPriceUsd(Double.POSITIVE_INFINITY).build();
+
+    private final ReplicationLog log;
+    private final LaptopStore laptopStore;
+    private final RatingStore ratingStore;
+    private final ExecutorService senders;
+
+    // the stores the log's writes go to, their replicated wrappers work as well
+    public ReplicationService(ReplicationLog log, LaptopStore laptopStore, RatingStore ratingStore) {
+        this.log = log;
+        this.laptopStore = laptopStore;
+        this.ratingStore = ratingStore;
+        this.senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "replication-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void replicate(ReplicateRequest request, StreamObserver<ReplicationBatch> responseObserver) {
+        ServerCallStreamObserver<ReplicationBatch> stream = (ServerCallStreamObserver<ReplicationBatch>) responseObserver;
+        Object ready = new Object();
+        Runnable wakeUp = () -> {
+            synchronized (ready) {
+                ready.notifyAll();
+            }
+        };
+        stream.setOnReadyHandler(wakeUp);
+        stream.setOnCancelHandler(wakeUp);
+
+        logger.info("follower starts replicating from sequence " + request.getFromSequence());
+        senders.execute(() -> {
+            try {
+                send(Math.max(1, request.getFromSequence()), stream, ready);
+            } catch (InterruptedException e) {
+                stream.onError(Status.UNAVAILABLE.withDescription("leader is shutting down").asRuntimeException());
+            } catch (RuntimeException e) {
+                if (!stream.isCancelled()) {
+                    logger.warning("replication stream failed: " + e.getMessage());
+                    stream.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+                }
+            }
+        });
+    }
+
+    // ends every replication stream, followers reconnect to the next leader they are pointed at
+    public void close() {
+        senders.shutdownNow();
+    }
+
+    private void send(long next, ServerCallStreamObserver<ReplicationBatch> stream, Object ready) throws InterruptedException {
+        while (!stream.isCancelled()) {
+            List<ReplicationEvent> events = log.Read(next, MAX_BATCH_EVENTS, POLL_MILLIS);
+            if (events == null) {
+                logger.info("sequence " + next + " is no longer in the log, follower catches up from a snapshot");
+                next = sendSnapshot(stream, ready) + 1;
+                continue;
+            }
+            if (events.isEmpty()) {
+                continue;
+            }
+
+            ReplicationBatch.Builder batch = ReplicationBatch.newBuilder();
+            fill(batch, events.iterator());
+            awaitReady(stream, ready);
+            stream.onNext(batch.build());
+            next += batch.getEventsCount();
+        }
+    }
+
+    // sends the leader's state as laptop_saved and rating_restored events and returns the sequence it was taken at
+    // a write reaches its store before the log, so every write up to that sequence is in the stores, the scan
+    // may see later ones too, which the follower skips when the log brings them again
+    // nothing is copied or locked up front, the events are built batch by batch as the stores are scanned
+    private long sendSnapshot(ServerCallStreamObserver<ReplicationBatch> stream, Object ready) throws InterruptedException {
+        long sequence = log.getLastSequence();
+        SnapshotSender sender = new SnapshotSender(sequence, stream, ready);
+        Context.CancellableContext scan = Context.current().withCancellation();
+        try {
+            laptopStore.Search(scan, ALL, laptop -> sender.add(scan,
+                    ReplicationEvent.newBuilder().setSequence(sequence).setLaptopSaved(laptop).build()));
+            ratingStore.ForEach((laptopID, rating) -> sender.add(scan, ReplicationEvent.newBuilder().setSequence(sequence)
+                    .setRatingRestored(ReplicationLog.toSnapshot(laptopID, rating)).build()));
+            sender.finish();
+        } finally {
+            scan.cancel(null);
+        }
+
+        logger.info("sent snapshot of " + sender.laptops + " laptops and " + sender.ratings
+                + " ratings at sequence " + sequence);
+        return sequence;
+    }
+
+    // a batch ends after MAX_BATCH_EVENTS events or the event that takes it past MAX_BATCH_BYTES
+    private static void fill(ReplicationBatch.Builder batch, Iterator<ReplicationEvent> events) {
+        int bytes = 0;
+        while (events.hasNext() && batch.getEventsCount() < MAX_BATCH_EVENTS && bytes < MAX_BATCH_BYTES) {
+            ReplicationEvent event = events.next();
+            batch.addEvents(event);
+            bytes += event.getSerializedSize();
+        }
+    }
+
+    // waits for the follower to take more messages, so a slow follower doesn't make the leader buffer the log
+    private static void awaitReady(ServerCallStreamObserver<ReplicationBatch> stream, Object ready) throws InterruptedException {
+        synchronized (ready) {
+            while (!stream.isReady() && !stream.isCancelled()) {
+                ready.wait(POLL_MILLIS);
+            }
+        }
+    }
+
+    // the store scans call add, a sharded store from several threads at once
+    // a full batch is sent from within the call, so a slow follower slows the scan down rather than buffer it
+    private static final class SnapshotSender {
+        private final long sequence;
+        private final ServerCallStreamObserver<ReplicationBatch> stream;
+        private final Object ready;
+        private ReplicationBatch.Builder batch;
+        private int bytes;
+        private InterruptedException interrupted;
+        private long laptops;
+        private long ratings;
+
+        private SnapshotSender(long sequence, ServerCallStreamObserver<ReplicationBatch> stream, Object ready) {
+            this.sequence = sequence;
+            this.stream = stream;
+            this.ready = ready;
+            this.batch = ReplicationBatch.newBuilder().setSnapshotSequence(sequence);
+        }
+
+        // ends the scan once the follower is gone or the sender is interrupted
+        private synchronized void add(Context.CancellableContext scan, ReplicationEvent event) {
+            if (scan.isCancelled()) {
+                return;
+            }
+            batch.addEvents(event);
+            bytes += event.getSerializedSize();
+            if (event.hasLaptopSaved()) {
+                laptops++;
+            } else {
+                ratings++;
+            }
+            if (batch.getEventsCount() >= MAX_BATCH_EVENTS || bytes >= MAX_BATCH_BYTES) {
+                try {
+                    send();
+                } catch (InterruptedException e) {
+                    interrupted = e;
+                }
+                if (interrupted != null || stream.isCancelled()) {
+                    scan.cancel(null);
+                }
+            }
+        }
+
+        // sends what is left as the last batch, which may be empty
+        private synchronized void finish() throws InterruptedException {
+            if (interrupted != null) {
+                throw interrupted;
+            }
+            batch.setSnapshotDone(true);
+            send();
+        }
+
+        private void send() throws InterruptedException {
+            awaitReady(stream, ready);
+            if (!stream.isCancelled()) {
+                stream.onNext(batch.build());
+            }
+            batch = ReplicationBatch.newBuilder().setSnapshotSequence(sequence);
+            bytes = 0;
+        }
+    }
+}
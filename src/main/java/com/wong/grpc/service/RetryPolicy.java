@@ -0,0 +1,96 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.LaptopServiceGrpc;
+import io.grpc.MethodDescriptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// builds the retry and hedging part of the gRPC service config for LaptopService
+// - read-only calls (SearchLaptop, GetLaptop, BatchGetLaptops) are hedged: if no answer came within the
+//   hedging delay, another attempt is sent, usually to another node, and the first answer wins
+// - CreateLaptop is retried on UNAVAILABLE with jittered exponential backoff: LaptopClient gives a laptop
+//   without ID its UUID before the first attempt, so a retry of a create that did go through ends in
+//   ALREADY_EXISTS instead of saving the laptop twice under two server-made IDs
+// - UploadImage and RateLaptop are never repeated, rating twice would count a vote twice
+// - retries and hedges share a token bucket (retryThrottling), so when most calls fail, e.g. because the
+//   servers are overloaded, extra attempts stop instead of amplifying the overload
+public class RetryPolicy {
+
+    private static final String SERVICE = LaptopServiceGrpc.SERVICE_NAME;
+    private static final List<String> HEDGED_METHODS = List.of("SearchLaptop", "GetLaptop", "BatchGetLaptops");
+
+    private final long hedgingDelayNanos;
+    private final int maxAttempts;
+
+    public RetryPolicy(long hedgingDelay, TimeUnit unit) {
+        this(hedgingDelay, unit, 3);
+    }
+
+    public RetryPolicy(long hedgingDelay, TimeUnit unit, int maxAttempts) {
+        this.hedgingDelayNanos = unit.toNanos(hedgingDelay);
+        this.maxAttempts = maxAttempts;
+    }
+
+    // hedge after the p95 latency a LatencyRecorder observed, so only the slowest 5% of calls send a second attempt
+    // the hedged methods share one delay, the largest of their p95s, so none of them hedges more than 5% of its calls;
+    // defaultDelay while none of them has completed a call yet
+    public static RetryPolicy fromObservedLatency(LatencyRecorder recorder, long defaultDelay, TimeUnit unit) {
+        long p95 = -1;
+        for (String method : HEDGED_METHODS) {
+            p95 = Math.max(p95, recorder.percentileNanos(MethodDescriptor.generateFullMethodName(SERVICE, method), 95));
+        }
+        return p95 < 0 ? new RetryPolicy(defaultDelay, unit) : new RetryPolicy(p95, TimeUnit.NANOSECONDS);
+    }
+
+    public long getHedgingDelay(TimeUnit unit) {
+        return unit.convert(hedgingDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // service config values follow the JSON model: numbers are doubles, durations are strings
+    public Map<String, Object> toServiceConfig() {
+        Map<String, Object> hedgingPolicy = Map.of(
+                "maxAttempts", (double) maxAttempts,
+                "hedgingDelay", duration(hedgingDelayNanos),
+                "nonFatalStatusCodes", List.of("UNAVAILABLE"));
+        List<Map<String, Object>> hedgedMethods = new ArrayList<>();
+        for (String method : HEDGED_METHODS) {
+            hedgedMethods.add(method(method));
+        }
+        Map<String, Object> hedged = Map.of(
+                "name", hedgedMethods,
+                "hedgingPolicy", hedgingPolicy);
+
+        Map<String, Object> retryPolicy = Map.of(
+                "maxAttempts", (double) maxAttempts,
+                "initialBackoff", "0.1s",
+                "maxBackoff", "2s",
+                "backoffMultiplier", 2.0,
+                "retryableStatusCodes", List.of("UNAVAILABLE"));
+        Map<String, Object> retried = Map.of(
+                "name", List.of(method("CreateLaptop")),
+                "retryPolicy", retryPolicy);
+
+        // every failed attempt costs one token and every success gives back 0.1,
+        // extra attempts are only made while more than half of the 10 tokens are left
+        Map<String, Object> retryThrottling = Map.of(
+                "maxTokens", 10.0,
+                "tokenRatio", 0.1);
+
+        Map<String, Object> serviceConfig = new HashMap<>();
+        serviceConfig.put("methodConfig", List.of(hedged, retried));
+        serviceConfig.put("retryThrottling", retryThrottling);
+        return serviceConfig;
+    }
+
+    private static Map<String, Object> method(String name) {
+        return Map.of("service", SERVICE, "method", name);
+    }
+
+    private static String duration(long nanos) {
+        return String.format("%d.%09ds", nanos / 1_000_000_000L, nanos % 1_000_000_000L);
+    }
+}
@@ -0,0 +1,316 @@
+package com.wong.grpc.service;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+// a compressed set of row numbers in the roaring layout: rows are grouped by their high 16 bits,
+// and each group of up to 65536 rows is a sorted char array while it holds at most ARRAY_MAX rows
+// and a 65536-bit bitmap beyond that, so a value few rows have costs 2 bytes a row and a common one 1 bit a row
+// and and or work a group at a time, on words where both groups are bitmaps
+// not thread safe, and and or leave their operands as they are
+final class RowBitmap {
+
+    static final RowBitmap EMPTY = new RowBitmap();
+
+    // an array holding more would take more than the 8 KiB of a bitmap
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    // high 16 bits of the rows in each group, ascending
+    private char[] keys;
+    // char[] or long[] per group
+    private Object[] containers;
+    private int[] cardinalities;
+    private int groups;
+
+    RowBitmap() {
+        this(4);
+    }
+
+    private RowBitmap(int capacity) {
+        keys = new char[capacity];
+        containers = new Object[capacity];
+        cardinalities = new int[capacity];
+    }
+
+    // rows are cheapest to add in ascending order, which is the order a store numbers them in
+    void add(int row) {
+        char key = (char) (row >>> 16);
+        char low = (char) row;
+        int group = groups > 0 && keys[groups - 1] == key ? groups - 1 : find(key);
+        if (group < 0) {
+            group = -group - 1;
+            insert(group, key, new char[4], 0);
+        }
+        Object container = containers[group];
+        int cardinality = cardinalities[group];
+        if (container instanceof long[]) {
+            long[] words = (long[]) container;
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                cardinalities[group]++;
+            }
+            return;
+        }
+        char[] values = (char[]) container;
+        int at = cardinality > 0 && values[cardinality - 1] < low ? cardinality : Arrays.binarySearch(values, 0, cardinality, low);
+        if (at >= 0 && at < cardinality) {
+            return;
+        }
+        at = at < 0 ? -at - 1 : at;
+        if (cardinality == ARRAY_MAX) {
+            long[] words = toWords(values, cardinality);
+            words[low >>> 6] |= 1L << low;
+            containers[group] = words;
+        } else {
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, 2 * cardinality));
+                containers[group] = values;
+            }
+            System.arraycopy(values, at, values, at + 1, cardinality - at);
+            values[at] = low;
+        }
+        cardinalities[group]++;
+    }
+
+    boolean contains(int row) {
+        int group = find((char) (row >>> 16));
+        if (group < 0) {
+            return false;
+        }
+        char low = (char) row;
+        Object container = containers[group];
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, 0, cardinalities[group], low) >= 0;
+    }
+
+    int size() {
+        int size = 0;
+        for (int group = 0; group < groups; group++) {
+            size += cardinalities[group];
+        }
+        return size;
+    }
+
+    // rows in ascending order until visit returns false, returns false if it stopped early
+    boolean forEach(IntPredicate visit) {
+        for (int group = 0; group < groups; group++) {
+            int high = keys[group] << 16;
+            Object container = containers[group];
+            if (container instanceof long[]) {
+                long[] words = (long[]) container;
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    long bits = words[word];
+                    while (bits != 0) {
+                        if (!visit.test(high | word << 6 | Long.numberOfTrailingZeros(bits))) {
+                            return false;
+                        }
+                        bits &= bits - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) container;
+                for (int i = 0; i < cardinalities[group]; i++) {
+                    if (!visit.test(high | values[i])) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    RowBitmap copy() {
+        RowBitmap copy = new RowBitmap(Math.max(1, groups));
+        for (int group = 0; group < groups; group++) {
+            Object container = containers[group];
+            container = container instanceof long[] ? ((long[]) container).clone()
+                    : Arrays.copyOf((char[]) container, cardinalities[group]);
+            copy.append(keys[group], container, cardinalities[group]);
+        }
+        return copy;
+    }
+
+    static RowBitmap and(RowBitmap a, RowBitmap b) {
+        RowBitmap result = new RowBitmap(Math.max(1, Math.min(a.groups, b.groups)));
+        int i = 0, j = 0;
+        while (i < a.groups && j < b.groups) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Object x = a.containers[i], y = b.containers[j];
+                if (x instanceof long[] && y instanceof long[]) {
+                    long[] words = new long[BITMAP_WORDS];
+                    int cardinality = 0;
+                    for (int word = 0; word < BITMAP_WORDS; word++) {
+                        words[word] = ((long[]) x)[word] & ((long[]) y)[word];
+                        cardinality += Long.bitCount(words[word]);
+                    }
+                    result.appendShrunk(a.keys[i], words, cardinality);
+                } else if (x instanceof long[]) {
+                    result.appendNonEmpty(a.keys[i], filter((char[]) y, b.cardinalities[j], (long[]) x));
+                } else if (y instanceof long[]) {
+                    result.appendNonEmpty(a.keys[i], filter((char[]) x, a.cardinalities[i], (long[]) y));
+                } else {
+                    result.appendNonEmpty(a.keys[i],
+                            intersect((char[]) x, a.cardinalities[i], (char[]) y, b.cardinalities[j]));
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    static RowBitmap or(RowBitmap a, RowBitmap b) {
+        RowBitmap result = new RowBitmap(Math.max(1, a.groups + b.groups));
+        int i = 0, j = 0;
+        while (i < a.groups || j < b.groups) {
+            if (j == b.groups || i < a.groups && a.keys[i] < b.keys[j]) {
+                result.append(a.keys[i], copyOf(a.containers[i], a.cardinalities[i]), a.cardinalities[i]);
+                i++;
+            } else if (i == a.groups || a.keys[i] > b.keys[j]) {
+                result.append(b.keys[j], copyOf(b.containers[j], b.cardinalities[j]), b.cardinalities[j]);
+                j++;
+            } else {
+                Object x = a.containers[i], y = b.containers[j];
+                if (!(x instanceof long[]) && !(y instanceof long[])
+                        && a.cardinalities[i] + b.cardinalities[j] <= ARRAY_MAX) {
+                    char[] union = union((char[]) x, a.cardinalities[i], (char[]) y, b.cardinalities[j]);
+                    result.append(a.keys[i], union, union.length);
+                } else {
+                    long[] words = x instanceof long[] ? ((long[]) x).clone() : toWords((char[]) x, a.cardinalities[i]);
+                    if (y instanceof long[]) {
+                        for (int word = 0; word < BITMAP_WORDS; word++) {
+                            words[word] |= ((long[]) y)[word];
+                        }
+                    } else {
+                        char[] values = (char[]) y;
+                        for (int k = 0; k < b.cardinalities[j]; k++) {
+                            words[values[k] >>> 6] |= 1L << values[k];
+                        }
+                    }
+                    int cardinality = 0;
+                    for (long word : words) {
+                        cardinality += Long.bitCount(word);
+                    }
+                    result.append(a.keys[i], words, cardinality);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, groups, key);
+    }
+
+    private void insert(int group, char key, Object container, int cardinality) {
+        if (groups == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * groups);
+            containers = Arrays.copyOf(containers, 2 * groups);
+            cardinalities = Arrays.copyOf(cardinalities, 2 * groups);
+        }
+        System.arraycopy(keys, group, keys, group + 1, groups - group);
+        System.arraycopy(containers, group, containers, group + 1, groups - group);
+        System.arraycopy(cardinalities, group, cardinalities, group + 1, groups - group);
+        keys[group] = key;
+        containers[group] = container;
+        cardinalities[group] = cardinality;
+        groups++;
+    }
+
+    private void append(char key, Object container, int cardinality) {
+        insert(groups, key, container, cardinality);
+    }
+
+    private void appendNonEmpty(char key, char[] values) {
+        if (values.length > 0) {
+            append(key, values, values.length);
+        }
+    }
+
+    // a bitmap left with few rows goes back to an array
+    private void appendShrunk(char key, long[] words, int cardinality) {
+        if (cardinality == 0) {
+            return;
+        }
+        if (cardinality > ARRAY_MAX) {
+            append(key, words, cardinality);
+            return;
+        }
+        char[] values = new char[cardinality];
+        int k = 0;
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+            long bits = words[word];
+            while (bits != 0) {
+                values[k++] = (char) (word << 6 | Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        append(key, values, cardinality);
+    }
+
+    private static Object copyOf(Object container, int cardinality) {
+        return container instanceof long[] ? ((long[]) container).clone() : Arrays.copyOf((char[]) container, cardinality);
+    }
+
+    private static long[] toWords(char[] values, int cardinality) {
+        long[] words = new long[BITMAP_WORDS];
+        for (int i = 0; i < cardinality; i++) {
+            words[values[i] >>> 6] |= 1L << values[i];
+        }
+        return words;
+    }
+
+    private static char[] filter(char[] values, int cardinality, long[] words) {
+        char[] kept = new char[cardinality];
+        int k = 0;
+        for (int i = 0; i < cardinality; i++) {
+            if ((words[values[i] >>> 6] & (1L << values[i])) != 0) {
+                kept[k++] = values[i];
+            }
+        }
+        return Arrays.copyOf(kept, k);
+    }
+
+    private static char[] intersect(char[] x, int xSize, char[] y, int ySize) {
+        char[] common = new char[Math.min(xSize, ySize)];
+        int i = 0, j = 0, k = 0;
+        while (i < xSize && j < ySize) {
+            if (x[i] < y[j]) {
+                i++;
+            } else if (x[i] > y[j]) {
+                j++;
+            } else {
+                common[k++] = x[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(common, k);
+    }
+
+    private static char[] union(char[] x, int xSize, char[] y, int ySize) {
+        char[] all = new char[xSize + ySize];
+        int i = 0, j = 0, k = 0;
+        while (i < xSize || j < ySize) {
+            if (j == ySize || i < xSize && x[i] < y[j]) {
+                all[k++] = x[i++];
+            } else if (i == xSize || x[i] > y[j]) {
+                all[k++] = y[j++];
+            } else {
+                all[k++] = x[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(all, k);
+    }
+}
@@ -0,0 +1,34 @@
+package com.wong.grpc.service;
+
+import io.grpc.*;
+
+// fails calls with UNAVAILABLE while closed, e.g. while a catalog preload is still filling the stores,
+// so clients that don't watch health never get answers from a partial catalog and retry elsewhere instead
+public class ServingGate implements ServerInterceptor {
+
+    // the description of the UNAVAILABLE status, null while open
+    private volatile String closedReason;
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        String reason = closedReason;
+        if (reason != null) {
+            call.close(Status.UNAVAILABLE.withDescription(reason), new Metadata());
+            return new ServerCall.Listener<>() {
+            };
+        }
+        return next.startCall(call, headers);
+    }
+
+    public void open() {
+        closedReason = null;
+    }
+
+    public void close(String reason) {
+        closedReason = reason;
+    }
+
+    public boolean isOpen() {
+        return closedReason == null;
+    }
+}
@@ -0,0 +1,202 @@
+package com.wong.grpc.service;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import io.grpc.Context;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+// spreads the catalog over several shards, which can be local stores or other LaptopServer nodes (RemoteLaptopStore)
+// laptops are placed by consistent hashing of their ID, so adding or removing a shard only moves about 1/n of them;
+// Search asks all shards in parallel and merges their results into the caller's stream
+public class ShardedLaptopStore implements LaptopStore {
+
+    private static final Logger logger = Logger.getLogger(ShardedLaptopStore.class.getName());
+
+    // points per shard on the hash ring, enough to even out the share every shard gets
+    private static final int VIRTUAL_NODES = 128;
+    // laptops buffered between the shards and the caller during a search
+    private static final int SEARCH_BUFFER = 1024;
+
+    private static final HashFunction hash = Hashing.murmur3_128();
+
+    private final String[] names;
+    private final LaptopStore[] shards;
+    private final long[] ring;
+    private final int[] ringShards;
+    private final ExecutorService searchExecutor;
+
+    public ShardedLaptopStore(List<? extends LaptopStore> shards) {
+        this(named(shards));
+    }
+
+    // shards are placed on the ring by name, e.g. their host:port, so their order doesn't matter
+    public ShardedLaptopStore(Map<String, ? extends LaptopStore> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is needed");
+        }
+        this.names = shards.keySet().toArray(new String[0]);
+        this.shards = shards.values().toArray(new LaptopStore[0]);
+
+        TreeMap<Long, Integer> points = new TreeMap<>();
+        for (int shard = 0; shard < names.length; shard++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                points.put(hash(names[shard] + "#" + node), shard);
+            }
+        }
+        this.ring = new long[points.size()];
+        this.ringShards = new int[points.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> point : points.entrySet()) {
+            ring[i] = point.getKey();
+            ringShards[i] = point.getValue();
+            i++;
+        }
+
+        this.searchExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "sharded-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        shardFor(laptop.getId()).Save(laptop);
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        return shardFor(id).Find(id);
+    }
+
+    @Override
+    public Map<String, Laptop> FindAll(Collection<String> ids) {
+        Map<Integer, List<String>> byShard = new HashMap<>();
+        for (String id : ids) {
+            byShard.computeIfAbsent(shardIndex(id), shard -> new ArrayList<>()).add(id);
+        }
+
+        Map<String, Laptop> byID = new HashMap<>();
+        for (Map.Entry<Integer, List<String>> shard : byShard.entrySet()) {
+            byID.putAll(shards[shard.getKey()].FindAll(shard.getValue()));
+        }
+
+        Map<String, Laptop> found = new LinkedHashMap<>();
+        for (String id : ids) {
+            Laptop laptop = byID.get(id);
+            if (laptop != null) {
+                found.put(id, laptop);
+            }
+        }
+        return found;
+    }
+
+    // every shard searches in a child of ctx, so when the caller cancels all shards stop;
+    // results are handed to the stream on the calling thread, as LaptopStream expects
+    // the first shard that fails stops the others and fails the whole search with a StoreUnavailableException,
+    // rather than leave the caller with the results of the shards that happened to work
+    @Override
+    public void Search(Context ctx, Filter filter, LaptopStream stream) {
+        BlockingQueue<Object> results = new ArrayBlockingQueue<>(SEARCH_BUFFER);
+        Object done = new Object();
+        Context.CancellableContext searchContext = ctx.withCancellation();
+        AtomicReference<StoreUnavailableException> failure = new AtomicReference<>();
+
+        for (int i = 0; i < shards.length; i++) {
+            LaptopStore shard = shards[i];
+            String name = names[i];
+            searchExecutor.execute(() -> {
+                try {
+                    searchContext.run(() -> shard.Search(searchContext, filter, laptop -> offer(results, laptop, searchContext)));
+                } catch (RuntimeException e) {
+                    if (failure.compareAndSet(null, new StoreUnavailableException("search on shard " + name + " failed: " + e.getMessage(), e))) {
+                        logger.warning("search on shard " + name + " failed: " + e.getMessage());
+                        searchContext.cancel(e);
+                    }
+                } finally {
+                    offer(results, done, searchContext);
+                }
+            });
+        }
+
+        try {
+            int finished = 0;
+            while (finished < shards.length && failure.get() == null) {
+                if (ctx.isCancelled()) {
+                    logger.info("context is cancelled");
+                    return;
+                }
+                Object result = results.poll(100, TimeUnit.MILLISECONDS);
+                if (result == done) {
+                    finished++;
+                } else if (result != null) {
+                    stream.Send((Laptop) result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // stops shards still searching when the caller gave up early or a shard failed
+            searchContext.cancel(null);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // the name of the shard owning the ID
+    public String shardOf(String id) {
+        return names[shardIndex(id)];
+    }
+
+    private LaptopStore shardFor(String id) {
+        return shards[shardIndex(id)];
+    }
+
+    // the first ring point at or after the ID's hash owns it, wrapping around at the end of the ring
+    // a UUID is hashed in its canonical form, the stores take either case and so must the routing,
+    // or an upper-case spelling would look for the laptop, or save a second one, on another shard
+    private int shardIndex(String id) {
+        int point = Arrays.binarySearch(ring, hash(Uuids.isValid(id) ? Uuids.canonical(id) : id));
+        if (point < 0) {
+            point = -point - 1;
+        }
+        return ringShards[point == ring.length ? 0 : point];
+    }
+
+    // a full queue blocks the shard until the caller catches up, unless the search is cancelled meanwhile
+    private static void offer(BlockingQueue<Object> results, Object result, Context ctx) {
+        try {
+            while (!results.offer(result, 100, TimeUnit.MILLISECONDS)) {
+                if (ctx.isCancelled()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long hash(String key) {
+        return hash.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static Map<String, LaptopStore> named(List<? extends LaptopStore> shards) {
+        Map<String, LaptopStore> named = new LinkedHashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            named.put("shard-" + i, shards.get(i));
+        }
+        return named;
+    }
+}
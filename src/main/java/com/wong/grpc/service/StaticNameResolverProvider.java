@@ -0,0 +1,43 @@
+package com.wong.grpc.service;
+
+import io.grpc.NameResolver;
+import io.grpc.NameResolverProvider;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+
+// target looks like static:///localhost:50051,localhost:50052;weight=2
+public class StaticNameResolverProvider extends NameResolverProvider {
+
+    @Override
+    public NameResolver newNameResolver(URI targetUri, NameResolver.Args args) {
+        if (!"static".equals(targetUri.getScheme())) {
+            return null;
+        }
+        String endpoints = targetUri.getPath().substring(1);
+        return new EndpointNameResolver("laptop-service", () -> endpoints, 0, args);
+    }
+
+    @Override
+    public String getDefaultScheme() {
+        return "static";
+    }
+
+    @Override
+    protected boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    protected int priority() {
+        return 5;
+    }
+
+    @Override
+    protected Collection<Class<? extends SocketAddress>> getProducedSocketAddressTypes() {
+        return Collections.singleton(InetSocketAddress.class);
+    }
+}
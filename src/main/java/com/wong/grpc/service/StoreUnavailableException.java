@@ -0,0 +1,8 @@
+package com.wong.grpc.service;
+
+// a store that depends on other stores, e.g. the shards of a ShardedLaptopStore, can't answer because one of them failed
+public class StoreUnavailableException extends RuntimeException {
+    public StoreUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
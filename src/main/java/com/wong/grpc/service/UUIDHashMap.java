@@ -0,0 +1,222 @@
+package com.wong.grpc.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.UnaryOperator;
+
+// a concurrent hash map from UUIDs, given as their two longs, to non-null values
+// keys sit inline in a long array and are probed linearly, so there is no String, node or boxed key per entry
+// and get neither allocates nor locks: a slot's value is written with release semantics after its key,
+// a reader that sees the value sees the key too, and a slot without a value ends the probe
+// writers lock one of SEGMENTS segments, a segment that gets too full is copied into a table twice the size
+// which replaces the old one at once, readers still on the old table see the map as it was
+// entries are never removed, which is all the stores need and keeps probing simple
+public class UUIDHashMap<V> {
+
+    private static final int SEGMENTS = 64;
+    private static final int SEGMENT_SHIFT = 64 - Integer.numberOfTrailingZeros(SEGMENTS);
+    private static final int INITIAL_SLOTS = 16;
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private final Segment[] segments;
+
+    public UUIDHashMap() {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long msb, long lsb) {
+        long hash = hash(msb, lsb);
+        Table table = segments[(int) (hash >>> SEGMENT_SHIFT)].table;
+        int slot = (int) hash & table.mask;
+        while (true) {
+            Object value = VALUES.getAcquire(table.values, slot);
+            if (value == null) {
+                return null;
+            }
+            if (table.keys[2 * slot] == msb && table.keys[2 * slot + 1] == lsb) {
+                return (V) value;
+            }
+            slot = (slot + 1) & table.mask;
+        }
+    }
+
+    // returns the value already there, or null when value was added
+    public V putIfAbsent(long msb, long lsb, V value) {
+        long hash = hash(msb, lsb);
+        Segment segment = segments[(int) (hash >>> SEGMENT_SHIFT)];
+        synchronized (segment) {
+            int slot = segment.find(hash, msb, lsb);
+            V old = segment.value(slot);
+            if (old == null) {
+                segment.insert(slot, msb, lsb, value);
+            }
+            return old;
+        }
+    }
+
+    // returns the value replaced, null if there was none
+    public V put(long msb, long lsb, V value) {
+        long hash = hash(msb, lsb);
+        Segment segment = segments[(int) (hash >>> SEGMENT_SHIFT)];
+        synchronized (segment) {
+            int slot = segment.find(hash, msb, lsb);
+            V old = segment.value(slot);
+            if (old == null) {
+                segment.insert(slot, msb, lsb, value);
+            } else {
+                VALUES.setRelease(segment.table.values, slot, value);
+            }
+            return old;
+        }
+    }
+
+    // remap gets the current value or null and must return the new, non-null value
+    // it runs under the segment's lock, so updates of one key are applied one after another
+    public V compute(long msb, long lsb, UnaryOperator<V> remap) {
+        long hash = hash(msb, lsb);
+        Segment segment = segments[(int) (hash >>> SEGMENT_SHIFT)];
+        synchronized (segment) {
+            int slot = segment.find(hash, msb, lsb);
+            V old = segment.value(slot);
+            V value = remap.apply(old);
+            if (value == null) {
+                throw new NullPointerException("UUIDHashMap doesn't hold null values");
+            }
+            if (old == null) {
+                segment.insert(slot, msb, lsb, value);
+            } else {
+                VALUES.setRelease(segment.table.values, slot, value);
+            }
+            return value;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    // weakly consistent like ConcurrentHashMap's: values added during the iteration may or may not be seen
+    public Iterable<V> values() {
+        return () -> new Iterator<>() {
+            private int segment = -1;
+            private Table table;
+            private int slot;
+            private V next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    if (table == null || slot == table.values.length) {
+                        if (++segment == SEGMENTS) {
+                            return false;
+                        }
+                        table = segments[segment].table;
+                        slot = 0;
+                        continue;
+                    }
+                    @SuppressWarnings("unchecked")
+                    V value = (V) VALUES.getAcquire(table.values, slot++);
+                    next = value;
+                }
+                return true;
+            }
+
+            @Override
+            public V next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                V value = next;
+                next = null;
+                return value;
+            }
+        };
+    }
+
+    // murmur3's 64-bit finalizer, random UUIDs are spread already but sequential or hand-made ones are not
+    static long hash(long msb, long lsb) {
+        long hash = msb ^ Long.rotateLeft(lsb, 32);
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Table {
+        // msb of slot i at 2i, lsb at 2i + 1
+        private final long[] keys;
+        private final Object[] values;
+        private final int mask;
+
+        private Table(int slots) {
+            keys = new long[2 * slots];
+            values = new Object[slots];
+            mask = slots - 1;
+        }
+    }
+
+    // a slot number from find is only valid until the lock is released
+    private static final class Segment {
+        private volatile Table table = new Table(INITIAL_SLOTS);
+        private volatile int size;
+
+        // the slot holding the key, or the empty slot where it would go
+        private int find(long hash, long msb, long lsb) {
+            Table current = table;
+            int slot = (int) hash & current.mask;
+            while (current.values[slot] != null
+                    && (current.keys[2 * slot] != msb || current.keys[2 * slot + 1] != lsb)) {
+                slot = (slot + 1) & current.mask;
+            }
+            return slot;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <V> V value(int slot) {
+            return (V) table.values[slot];
+        }
+
+        private void insert(int slot, long msb, long lsb, Object value) {
+            Table current = table;
+            current.keys[2 * slot] = msb;
+            current.keys[2 * slot + 1] = lsb;
+            VALUES.setRelease(current.values, slot, value);
+            size++;
+            // at most two thirds full, so probes stay short and always reach an empty slot
+            if (3 * size > 2 * current.values.length) {
+                grow(current);
+            }
+        }
+
+        private void grow(Table old) {
+            Table grown = new Table(2 * old.values.length);
+            for (int slot = 0; slot < old.values.length; slot++) {
+                Object value = old.values[slot];
+                if (value != null) {
+                    long msb = old.keys[2 * slot];
+                    long lsb = old.keys[2 * slot + 1];
+                    int target = (int) hash(msb, lsb) & grown.mask;
+                    while (grown.values[target] != null) {
+                        target = (target + 1) & grown.mask;
+                    }
+                    grown.keys[2 * target] = msb;
+                    grown.keys[2 * target + 1] = lsb;
+                    grown.values[target] = value;
+                }
+            }
+            table = grown;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.wong.grpc.service;
+
+import java.util.Arrays;
+
+// a hash map from UUIDs, given as their two longs, to non-negative longs, with no object per entry at all:
+// keys and values sit inline in two long arrays and are probed linearly
+// unlike UUIDHashMap it isn't thread-safe, the caller guards it with its own lock
+// entries are never removed, like in UUIDHashMap
+class UUIDLongMap {
+
+    static final long ABSENT = -1;
+    private static final int INITIAL_SLOTS = 16;
+
+    // msb of slot i at 2i, lsb at 2i + 1
+    private long[] keys;
+    // ABSENT marks an empty slot
+    private long[] values;
+    private int mask;
+    private int size;
+
+    UUIDLongMap() {
+        allocate(INITIAL_SLOTS);
+    }
+
+    // ABSENT if there is no value for the key
+    long get(long msb, long lsb) {
+        int slot = find(msb, lsb);
+        return values[slot];
+    }
+
+    void put(long msb, long lsb, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("UUIDLongMap only holds non-negative values: " + value);
+        }
+        int slot = find(msb, lsb);
+        if (values[slot] == ABSENT) {
+            keys[2 * slot] = msb;
+            keys[2 * slot + 1] = lsb;
+            size++;
+        }
+        values[slot] = value;
+        // at most two thirds full, so probes stay short and always reach an empty slot
+        if (3 * size > 2 * values.length) {
+            grow();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // the slot holding the key, or the empty slot where it would go
+    private int find(long msb, long lsb) {
+        int slot = (int) UUIDHashMap.hash(msb, lsb) & mask;
+        while (values[slot] != ABSENT && (keys[2 * slot] != msb || keys[2 * slot + 1] != lsb)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(2 * oldValues.length);
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] != ABSENT) {
+                long msb = oldKeys[2 * slot];
+                long lsb = oldKeys[2 * slot + 1];
+                int target = find(msb, lsb);
+                keys[2 * target] = msb;
+                keys[2 * target + 1] = lsb;
+                values[target] = oldValues[slot];
+            }
+        }
+    }
+
+    private void allocate(int slots) {
+        keys = new long[2 * slots];
+        values = new long[slots];
+        Arrays.fill(values, ABSENT);
+        mask = slots - 1;
+    }
+}
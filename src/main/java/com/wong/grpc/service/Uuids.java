@@ -0,0 +1,80 @@
+package com.wong.grpc.service;
+
+import java.util.UUID;
+
+// parses the canonical 36-character form of a UUID into its two halves without allocating, unlike UUID.fromString,
+// so stores keyed by UUIDHashMap can look up a string ID for free
+// hex digits may be of either case like UUID.fromString takes them, so two spellings find the same entry,
+// a store that hands IDs back, like the leaderboard, hands back their canonical form
+final class Uuids {
+
+    private Uuids() {
+    }
+
+    static boolean isValid(String id) {
+        if (id.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (digit(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // for IDs about to be stored, where one that isn't a UUID is a caller's mistake
+    static void checkValid(String id) {
+        if (!isValid(id)) {
+            throw new IllegalArgumentException("laptop ID is not a valid UUID: " + id);
+        }
+    }
+
+    // the lower-case form UUID.toString gives, the ID itself when it already is
+    // only defined for IDs that are isValid
+    static String canonical(String id) {
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c >= 'A' && c <= 'F') {
+                return new UUID(mostSignificantBits(id), leastSignificantBits(id)).toString();
+            }
+        }
+        return id;
+    }
+
+    // only defined for IDs that are isValid
+    static long mostSignificantBits(String id) {
+        return hex(id, 0, 8) << 32 | hex(id, 9, 13) << 16 | hex(id, 14, 18);
+    }
+
+    static long leastSignificantBits(String id) {
+        return hex(id, 19, 23) << 48 | hex(id, 24, 36);
+    }
+
+    private static long hex(String id, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = value << 4 | digit(id.charAt(i));
+        }
+        return value;
+    }
+
+    // ASCII only, Character.digit takes the digits of other scripts as well
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
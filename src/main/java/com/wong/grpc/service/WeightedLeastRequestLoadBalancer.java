@@ -0,0 +1,201 @@
+package com.wong.grpc.service;
+
+import io.grpc.*;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// sends each call to the less loaded of two randomly chosen READY endpoints, where load is the number of
+// outstanding calls divided by the endpoint weight ("power of two choices")
+// candidates are drawn in proportion to their weight, so weights also split the traffic when nothing is outstanding
+// this avoids the herding of a plain least-request scan while still steering away from slow nodes
+public class WeightedLeastRequestLoadBalancer extends LoadBalancer {
+
+    private final Helper helper;
+    private final Map<EquivalentAddressGroup, Endpoint> endpoints;
+    private ConnectivityState currentState;
+
+    public WeightedLeastRequestLoadBalancer(Helper helper) {
+        this.helper = helper;
+        this.endpoints = new HashMap<>();
+    }
+
+    @Override
+    public boolean acceptResolvedAddresses(ResolvedAddresses resolvedAddresses) {
+        List<EquivalentAddressGroup> servers = resolvedAddresses.getAddresses();
+        if (servers.isEmpty()) {
+            handleNameResolutionError(Status.UNAVAILABLE.withDescription("no endpoints resolved"));
+            return false;
+        }
+
+        Set<EquivalentAddressGroup> removed = new HashSet<>(endpoints.keySet());
+        for (EquivalentAddressGroup server : servers) {
+            EquivalentAddressGroup key = new EquivalentAddressGroup(server.getAddresses());
+            Integer weight = server.getAttributes().get(EndpointNameResolver.WEIGHT);
+            removed.remove(key);
+
+            Endpoint endpoint = endpoints.get(key);
+            if (endpoint != null) {
+                endpoint.weight = weight == null ? 1 : weight;
+                endpoint.subchannel.updateAddresses(Collections.singletonList(server));
+                continue;
+            }
+
+            Subchannel subchannel = helper.createSubchannel(CreateSubchannelArgs.newBuilder()
+                    .setAddresses(server)
+                    .build());
+            endpoint = new Endpoint(subchannel, weight == null ? 1 : weight);
+            endpoints.put(key, endpoint);
+
+            Endpoint started = endpoint;
+            subchannel.start(state -> processSubchannelState(started, state));
+            subchannel.requestConnection();
+        }
+
+        for (EquivalentAddressGroup key : removed) {
+            endpoints.remove(key).subchannel.shutdown();
+        }
+
+        updateBalancingState();
+        return true;
+    }
+
+    @Override
+    public void handleNameResolutionError(Status error) {
+        if (currentState != ConnectivityState.READY) {
+            updateState(ConnectivityState.TRANSIENT_FAILURE, new FixedResultPicker(PickResult.withError(error)));
+        }
+    }
+
+    @Override
+    public void requestConnection() {
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.subchannel.requestConnection();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.subchannel.shutdown();
+        }
+        endpoints.clear();
+    }
+
+    private void processSubchannelState(Endpoint endpoint, ConnectivityStateInfo stateInfo) {
+        if (endpoints.get(new EquivalentAddressGroup(endpoint.subchannel.getAddresses().getAddresses())) != endpoint) {
+            return;
+        }
+        if (stateInfo.getState() == ConnectivityState.IDLE) {
+            endpoint.subchannel.requestConnection();
+        }
+        endpoint.state = stateInfo;
+        updateBalancingState();
+    }
+
+    private void updateBalancingState() {
+        List<Endpoint> ready = new ArrayList<>();
+        boolean connecting = false;
+        Status failure = Status.UNAVAILABLE.withDescription("no ready endpoints");
+
+        for (Endpoint endpoint : endpoints.values()) {
+            ConnectivityState state = endpoint.state.getState();
+            if (state == ConnectivityState.READY) {
+                ready.add(endpoint);
+            } else if (state == ConnectivityState.CONNECTING || state == ConnectivityState.IDLE) {
+                connecting = true;
+            } else if (state == ConnectivityState.TRANSIENT_FAILURE) {
+                failure = endpoint.state.getStatus();
+            }
+        }
+
+        if (!ready.isEmpty()) {
+            updateState(ConnectivityState.READY, new Picker(ready));
+        } else if (connecting) {
+            updateState(ConnectivityState.CONNECTING, new FixedResultPicker(PickResult.withNoResult()));
+        } else {
+            updateState(ConnectivityState.TRANSIENT_FAILURE, new FixedResultPicker(PickResult.withError(failure)));
+        }
+    }
+
+    private void updateState(ConnectivityState state, SubchannelPicker picker) {
+        currentState = state;
+        helper.updateBalancingState(state, picker);
+    }
+
+    private static class Endpoint {
+        private final Subchannel subchannel;
+        private final AtomicInteger outstanding;
+        private final ClientStreamTracer.Factory tracerFactory;
+        private volatile int weight;
+        private ConnectivityStateInfo state;
+
+        Endpoint(Subchannel subchannel, int weight) {
+            this.subchannel = subchannel;
+            this.weight = weight;
+            this.outstanding = new AtomicInteger();
+            this.state = ConnectivityStateInfo.forNonError(ConnectivityState.IDLE);
+            this.tracerFactory = new ClientStreamTracer.Factory() {
+                @Override
+                public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info, Metadata headers) {
+                    // counted once a stream exists, a pick that never gets one (e.g. the call is cancelled first) isn't,
+                    // so every increment has its streamClosed
+                    outstanding.incrementAndGet();
+                    AtomicBoolean closed = new AtomicBoolean();
+                    return new ClientStreamTracer() {
+                        @Override
+                        public void streamClosed(Status status) {
+                            if (closed.compareAndSet(false, true)) {
+                                outstanding.decrementAndGet();
+                            }
+                        }
+                    };
+                }
+            };
+        }
+
+        // a.isLessLoadedThan(b) <=> a.outstanding / a.weight < b.outstanding / b.weight
+        boolean isLessLoadedThan(Endpoint other) {
+            return (long) outstanding.get() * other.weight < (long) other.outstanding.get() * weight;
+        }
+    }
+
+    private static class Picker extends SubchannelPicker {
+        private final List<Endpoint> ready;
+        // cumulativeWeights[i] is the sum of the weights of ready[0..i]
+        private final long[] cumulativeWeights;
+
+        Picker(List<Endpoint> ready) {
+            this.ready = ready;
+            this.cumulativeWeights = new long[ready.size()];
+            long sum = 0;
+            for (int i = 0; i < ready.size(); i++) {
+                sum += ready.get(i).weight;
+                cumulativeWeights[i] = sum;
+            }
+        }
+
+        @Override
+        public PickResult pickSubchannel(PickSubchannelArgs args) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            Endpoint chosen = candidate(random);
+            if (ready.size() > 1) {
+                Endpoint other = candidate(random);
+                if (other.isLessLoadedThan(chosen)) {
+                    chosen = other;
+                }
+            }
+
+            return PickResult.withSubchannel(chosen.subchannel, chosen.tracerFactory);
+        }
+
+        private Endpoint candidate(ThreadLocalRandom random) {
+            long point = random.nextLong(cumulativeWeights[cumulativeWeights.length - 1]);
+            int i = Arrays.binarySearch(cumulativeWeights, point);
+            // ready[i] covers the points from cumulativeWeights[i - 1] up to, but not including, cumulativeWeights[i]
+            return ready.get(i >= 0 ? i + 1 : -i - 1);
+        }
+    }
+}
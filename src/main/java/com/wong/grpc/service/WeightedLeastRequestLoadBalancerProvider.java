@@ -0,0 +1,37 @@
+package com.wong.grpc.service;
+
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancerProvider;
+import io.grpc.protobuf.services.HealthCheckingLoadBalancerUtil;
+
+// registered through META-INF/services, select it with {"loadBalancingConfig": [{"weighted_least_request": {}}]}
+public class WeightedLeastRequestLoadBalancerProvider extends LoadBalancerProvider {
+
+    public static final String POLICY_NAME = "weighted_least_request";
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public int getPriority() {
+        return 5;
+    }
+
+    @Override
+    public String getPolicyName() {
+        return POLICY_NAME;
+    }
+
+    // with healthCheckConfig in the service config, endpoints reporting NOT_SERVING (e.g. draining) are skipped
+    @Override
+    public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
+        return HealthCheckingLoadBalancerUtil.newHealthCheckingLoadBalancer(new LoadBalancer.Factory() {
+            @Override
+            public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
+                return new WeightedLeastRequestLoadBalancer(helper);
+            }
+        }, helper);
+    }
+}
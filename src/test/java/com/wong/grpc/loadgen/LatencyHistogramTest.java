@@ -0,0 +1,42 @@
+package com.wong.grpc.loadgen;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.record(micros);
+        }
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000, histogram.getMax());
+        assertEquals(50_000, histogram.percentile(50), 50_000 * 0.02);
+        assertEquals(99_000, histogram.percentile(99), 99_000 * 0.02);
+        assertEquals(100_000, histogram.percentile(100));
+    }
+
+    @Test
+    void bucketsCoverTheirValues() {
+        for (long value : new long[]{0, 1, 127, 128, 129, 1_000, 65_535, 1_000_000, Long.MAX_VALUE / 2}) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.upperBound(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.upperBound(index - 1) < value);
+        }
+    }
+
+    @Test
+    void correctedRecordingFillsInMissedRequests() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // one request stalled for 100ms while requests were expected every 10ms
+        histogram.recordCorrected(100_000, 10_000);
+
+        assertEquals(10, histogram.getCount());
+        assertEquals(100_000, histogram.getMax());
+        assertEquals(10_000, histogram.percentile(10), 10_000 * 0.02);
+    }
+}
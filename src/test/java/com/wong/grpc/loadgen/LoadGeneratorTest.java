@@ -0,0 +1,58 @@
+package com.wong.grpc.loadgen;
+
+import com.wong.grpc.service.DiskImageStore;
+import com.wong.grpc.service.EmbeddedLaptopServer;
+import com.wong.grpc.service.InMemoryLaptopStore;
+import com.wong.grpc.service.InMemoryRatingStore;
+import com.wong.grpc.service.LaptopAsyncClient;
+import io.grpc.ManagedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadGeneratorTest {
+
+    private EmbeddedLaptopServer server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new EmbeddedLaptopServer(new InMemoryLaptopStore(), new DiskImageStore("tmp"), new InMemoryRatingStore());
+        server.start();
+        channel = server.newChannel();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    void reportCountsCallsNotCorrectedSamples() throws Exception {
+        LoadGenerator loadGenerator = new LoadGenerator(new LaptopAsyncClient(channel, 100),
+                Map.of(LoadGenerator.Operation.CREATE, 1), Path.of("tmp/laptop.jpg"));
+        loadGenerator.seed();
+        // a call is expected every microsecond, so every call that takes longer adds corrected samples
+        loadGenerator.runClosedLoop(1, 1_000_000, Duration.ofMillis(300));
+
+        long completed = loadGenerator.getCompleted(LoadGenerator.Operation.CREATE);
+        assertTrue(completed > 0);
+        assertEquals(0, loadGenerator.getErrors(LoadGenerator.Operation.CREATE));
+        assertTrue(loadGenerator.getHistogram(LoadGenerator.Operation.CREATE).getCount() > completed);
+
+        String json = loadGenerator.toJson();
+        assertTrue(json.contains("\"count\": " + completed + ","), json);
+        double seconds = Double.parseDouble(json.replaceAll("(?s).*\"duration_seconds\": ([0-9.E-]+),.*", "$1"));
+        double throughput = Double.parseDouble(json.replaceAll("(?s).*\"throughput\": ([0-9.E-]+),.*", "$1"));
+        assertEquals(completed / seconds, throughput, 1e-6 * throughput);
+        assertTrue(loadGenerator.toText().contains(" " + completed + " "));
+    }
+}
@@ -0,0 +1,60 @@
+package com.wong.grpc.sample;
+
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.serializer.LaptopFileReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeneratorTest {
+
+    private static final int LAPTOPS = 25_000;
+
+    @Test
+    void bulkFilesOnlyDependOnTheSeed(@TempDir Path dir) throws IOException {
+        Path sequential = dir.resolve("sequential.bin");
+        Path parallel = dir.resolve("parallel.bin");
+        Path otherSeed = dir.resolve("other.bin");
+
+        Generator.WriteLaptops(7, LAPTOPS, 1, sequential);
+        Generator.WriteLaptops(7, LAPTOPS, 4, parallel);
+        Generator.WriteLaptops(8, LAPTOPS, 4, otherSeed);
+
+        assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(parallel));
+        assertNotEquals(readLaptops(sequential).get(0), readLaptops(otherSeed).get(0));
+    }
+
+    @Test
+    void generatedLaptopsMatchTheWrittenFile(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("laptops.bin");
+        Generator.WriteLaptops(7, LAPTOPS, 4, file);
+        Map<String, Laptop> generated = new ConcurrentHashMap<>();
+        Generator.GenerateLaptops(7, LAPTOPS, 4, laptop -> generated.put(laptop.getId(), laptop));
+
+        List<Laptop> laptops = readLaptops(file);
+        assertEquals(LAPTOPS, laptops.size());
+        assertEquals(LAPTOPS, generated.size());
+        for (Laptop laptop : laptops) {
+            assertEquals(laptop, generated.get(laptop.getId()));
+        }
+    }
+
+    private static List<Laptop> readLaptops(Path file) throws IOException {
+        List<Laptop> laptops = new ArrayList<>();
+        try (LaptopFileReader reader = new LaptopFileReader(file)) {
+            for (Laptop laptop : reader) {
+                laptops.add(laptop);
+            }
+        }
+        return laptops;
+    }
+}
@@ -0,0 +1,94 @@
+package com.wong.grpc.serializer;
+
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.sample.Generator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaptopArchiveTest {
+
+    private static final int LAPTOPS = 3_000;
+
+    @Test
+    void archiveRoundTripsInOrder(@TempDir Path dir) throws IOException {
+        List<Laptop> laptops = generate();
+        Path archive = dir.resolve("laptops.lpta");
+        write(archive, laptops, Deflater.BEST_SPEED);
+
+        try (LaptopArchiveReader reader = new LaptopArchiveReader(archive)) {
+            assertEquals(LAPTOPS, reader.getRecordCount());
+            assertTrue(reader.getBlockCount() > 1);
+            assertEquals(laptops, reader.ReadAll(3));
+        }
+    }
+
+    @Test
+    void findOnlyDecompressesBlocksCoveringTheID(@TempDir Path dir) throws IOException {
+        List<Laptop> laptops = generate();
+        laptops.sort(Comparator.comparing(Laptop::getId));
+        Path archive = dir.resolve("laptops.lpta");
+        write(archive, laptops, Deflater.DEFAULT_COMPRESSION);
+
+        try (LaptopArchiveReader reader = new LaptopArchiveReader(archive)) {
+            for (int i = 0; i < LAPTOPS; i += 97) {
+                assertEquals(laptops.get(i), reader.Find(laptops.get(i).getId()));
+            }
+            assertNull(reader.Find("00000000-0000-4000-8000-000000000000"));
+        }
+    }
+
+    @Test
+    void compressesRepetitiveCatalogs(@TempDir Path dir) throws IOException {
+        List<Laptop> laptops = generate();
+        Path archive = dir.resolve("laptops.lpta");
+        write(archive, laptops, Deflater.DEFAULT_COMPRESSION);
+
+        long raw = laptops.stream().mapToLong(Laptop::getSerializedSize).sum();
+        // random prices, clock speeds and UUIDs barely compress, the repeated names and enums do
+        assertTrue(Files.size(archive) < raw * 2 / 3,"archive is " + Files.size(archive) + " bytes for " + raw);
+    }
+
+    @Test
+    void corruptedBlocksAreDetected(@TempDir Path dir) throws IOException {
+        Path archive = dir.resolve("laptops.lpta");
+        write(archive, generate(), Deflater.BEST_SPEED);
+        try (RandomAccessFile raw = new RandomAccessFile(archive.toFile(), "rw")) {
+            raw.seek(200);
+            int b = raw.read();
+            raw.seek(200);
+            raw.write(b ^ 0x55);
+        }
+
+        try (LaptopArchiveReader reader = new LaptopArchiveReader(archive)) {
+            assertThrows(IOException.class, () -> reader.ReadBlock(0));
+        }
+    }
+
+    private static List<Laptop> generate() {
+        Generator generator = new Generator(41);
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < LAPTOPS; i++) {
+            laptops.add(generator.NewLaptop());
+        }
+        return laptops;
+    }
+
+    private static void write(Path archive, List<Laptop> laptops, int level) throws IOException {
+        try (LaptopArchiveWriter writer = new LaptopArchiveWriter(archive, level, 64 * 1024)) {
+            for (Laptop laptop : laptops) {
+                writer.Write(laptop);
+            }
+        }
+    }
+}
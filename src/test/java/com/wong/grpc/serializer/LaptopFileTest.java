@@ -0,0 +1,161 @@
+package com.wong.grpc.serializer;
+
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.sample.Generator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaptopFileTest {
+
+    private static final int LAPTOPS = 2_000;
+
+    @Test
+    void recordsRoundTripInOrder(@TempDir Path dir) throws IOException {
+        List<Laptop> laptops = generate();
+        String file = dir.resolve("laptops.bin").toString();
+
+        Serializer serializer = new Serializer();
+        assertEquals(LAPTOPS, serializer.WriteBinaryRecords(laptops, file));
+        try (Stream<Laptop> stream = serializer.ReadBinaryRecords(file)) {
+            assertEquals(laptops, stream.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void iteratorsStartAtAnyRecord(@TempDir Path dir) throws IOException {
+        List<Laptop> laptops = generate();
+        for (boolean indexed : new boolean[]{true, false}) {
+            Path file = dir.resolve("laptops-" + indexed + ".bin");
+            write(file, laptops, 4 * 1024, indexed);
+
+            try (LaptopFileReader reader = new LaptopFileReader(file)) {
+                assertEquals(indexed ? LAPTOPS : -1, reader.getRecordCount());
+                for (int from : new int[]{0, 1, 17, 1234, LAPTOPS - 1}) {
+                    Iterator<Laptop> iterator = reader.iterator(from);
+                    assertEquals(laptops.get(from), iterator.next());
+                    assertEquals(LAPTOPS - from - 1, countRemaining(iterator));
+                }
+                assertFalse(reader.iterator(LAPTOPS).hasNext());
+            }
+        }
+    }
+
+    @Test
+    void mappedReaderParsesRangesInParallel(@TempDir Path dir) throws IOException {
+        List<Laptop> laptops = generate();
+        for (boolean indexed : new boolean[]{true, false}) {
+            Path file = dir.resolve("laptops-" + indexed + ".bin");
+            write(file, laptops, 4 * 1024, indexed);
+
+            try (MappedLaptopFileReader reader = new MappedLaptopFileReader(file)) {
+                assertEquals(laptops, reader.ReadAll(3));
+
+                List<MappedLaptopFileReader.Range> ranges = reader.Split(5);
+                assertTrue(ranges.size() > 1 && ranges.size() <= 5);
+                for (int i = 1; i < ranges.size(); i++) {
+                    assertEquals(ranges.get(i - 1).getEnd(), ranges.get(i).getStart());
+                }
+
+                List<Laptop> unordered = Collections.synchronizedList(new ArrayList<>());
+                reader.ForEach(4, unordered::add);
+                assertEquals(new HashSet<>(laptops), new HashSet<>(unordered));
+            }
+        }
+    }
+
+    @Test
+    void corruptedBlocksAreDetected(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("laptops.bin");
+        write(file, generate(), 4 * 1024, true);
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(100);
+            int b = raw.read();
+            raw.seek(100);
+            raw.write(b ^ 0xFF);
+        }
+
+        try (LaptopFileReader reader = new LaptopFileReader(file)) {
+            assertThrows(UncheckedIOException.class, () -> reader.iterator().next());
+        }
+        try (MappedLaptopFileReader reader = new MappedLaptopFileReader(file)) {
+            assertThrows(IOException.class, () -> reader.ReadAll(2));
+        }
+    }
+
+    @Test
+    void corruptedBlockLengthsAreRejected(@TempDir Path dir) throws IOException {
+        for (int length : new int[]{-1, -12, Integer.MAX_VALUE}) {
+            Path file = dir.resolve("laptops" + length + ".bin");
+            write(file, generate(), 4 * 1024, true);
+            writeFirstBlockLength(file, length);
+
+            try (LaptopFileReader reader = new LaptopFileReader(file)) {
+                UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> reader.iterator().next());
+                assertTrue(e.getCause().getMessage().contains("invalid block length"));
+            }
+            try (MappedLaptopFileReader reader = new MappedLaptopFileReader(file)) {
+                IOException e = assertThrows(IOException.class, () -> reader.ReadAll(2));
+                assertTrue(e.getMessage().contains("invalid block length"));
+            }
+        }
+    }
+
+    @Test
+    void corruptedBlockLengthsStopTheUnindexedWalk(@TempDir Path dir) throws IOException {
+        for (int length : new int[]{-1, -12, Integer.MAX_VALUE}) {
+            Path file = dir.resolve("laptops" + length + ".bin");
+            write(file, generate(), 4 * 1024, false);
+            writeFirstBlockLength(file, length);
+
+            IOException e = assertThrows(IOException.class, () -> new MappedLaptopFileReader(file).close());
+            assertTrue(e.getMessage().contains("invalid block length"));
+        }
+    }
+
+    private static void writeFirstBlockLength(Path file, int length) throws IOException {
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(LaptopFileFormat.HEADER_SIZE);
+            raw.writeInt(length);
+        }
+    }
+
+    private static List<Laptop> generate() {
+        Generator generator = new Generator(37);
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < LAPTOPS; i++) {
+            laptops.add(generator.NewLaptop());
+        }
+        return laptops;
+    }
+
+    private static void write(Path file, List<Laptop> laptops, int blockSize, boolean indexed) throws IOException {
+        try (LaptopFileWriter writer = new LaptopFileWriter(file, blockSize, indexed)) {
+            for (Laptop laptop : laptops) {
+                writer.Write(laptop);
+            }
+        }
+    }
+
+    private static int countRemaining(Iterator<Laptop> iterator) {
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+}
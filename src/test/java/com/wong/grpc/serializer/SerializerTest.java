@@ -2,9 +2,15 @@ package com.wong.grpc.serializer;
 
 import com.wong.grpc.pb.Laptop;
 import com.wong.grpc.sample.Generator;
+import com.wong.grpc.service.InMemoryLaptopStore;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -22,6 +28,38 @@ class SerializerTest {
         assertEquals(laptop1, laptop2);
 
     }
+
+    @Test
+    public void jsonRoundTrip() throws IOException {
+        Laptop laptop1 = new Generator(42).NewLaptop();
+
+        Serializer serializer = new Serializer();
+        Laptop laptop2 = serializer.FromJson(serializer.ToJson(laptop1));
+        assertEquals(laptop1, laptop2);
+        assertEquals(laptop1.getId(), new Generator(42).NewLaptop().getId());
+    }
+
+    @Test
+    public void jsonLinesExportAndImport(@TempDir Path dir) throws IOException {
+        Generator generator = new Generator(42);
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < 2_500; i++) {
+            laptops.add(generator.NewLaptop());
+        }
+
+        Serializer serializer = new Serializer();
+        String sequential = dir.resolve("sequential.ndjson").toString();
+        String parallel = dir.resolve("parallel.ndjson").toString();
+        assertEquals(2_500, serializer.WriteJsonLines(laptops, sequential, 1));
+        assertEquals(2_500, serializer.WriteJsonLines(laptops, parallel, 3));
+        assertEquals(Files.readString(Path.of(sequential)), Files.readString(Path.of(parallel)));
+
+        InMemoryLaptopStore store = new InMemoryLaptopStore();
+        assertEquals(2_500, serializer.ImportJsonLines(parallel, store::Save, 100, 3));
+        for (Laptop laptop : laptops) {
+            assertEquals(laptop, store.Find(laptop.getId()));
+        }
+    }
     // for serialize protobuf message to test success, not only test from java
     // we also can use the Laptop.bin generated in go gRPC project to generate json file and compare the values
     public static void main(String[] args) throws IOException {
@@ -0,0 +1,129 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.pb.LaptopServiceGrpc;
+import com.wong.grpc.pb.SearchLaptopRequest;
+import com.wong.grpc.pb.SearchLaptopResponse;
+import com.wong.grpc.serializer.LaptopFileReader;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.health.v1.HealthCheckRequest;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.health.v1.HealthGrpc;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogPreloaderTest {
+
+    private static final int LAPTOPS = 2_000;
+
+    @Test
+    void preloadFillsBothStores(@TempDir Path dir) throws Exception {
+        Path laptopsFile = dir.resolve("laptops.bin");
+        Path ratingsFile = dir.resolve("ratings.bin");
+        CatalogPreloader.main(new String[]{String.valueOf(LAPTOPS), laptopsFile.toString(), ratingsFile.toString(), "5"});
+
+        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
+        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        CatalogPreloader preloader = new CatalogPreloader(laptopStore, ratingStore, laptopsFile, ratingsFile, 3);
+        preloader.Preload();
+
+        assertEquals(LAPTOPS, preloader.getLaptops());
+        assertEquals(LAPTOPS, preloader.getRatings());
+        try (LaptopFileReader reader = new LaptopFileReader(laptopsFile)) {
+            for (Laptop laptop : reader) {
+                assertEquals(laptop, laptopStore.Find(laptop.getId()));
+                // one more vote on top of the restored ones
+                assertTrue(ratingStore.Add(laptop.getId(), 5).getCount() >= 3);
+            }
+        }
+    }
+
+    @Test
+    void serverIsNotServingUntilPreloaded(@TempDir Path dir) throws Exception {
+        Path laptopsFile = dir.resolve("laptops.bin");
+        Path ratingsFile = dir.resolve("ratings.bin");
+        CatalogPreloader.main(new String[]{"10", laptopsFile.toString(), ratingsFile.toString()});
+
+        CountDownLatch release = new CountDownLatch(1);
+        LaptopStore blockingStore = new InMemoryLaptopStore() {
+            @Override
+            public void Save(Laptop laptop) throws Exception {
+                release.await();
+                super.Save(laptop);
+            }
+        };
+        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        LaptopServer server = new LaptopServer(ServerBuilder.forPort(0), 0,
+                blockingStore, new DiskImageStore(dir.toString()), ratingStore);
+        server.start(new CatalogPreloader(blockingStore, ratingStore, laptopsFile, ratingsFile, 2));
+
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        try {
+            HealthGrpc.HealthBlockingStub health = HealthGrpc.newBlockingStub(channel);
+            HealthCheckRequest request = HealthCheckRequest.getDefaultInstance();
+            assertEquals(ServingStatus.NOT_SERVING, health.check(request).getStatus());
+            LaptopServiceGrpc.LaptopServiceBlockingStub laptops = LaptopServiceGrpc.newBlockingStub(channel);
+            StatusRuntimeException e = assertThrows(StatusRuntimeException.class, () -> search(laptops));
+            assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (health.check(request).getStatus() != ServingStatus.SERVING && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(ServingStatus.SERVING, health.check(request).getStatus());
+            assertEquals(10, search(laptops));
+        } finally {
+            channel.shutdownNow();
+            server.stop();
+        }
+    }
+
+    @Test
+    void failedPreloadKeepsFailingCalls(@TempDir Path dir) throws Exception {
+        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
+        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        LaptopServer server = new LaptopServer(ServerBuilder.forPort(0), 0,
+                laptopStore, new DiskImageStore(dir.toString()), ratingStore);
+        server.start(new CatalogPreloader(laptopStore, ratingStore, dir.resolve("missing.bin"), null, 2));
+
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        try {
+            LaptopServiceGrpc.LaptopServiceBlockingStub laptops = LaptopServiceGrpc.newBlockingStub(channel);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            StatusRuntimeException e;
+            do {
+                e = assertThrows(StatusRuntimeException.class, () -> search(laptops));
+            } while (e.getStatus().getDescription().contains("in progress") && System.nanoTime() < deadline);
+            assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+            assertEquals("catalog preload failed", e.getStatus().getDescription());
+        } finally {
+            channel.shutdownNow();
+            server.stop();
+        }
+    }
+
+    private static int search(LaptopServiceGrpc.LaptopServiceBlockingStub laptops) {
+        Iterator<SearchLaptopResponse> responses = laptops.searchLaptop(SearchLaptopRequest.newBuilder()
+                .setFilter(Filter.newBuilder().setMaxPriceUsd(1e6))
+                .build());
+        int found = 0;
+        while (responses.hasNext()) {
+            responses.next();
+            found++;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,131 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.CreateLaptopRequest;
+import com.wong.grpc.pb.LaptopServiceGrpc;
+import com.wong.grpc.sample.Generator;
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelPoolTest {
+
+    private EmbeddedLaptopServer server;
+    private AtomicInteger created;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new EmbeddedLaptopServer(new InMemoryLaptopStore(), new DiskImageStore("tmp"), new InMemoryRatingStore());
+        server.start();
+        created = new AtomicInteger();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private ManagedChannel newChannel() {
+        created.incrementAndGet();
+        return InProcessChannelBuilder.forName(server.getName()).directExecutor().build();
+    }
+
+    @Test
+    void roundRobinCreatesChannelsLazily() throws Exception {
+        ChannelPool pool = new ChannelPool(this::newChannel, 4, ChannelPool.Strategy.ROUND_ROBIN);
+        assertEquals(0, pool.getOpenChannels());
+
+        LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(pool);
+        Generator generator = new Generator();
+        for (int i = 0; i < 2; i++) {
+            stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+        }
+        assertEquals(2, pool.getOpenChannels());
+
+        for (int i = 0; i < 6; i++) {
+            stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+        }
+        assertEquals(4, pool.getOpenChannels());
+        assertEquals(4, created.get());
+        assertEquals(0, pool.getOutstandingCalls());
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertThrows(StatusRuntimeException.class, () ->
+                stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build()));
+    }
+
+    @Test
+    void authorityDoesNotCountAsOutstandingCall() throws Exception {
+        ChannelPool pool = new ChannelPool(this::newChannel, 2, ChannelPool.Strategy.LEAST_OUTSTANDING, 20, TimeUnit.MILLISECONDS);
+
+        assertEquals("localhost", pool.authority());
+        assertEquals(0, pool.getOutstandingCalls());
+
+        // the channel opened for the authority is idle, so it is shut down like one that served calls
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (pool.getOpenChannels() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getOpenChannels());
+        pool.shutdown();
+    }
+
+    @Test
+    void idleChannelsAreShutDownAndRecreated() throws Exception {
+        ChannelPool pool = new ChannelPool(this::newChannel, 2, ChannelPool.Strategy.LEAST_OUTSTANDING, 20, TimeUnit.MILLISECONDS);
+        LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(pool);
+        Generator generator = new Generator();
+
+        stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+        assertEquals(1, pool.getOpenChannels());
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (pool.getOpenChannels() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getOpenChannels());
+
+        stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+        assertEquals(1, pool.getOpenChannels());
+        assertEquals(2, created.get());
+        pool.shutdownNow();
+    }
+
+    @Test
+    void callsNeverStartedDoNotKeepTheirChannel() throws Exception {
+        ChannelPool pool = new ChannelPool(this::newChannel, 1, ChannelPool.Strategy.LEAST_OUTSTANDING, 20, TimeUnit.MILLISECONDS);
+
+        pool.newCall(LaptopServiceGrpc.getCreateLaptopMethod(), CallOptions.DEFAULT);
+        pool.newCall(LaptopServiceGrpc.getCreateLaptopMethod(), CallOptions.DEFAULT).cancel("dropped", null);
+        assertEquals(0, pool.getOutstandingCalls());
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (pool.getOpenChannels() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getOpenChannels());
+        pool.shutdown();
+    }
+
+    @Test
+    void noChannelIsCreatedAfterShutdown() throws Exception {
+        ChannelPool pool = new ChannelPool(this::newChannel, 2, ChannelPool.Strategy.ROUND_ROBIN);
+        pool.shutdown();
+
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class, () -> LaptopServiceGrpc.newBlockingStub(pool)
+                .createLaptop(CreateLaptopRequest.newBuilder().setLaptop(new Generator().NewLaptop()).build()));
+        assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        assertEquals(0, pool.getOpenChannels());
+        assertEquals(0, created.get());
+    }
+}
@@ -0,0 +1,58 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.LaptopServiceGrpc;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionPolicyTest {
+
+    @Test
+    void negotiateFollowsServerPreferenceAmongClientEncodings() {
+        List<String> preferred = List.of("deflate", "gzip");
+
+        assertEquals("deflate", CompressionServerInterceptor.negotiate(preferred, "gzip, deflate"));
+        assertEquals("gzip", CompressionServerInterceptor.negotiate(preferred, "gzip"));
+        assertNull(CompressionServerInterceptor.negotiate(preferred, "snappy"));
+        assertNull(CompressionServerInterceptor.negotiate(preferred, null));
+        assertNull(CompressionServerInterceptor.negotiate(List.of(), "gzip"));
+    }
+
+    @Test
+    void onlyPolicyEncodingsAreAdvertised() {
+        String search = LaptopServiceGrpc.getSearchLaptopMethod().getFullMethodName();
+        CompressionPolicy policy = new CompressionPolicy(1024).setCodecs(search, "deflate");
+
+        assertEquals(List.of("deflate"), policy.getCodecs(search));
+        assertTrue(policy.getCodecs(LaptopServiceGrpc.getCreateLaptopMethod().getFullMethodName()).isEmpty());
+        assertEquals(Set.of("deflate"), policy.decompressorRegistry().getAdvertisedMessageEncodings());
+        assertTrue(CompressionPolicy.none().decompressorRegistry().getAdvertisedMessageEncodings().isEmpty());
+
+        assertFalse(policy.shouldCompress(1023));
+        assertTrue(policy.shouldCompress(1024));
+        assertThrows(IllegalArgumentException.class, () -> policy.setDefaultCodecs("zstd"));
+    }
+
+    @Test
+    void deflateRoundTrip() throws Exception {
+        DeflateCodec codec = new DeflateCodec();
+        byte[] data = "Lenovo Thinkpad X1 Lenovo Thinkpad P1 Lenovo Thinkpad P53".repeat(20).getBytes();
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (OutputStream os = codec.compress(buffer)) {
+            os.write(data);
+        }
+        assertTrue(buffer.size() < data.length);
+
+        try (InputStream is = codec.decompress(new ByteArrayInputStream(buffer.toByteArray()))) {
+            assertArrayEquals(data, is.readAllBytes());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.pb.LaptopServiceGrpc;
+import com.wong.grpc.sample.Generator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgingTest {
+
+    private static final long PAUSE_MILLIS = 1_000;
+
+    private InMemoryLaptopStore store;
+    private LaptopServer fast;
+    private LaptopServer slow;
+    private String target;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new InMemoryLaptopStore();
+        fast = new LaptopServer(0, store, new DiskImageStore("tmp"), new InMemoryRatingStore());
+        // every read on this replica stalls
+        slow = new LaptopServer(0, new PausingLaptopStore(store, 1.0, PAUSE_MILLIS),
+                new DiskImageStore("tmp"), new InMemoryRatingStore());
+        fast.start();
+        slow.start();
+        target = "static:///localhost:" + fast.getPort() + ",localhost:" + slow.getPort();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        fast.stop();
+        slow.stop();
+    }
+
+    @Test
+    void hedgedReadsAreAnsweredByTheFastReplica() throws Exception {
+        Laptop laptop = new Generator().NewLaptop();
+        store.Save(laptop);
+
+        LaptopClient client = new LaptopClient(target, "round_robin", new RetryPolicy(50, TimeUnit.MILLISECONDS));
+        try {
+            // until both replicas are connected, hedges can only go to the one that is
+            client.getLaptop(laptop.getId());
+
+            for (int i = 0; i < 6; i++) {
+                long start = System.nanoTime();
+                assertEquals(laptop, client.getLaptop(laptop.getId()));
+                Map<String, Laptop> found = client.batchGetLaptops(List.of(laptop.getId()));
+                assertEquals(1, found.size());
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertTrue(millis < PAUSE_MILLIS / 2, "took " + millis + " ms");
+            }
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    void hedgingDelayFollowsTheObservedP95() throws Exception {
+        Laptop laptop = new Generator().NewLaptop();
+        store.Save(laptop);
+        LatencyRecorder recorder = new LatencyRecorder(100);
+        assertEquals(7, RetryPolicy.fromObservedLatency(recorder, 7, TimeUnit.SECONDS).getHedgingDelay(TimeUnit.SECONDS));
+
+        // only the fast replica, every call is well below the pauses of the slow one
+        LaptopClient client = new LaptopClient("static:///localhost:" + fast.getPort(), "round_robin", recorder);
+        try {
+            for (int i = 0; i < 50; i++) {
+                client.getLaptop(laptop.getId());
+            }
+        } finally {
+            client.shutdown();
+        }
+        long delay = RetryPolicy.fromObservedLatency(recorder, 7, TimeUnit.SECONDS).getHedgingDelay(TimeUnit.MILLISECONDS);
+        assertTrue(delay < PAUSE_MILLIS / 2, "hedging after " + delay + " ms");
+        assertEquals(recorder.percentileNanos(LaptopServiceGrpc.getGetLaptopMethod().getFullMethodName(), 95),
+                RetryPolicy.fromObservedLatency(recorder, 7, TimeUnit.SECONDS).getHedgingDelay(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    void serviceConfigDurations() {
+        RetryPolicy policy = new RetryPolicy(1500, TimeUnit.MICROSECONDS);
+        assertEquals(1, policy.getHedgingDelay(TimeUnit.MILLISECONDS));
+        assertTrue(policy.toServiceConfig().toString().contains("hedgingDelay=0.001500000s"));
+    }
+}
@@ -2,6 +2,7 @@ package com.wong.grpc.service;
 
 import org.junit.jupiter.api.Test;
 
+import java.time.*;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -39,4 +40,143 @@ class InMemoryRatingStoreTest {
             assertTrue(ratedCount.contains(cnt));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void topRatedMatchesAFullSort() {
+        InMemoryRatingStore store = new InMemoryRatingStore();
+        Random random = new Random(45);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+        for (int vote = 0; vote < 20_000; vote++) {
+            // a few laptops get most votes, as in a real catalog
+            String id = ids.get((int) Math.min(ids.size() - 1, Math.abs(random.nextGaussian()) * 60));
+            store.Add(id, 1 + random.nextInt(10));
+        }
+
+        for (int minVotes : new int[]{0, 1, 5, 7, 10, 35, 50, 100, 150}) {
+            List<String> expected = ids.stream()
+                    .filter(id -> store.Find(id) != null && store.Find(id).getCount() >= minVotes)
+                    .sorted(Comparator.comparingDouble((String id) -> -store.Find(id).getAverage())
+                            .thenComparingInt(id -> -store.Find(id).getCount())
+                            .thenComparing(id -> id))
+                    .limit(20)
+                    .toList();
+            List<String> top = store.TopRated(20, minVotes).stream().map(LaptopRating::getLaptopID).toList();
+            assertEquals(expected, top, "min votes " + minVotes);
+        }
+    }
+
+    @Test
+    void votesUnderEitherSpellingRateOneLaptop() {
+        InMemoryRatingStore store = new InMemoryRatingStore();
+        String laptopID = "3f2a9c1e-7b4d-4e8a-9c0b-d5e6f7a8b9c0";
+        String upper = laptopID.toUpperCase();
+
+        store.Add(laptopID, 4);
+        store.TopRated(10, 1);
+        store.Add(upper, 6);
+        store.Add(upper, new Rating(2, 10));
+
+        assertEquals(4, store.Find(upper).getCount());
+        assertEquals(20, store.Find(laptopID).getSum(), 1e-9);
+        assertEquals(2, store.Find(upper, RatingWindow.HOUR).getCount());
+        List<LaptopRating> top = store.TopRated(10, 1);
+        assertEquals(1, top.size());
+        assertEquals(laptopID, top.get(0).getLaptopID());
+        assertEquals(4, top.get(0).getRating().getCount());
+    }
+
+    @Test
+    void topRatedFollowsConcurrentVotes() throws Exception {
+        InMemoryRatingStore store = new InMemoryRatingStore();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int seed = t;
+            tasks.add(() -> {
+                Random random = new Random(seed);
+                for (int vote = 0; vote < 2_000; vote++) {
+                    store.Add(ids.get(random.nextInt(ids.size())), random.nextInt(11));
+                }
+                return null;
+            });
+        }
+        for (var future : Executors.newFixedThreadPool(8).invokeAll(tasks)) {
+            future.get();
+        }
+
+        List<LaptopRating> all = store.TopRated(100, 1);
+        assertEquals(ids.size(), all.size());
+        for (LaptopRating entry : all) {
+            Rating current = store.Find(entry.getLaptopID());
+            assertEquals(current.getCount(), entry.getRating().getCount());
+            assertEquals(current.getSum(), entry.getRating().getSum(), 1e-9);
+        }
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getRating().getAverage() >= all.get(i).getRating().getAverage());
+        }
+    }
+
+    @Test
+    void recentWindowsSlideWithTheClock() {
+        MutableClock clock = new MutableClock();
+        InMemoryRatingStore store = new InMemoryRatingStore(clock);
+        String laptopID = UUID.randomUUID().toString();
+
+        for (int i = 0; i < 3; i++) {
+            store.Add(laptopID, 2);
+        }
+        clock.advance(Duration.ofHours(2));
+        store.Add(laptopID, 8);
+
+        assertEquals(8, store.Find(laptopID, RatingWindow.HOUR).getAverage(), 1e-9);
+        assertEquals(1, store.Find(laptopID, RatingWindow.HOUR).getCount());
+        assertEquals(4, store.Find(laptopID, RatingWindow.DAY).getCount());
+        assertEquals(3.5, store.Find(laptopID, RatingWindow.DAY).getAverage(), 1e-9);
+
+        // restored votes have no time, they only count for the lifetime rating
+        store.Add(laptopID, new Rating(10, 10));
+        assertEquals(4, store.Find(laptopID, RatingWindow.WEEK).getCount());
+
+        clock.advance(Duration.ofDays(8));
+        assertEquals(0, store.Find(laptopID, RatingWindow.WEEK).getCount());
+        assertEquals(14, store.Find(laptopID).getCount());
+        // the rings are reused after a full turn
+        store.Add(laptopID, 5);
+        assertEquals(1, store.Find(laptopID, RatingWindow.WEEK).getCount());
+        assertNull(store.Find("missing", RatingWindow.DAY));
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+
+        void advance(Duration duration) {
+            millis += duration.toMillis();
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
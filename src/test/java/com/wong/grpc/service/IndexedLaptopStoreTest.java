@@ -0,0 +1,67 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.*;
+import com.wong.grpc.sample.Generator;
+import io.grpc.Context;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexedLaptopStoreTest {
+
+    @Test
+    void searchesFindWhatTheInMemoryStoreFinds() throws Exception {
+        IndexedLaptopStore store = new IndexedLaptopStore();
+        InMemoryLaptopStore reference = new InMemoryLaptopStore();
+        Generator generator = new Generator(50);
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            Laptop laptop = generator.NewLaptop();
+            store.Save(laptop);
+            reference.Save(laptop);
+            laptops.add(laptop);
+        }
+        assertEquals(3_000, store.size());
+        assertEquals(laptops.get(2_345), store.Find(laptops.get(2_345).getId()));
+        assertNull(store.Find("unknown"));
+        assertThrows(AlreadyExistsException.class, () -> store.Save(laptops.get(0)));
+
+        Condition dell = Condition.newBuilder().setBrand(StringMatch.newBuilder().setEquals("Dell")).build();
+        Condition apple = Condition.newBuilder().setBrand(StringMatch.newBuilder().setPrefix("App")).build();
+        Condition backlit = Condition.newBuilder().setKeyboardBacklit(true).build();
+        Condition ips = Condition.newBuilder().setScreenPanel(Screen.Panel.IPS).build();
+        Condition qwertz = Condition.newBuilder().setKeyboardLayout(Keyboard.Layout.QWERTZ).build();
+        Condition bigHdd = Condition.newBuilder().setStorageTotal(StorageTotal.newBuilder().setDriver(Storage.Driver.HDD)
+                .setMin(Memory.newBuilder().setValue(4).setUnit(Memory.Unit.TERABYTE))).build();
+        Condition recent = Condition.newBuilder().setReleaseYear(Range.newBuilder().setMin(2018)).build();
+        for (Condition where : List.of(
+                dell,
+                all(dell, backlit, ips),
+                any(all(apple, qwertz), all(dell, Condition.newBuilder().setScreenMultitouch(true).build())),
+                all(any(dell, apple), bigHdd, recent),
+                // the release year can't be narrowed down with bitmaps, so this is a scan
+                any(ips, recent),
+                Condition.newBuilder().setBrand(StringMatch.newBuilder().setEquals("Acer")).build())) {
+            Filter filter = Filter.newBuilder().setMaxPriceUsd(3000).setMinCpuCores(2).setWhere(where).build();
+            assertEquals(search(reference, filter), search(store, filter), where::toString);
+        }
+        Filter classic = Filter.newBuilder().setMaxPriceUsd(2000).build();
+        assertEquals(search(reference, classic), search(store, classic));
+    }
+
+    private static Condition all(Condition... conditions) {
+        return Condition.newBuilder().setAllOf(Conditions.newBuilder().addAllConditions(List.of(conditions))).build();
+    }
+
+    private static Condition any(Condition... conditions) {
+        return Condition.newBuilder().setAnyOf(Conditions.newBuilder().addAllConditions(List.of(conditions))).build();
+    }
+
+    private static Set<Laptop> search(LaptopStore store, Filter filter) {
+        Set<Laptop> found = new HashSet<>();
+        store.Search(Context.ROOT, filter, found::add);
+        return found;
+    }
+}
@@ -0,0 +1,237 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.pb.RateLaptopResponse;
+import com.wong.grpc.sample.Generator;
+import io.grpc.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaptopAsyncClientTest {
+
+    private EmbeddedLaptopServer server;
+    private LaptopClient client;
+    private InMemoryLaptopStore laptopStore;
+
+    @TempDir
+    Path imageFolder;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        laptopStore = new InMemoryLaptopStore();
+        server = new EmbeddedLaptopServer(laptopStore, new DiskImageStore(imageFolder.toString()), new InMemoryRatingStore());
+        server.start();
+        client = server.newClient();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.shutdown();
+        server.stop();
+    }
+
+    @Test
+    void manyCreatesInFlightAreCappedAndAllComplete() throws Exception {
+        LaptopAsyncClient asyncClient = client.newAsyncClient(4);
+        Generator generator = new Generator();
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(asyncClient.createLaptop(generator.NewLaptop()));
+            assertTrue(asyncClient.getOutstandingRequests() <= 4);
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).get(5, TimeUnit.SECONDS);
+
+        for (CompletableFuture<String> future : futures) {
+            assertNotNull(laptopStore.Find(future.get()));
+        }
+        assertEquals(0, asyncClient.getOutstandingRequests());
+    }
+
+    @Test
+    void longQueueIsStartedWithoutNestingCalls() throws Exception {
+        // the first call stays open, every later one fails as it starts, on the thread starting it
+        List<ClientCall.Listener<?>> open = new ArrayList<>();
+        Channel channel = new Channel() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions options) {
+                return new ClientCall<>() {
+                    @Override
+                    public void start(Listener<RespT> listener, Metadata headers) {
+                        if (open.isEmpty()) {
+                            open.add(listener);
+                        } else {
+                            listener.onClose(Status.UNAVAILABLE, new Metadata());
+                        }
+                    }
+
+                    @Override
+                    public void request(int numMessages) {
+                    }
+
+                    @Override
+                    public void cancel(String message, Throwable cause) {
+                    }
+
+                    @Override
+                    public void halfClose() {
+                    }
+
+                    @Override
+                    public void sendMessage(ReqT message) {
+                    }
+                };
+            }
+
+            @Override
+            public String authority() {
+                return "test";
+            }
+        };
+        LaptopAsyncClient asyncClient = new LaptopAsyncClient(channel, 1);
+        Laptop laptop = new Generator().NewLaptop();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            futures.add(asyncClient.createLaptop(laptop));
+        }
+        assertEquals(1, asyncClient.getOutstandingRequests());
+
+        // the queued calls all start from here, which used to recurse once per call
+        open.get(0).onClose(Status.CANCELLED, new Metadata());
+        for (CompletableFuture<String> future : futures) {
+            assertTrue(future.isCompletedExceptionally());
+        }
+        assertEquals(0, asyncClient.getOutstandingRequests());
+    }
+
+    @Test
+    void searchPublisherHonoursDemand() throws Exception {
+        LaptopAsyncClient asyncClient = client.newAsyncClient(1);
+        Generator generator = new Generator();
+        for (int i = 0; i < 5; i++) {
+            laptopStore.Save(generator.NewLaptop());
+        }
+
+        List<Laptop> received = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        asyncClient.searchLaptop(Filter.newBuilder().setMaxPriceUsd(10_000).build()).subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(Laptop laptop) {
+                received.add(laptop);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(5, received.size());
+    }
+
+    @Test
+    void pipelinedRatingsCompleteInOrder() throws Exception {
+        LaptopAsyncClient asyncClient = client.newAsyncClient(2);
+        Laptop laptop = new Generator().NewLaptop();
+        laptopStore.Save(laptop);
+
+        LaptopAsyncClient.RateLaptopStream stream = asyncClient.rateLaptop();
+        CompletableFuture<RateLaptopResponse> first = stream.rate(laptop.getId(), 8);
+        CompletableFuture<RateLaptopResponse> second = stream.rate(laptop.getId(), 10);
+        stream.complete();
+
+        assertEquals(1, first.get(5, TimeUnit.SECONDS).getRatedCount());
+        assertEquals(9, second.get(5, TimeUnit.SECONDS).getAverageScore(), 1e-9);
+    }
+
+    @Test
+    void uploadImage() throws Exception {
+        Laptop laptop = new Generator().NewLaptop();
+        laptopStore.Save(laptop);
+
+        LaptopAsyncClient asyncClient = client.newAsyncClient(1);
+        assertTrue(asyncClient.uploadImage(laptop.getId(), Path.of("tmp/laptop.jpg")).get(5, TimeUnit.SECONDS).getSize() > 0);
+    }
+
+    @Test
+    void cancellingAnUploadCancelsTheCall() throws Exception {
+        // the call never gets ready for a chunk, so only a cancel ends it
+        CountDownLatch cancelled = new CountDownLatch(1);
+        Channel channel = new Channel() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions options) {
+                return new ClientCall<>() {
+                    private Listener<RespT> listener;
+
+                    @Override
+                    public void start(Listener<RespT> listener, Metadata headers) {
+                        this.listener = listener;
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return false;
+                    }
+
+                    @Override
+                    public void request(int numMessages) {
+                    }
+
+                    @Override
+                    public void cancel(String message, Throwable cause) {
+                        cancelled.countDown();
+                        listener.onClose(Status.CANCELLED.withDescription(message), new Metadata());
+                    }
+
+                    @Override
+                    public void halfClose() {
+                    }
+
+                    @Override
+                    public void sendMessage(ReqT message) {
+                    }
+                };
+            }
+
+            @Override
+            public String authority() {
+                return "test";
+            }
+        };
+        LaptopAsyncClient asyncClient = new LaptopAsyncClient(channel, 1);
+        CompletableFuture<?> upload = asyncClient.uploadImage(new Generator().NewLaptop().getId(), Path.of("tmp/laptop.jpg"));
+        assertEquals(1, asyncClient.getOutstandingRequests());
+
+        upload.cancel(false);
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        assertEquals(0, asyncClient.getOutstandingRequests());
+    }
+}
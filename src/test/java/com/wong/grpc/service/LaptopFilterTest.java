@@ -0,0 +1,130 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.*;
+import com.wong.grpc.sample.Generator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaptopFilterTest {
+
+    private static final Filter ANY_PRICE = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+
+    @Test
+    void eachConditionMatchesLikeItsDefinition() {
+        List<Laptop> laptops = laptops(49, 2_000);
+        assertConditionMatches(laptops, Condition.newBuilder()
+                .setBrand(StringMatch.newBuilder().setEquals("Dell")).build(),
+                laptop -> laptop.getBrand().equals("Dell"));
+        assertConditionMatches(laptops, Condition.newBuilder()
+                .setName(StringMatch.newBuilder().setPrefix("Thinkpad")).build(),
+                laptop -> laptop.getName().startsWith("Thinkpad"));
+        assertConditionMatches(laptops, Condition.newBuilder()
+                .setReleaseYear(Range.newBuilder().setMin(2016).setMax(2017)).build(),
+                laptop -> laptop.getReleaseYear() >= 2016 && laptop.getReleaseYear() <= 2017);
+        assertConditionMatches(laptops, Condition.newBuilder()
+                .setWeightKg(Range.newBuilder().setMax(1.8)).build(),
+                laptop -> laptop.getWeightKg() <= 1.8);
+        assertConditionMatches(laptops, Condition.newBuilder()
+                .setScreenSizeInch(Range.newBuilder().setMin(15)).build(),
+                laptop -> laptop.getScreen().getSizeInch() >= 15);
+        assertConditionMatches(laptops, Condition.newBuilder()
+                .setMinScreenResolution(Screen.Resolution.newBuilder().setWidth(3000).setHeight(1700)).build(),
+                laptop -> laptop.getScreen().getResolution().getWidth() >= 3000
+                        && laptop.getScreen().getResolution().getHeight() >= 1700);
+        assertConditionMatches(laptops, Condition.newBuilder().setScreenPanel(Screen.Panel.QLED).build(),
+                laptop -> laptop.getScreen().getPanel() == Screen.Panel.QLED);
+        assertConditionMatches(laptops, Condition.newBuilder().setScreenMultitouch(false).build(),
+                laptop -> !laptop.getScreen().getMultitouch());
+        assertConditionMatches(laptops, Condition.newBuilder()
+                .setMinGpuMemory(Memory.newBuilder().setValue(4).setUnit(Memory.Unit.GIGABYTE)).build(),
+                laptop -> laptop.getGpusList().stream().anyMatch(gpu -> InMemoryLaptopStore.toBit(gpu.getMemory()) >= 4L << 33));
+        assertConditionMatches(laptops, Condition.newBuilder().setStorageTotal(StorageTotal.newBuilder()
+                        .setDriver(Storage.Driver.HDD).setMin(Memory.newBuilder().setValue(3).setUnit(Memory.Unit.TERABYTE))).build(),
+                laptop -> laptop.getStoragesList().stream().filter(storage -> storage.getDriver() == Storage.Driver.HDD)
+                        .mapToLong(storage -> InMemoryLaptopStore.toBit(storage.getMemory())).sum() >= 3L << 43);
+        assertConditionMatches(laptops, Condition.newBuilder().setKeyboardLayout(Keyboard.Layout.AZERTY).build(),
+                laptop -> laptop.getKeyboard().getLayout() == Keyboard.Layout.AZERTY);
+        assertConditionMatches(laptops, Condition.newBuilder().setKeyboardBacklit(true).build(),
+                laptop -> laptop.getKeyboard().getBacklit());
+    }
+
+    @Test
+    void combinationsMatchWhateverTheSampleOrdersThemBy() {
+        List<Laptop> laptops = laptops(50, 2_000);
+        Condition dell = Condition.newBuilder().setBrand(StringMatch.newBuilder().setEquals("Dell")).build();
+        Condition backlit = Condition.newBuilder().setKeyboardBacklit(true).build();
+        Condition light = Condition.newBuilder().setWeightKg(Range.newBuilder().setMax(1.5)).build();
+        Condition where = Condition.newBuilder().setAnyOf(Conditions.newBuilder()
+                .addConditions(Condition.newBuilder().setAllOf(Conditions.newBuilder().addConditions(dell).addConditions(backlit)))
+                .addConditions(light)).build();
+        Filter filter = Filter.newBuilder().setMaxPriceUsd(2500).setMinCpuCores(4).setWhere(where).build();
+        Predicate<Laptop> expected = laptop -> laptop.getPriceUsd() <= 2500 && laptop.getCpu().getNumberCores() >= 4
+                && (laptop.getBrand().equals("Dell") && laptop.getKeyboard().getBacklit() || laptop.getWeightKg() <= 1.5);
+
+        for (LaptopFilter compiled : List.of(LaptopFilter.Compile(filter), LaptopFilter.Compile(filter, laptops))) {
+            int matched = 0;
+            for (Laptop laptop : laptops) {
+                assertEquals(expected.test(laptop), compiled.Matches(laptop));
+                matched += compiled.Matches(laptop) ? 1 : 0;
+            }
+            assertTrue(matched > 0 && matched < laptops.size());
+        }
+    }
+
+    @Test
+    void weightInPoundsIsConvertedAndMissingWeightNeverMatches() {
+        Laptop pounds = new Generator(51).NewLaptop().toBuilder().setWeightLb(3).build();
+        Laptop unweighed = pounds.toBuilder().clearWeightLb().build();
+        LaptopFilter light = LaptopFilter.Compile(ANY_PRICE.toBuilder()
+                .setWhere(Condition.newBuilder().setWeightKg(Range.newBuilder().setMax(1.4))).build());
+        LaptopFilter weighed = LaptopFilter.Compile(ANY_PRICE.toBuilder()
+                .setWhere(Condition.newBuilder().setWeightKg(Range.getDefaultInstance())).build());
+
+        assertTrue(light.Matches(pounds));
+        assertFalse(light.Matches(unweighed));
+        assertTrue(weighed.Matches(pounds));
+        assertFalse(weighed.Matches(unweighed));
+    }
+
+    @Test
+    void malformedConditionsAreRejected() {
+        for (Condition condition : List.of(
+                Condition.getDefaultInstance(),
+                Condition.newBuilder().setAnyOf(Conditions.getDefaultInstance()).build(),
+                Condition.newBuilder().setBrand(StringMatch.getDefaultInstance()).build(),
+                Condition.newBuilder().setReleaseYear(Range.newBuilder().setMin(2019).setMax(2015)).build(),
+                Condition.newBuilder().setStorageTotal(StorageTotal.getDefaultInstance()).build(),
+                Condition.newBuilder().setAllOf(Conditions.newBuilder().addConditions(Condition.getDefaultInstance())).build())) {
+            Filter filter = ANY_PRICE.toBuilder().setWhere(condition).build();
+            IllegalArgumentException compiled = assertThrows(IllegalArgumentException.class, () -> LaptopFilter.Compile(filter));
+            IllegalArgumentException validated = assertThrows(IllegalArgumentException.class, () -> LaptopFilter.Validate(filter));
+            assertEquals(compiled.getMessage(), validated.getMessage());
+        }
+        LaptopFilter.Validate(ANY_PRICE.toBuilder().setWhere(Condition.newBuilder()
+                .setAnyOf(Conditions.newBuilder().addConditions(Condition.newBuilder().setKeyboardBacklit(true)))).build());
+    }
+
+    private static void assertConditionMatches(List<Laptop> laptops, Condition condition, Predicate<Laptop> expected) {
+        LaptopFilter compiled = LaptopFilter.Compile(ANY_PRICE.toBuilder().setWhere(condition).build(), laptops);
+        int matched = 0;
+        for (Laptop laptop : laptops) {
+            assertEquals(expected.test(laptop), compiled.Matches(laptop), condition::toString);
+            matched += expected.test(laptop) ? 1 : 0;
+        }
+        assertTrue(matched > 0 && matched < laptops.size(), () -> "no laptops tell " + condition + " apart");
+    }
+
+    private static List<Laptop> laptops(long seed, int count) {
+        Generator generator = new Generator(seed);
+        List<Laptop> laptops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            laptops.add(generator.NewLaptop());
+        }
+        return laptops;
+    }
+}
@@ -0,0 +1,115 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.*;
+import com.wong.grpc.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// GetLaptop, BatchGetLaptops and TopRatedLaptops against an in-process server
+class LaptopLookupTest {
+
+    private InMemoryLaptopStore laptopStore;
+    private InMemoryRatingStore ratingStore;
+    private LaptopServer server;
+    private ManagedChannel channel;
+    private LaptopServiceGrpc.LaptopServiceBlockingStub stub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        laptopStore = new InMemoryLaptopStore();
+        ratingStore = new InMemoryRatingStore();
+        server = new LaptopServer(InProcessServerBuilder.forName(serverName).directExecutor(), 0,
+                laptopStore, new DiskImageStore("tmp"), ratingStore);
+        server.start();
+        channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+        stub = LaptopServiceGrpc.newBlockingStub(channel);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        channel.shutdownNow();
+        server.stop();
+    }
+
+    @Test
+    void getLaptopOnlySendsChangedLaptops() throws Exception {
+        Laptop laptop = new Generator().NewLaptop();
+        laptopStore.Save(laptop);
+
+        GetLaptopResponse response = stub.getLaptop(GetLaptopRequest.newBuilder().setId(laptop.getId()).build());
+        assertEquals(laptop, response.getLaptop());
+        assertFalse(response.getNotModified());
+
+        response = stub.getLaptop(GetLaptopRequest.newBuilder()
+                .setId(laptop.getId())
+                .setKnownUpdatedAt(laptop.getUpdatedAt())
+                .build());
+        assertTrue(response.getNotModified());
+        assertFalse(response.hasLaptop());
+    }
+
+    @Test
+    void getLaptopWithAnUnknownID() {
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                () -> stub.getLaptop(GetLaptopRequest.newBuilder().setId("unknown").build()));
+        assertEquals(Status.Code.NOT_FOUND, e.getStatus().getCode());
+    }
+
+    @Test
+    void batchGetLaptops() throws Exception {
+        Generator generator = new Generator();
+        Laptop laptop1 = generator.NewLaptop();
+        Laptop laptop2 = generator.NewLaptop();
+        laptopStore.Save(laptop1);
+        laptopStore.Save(laptop2);
+
+        BatchGetLaptopsResponse response = stub.batchGetLaptops(BatchGetLaptopsRequest.newBuilder()
+                .addIds(laptop2.getId())
+                .addIds("unknown")
+                .addIds(laptop1.getId())
+                .build());
+
+        assertEquals(List.of(laptop2, laptop1), response.getLaptopsList());
+        assertEquals(List.of("unknown"), response.getMissingIdsList());
+    }
+
+    @Test
+    void batchGetLaptopsSendsALaptopOnceForMixedCaseIDs() throws Exception {
+        Laptop laptop = new Generator().NewLaptop();
+        laptopStore.Save(laptop);
+
+        BatchGetLaptopsResponse response = stub.batchGetLaptops(BatchGetLaptopsRequest.newBuilder()
+                .addIds(laptop.getId())
+                .addIds(laptop.getId().toUpperCase())
+                .build());
+
+        assertEquals(List.of(laptop), response.getLaptopsList());
+        assertEquals(0, response.getMissingIdsCount());
+    }
+
+    @Test
+    void topRatedLaptopsRejectsMinVotesAboveIntMax() throws Exception {
+        Laptop laptop = new Generator().NewLaptop();
+        laptopStore.Save(laptop);
+        ratingStore.Add(laptop.getId(), 9);
+
+        // 2^31 as a uint32
+        TopRatedLaptopsRequest request = TopRatedLaptopsRequest.newBuilder().setK(10).setMinVotes(Integer.MIN_VALUE).build();
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class, () -> stub.topRatedLaptops(request));
+        assertEquals(Status.Code.INVALID_ARGUMENT, e.getStatus().getCode());
+
+        TopRatedLaptopsResponse response = stub.topRatedLaptops(request.toBuilder().setMinVotes(1).build());
+        assertEquals(1, response.getRatingsCount());
+    }
+}
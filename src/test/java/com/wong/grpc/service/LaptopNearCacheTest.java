@@ -0,0 +1,116 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.sample.Generator;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaptopNearCacheTest {
+
+    @Test
+    void entriesAreEvictedLeastRecentlyUsedFirst() {
+        LaptopNearCache cache = new LaptopNearCache(2, 1, TimeUnit.MINUTES);
+        Generator generator = new Generator();
+        Laptop laptop1 = generator.NewLaptop();
+        Laptop laptop2 = generator.NewLaptop();
+        Laptop laptop3 = generator.NewLaptop();
+
+        cache.put(laptop1);
+        cache.put(laptop2);
+        assertSame(laptop1, cache.getFresh(laptop1.getId()));
+        cache.put(laptop3);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get(laptop2.getId()));
+        assertSame(laptop1, cache.get(laptop1.getId()));
+    }
+
+    @Test
+    void anySpellingOfAnIDFindsTheSameEntry() {
+        LaptopNearCache cache = new LaptopNearCache(2, 1, TimeUnit.MINUTES);
+        Laptop laptop = new Generator().NewLaptop();
+        String upper = laptop.getId().toUpperCase();
+
+        cache.put(laptop);
+        assertSame(laptop, cache.getFresh(upper));
+        assertSame(laptop, cache.get(upper));
+        assertEquals(1, cache.getHits());
+
+        cache.invalidate(upper);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void clientServesHotLaptopsFromTheCache() throws Exception {
+        CountingLaptopStore store = new CountingLaptopStore();
+        EmbeddedLaptopServer server = new EmbeddedLaptopServer(store, new DiskImageStore("tmp"), new InMemoryRatingStore());
+        server.start();
+        LaptopClient client = server.newClient();
+        try {
+            Generator generator = new Generator();
+            Laptop laptop1 = generator.NewLaptop();
+            Laptop laptop2 = generator.NewLaptop();
+            store.Save(laptop1);
+            store.Save(laptop2);
+
+            client.enableNearCache(100, 1, TimeUnit.MINUTES);
+            assertEquals(laptop1, client.getLaptop(laptop1.getId()));
+            assertEquals(laptop1, client.getLaptop(laptop1.getId()));
+            assertEquals(1, store.finds);
+
+            Map<String, Laptop> found = client.batchGetLaptops(List.of(laptop2.getId(), laptop1.getId(), "unknown"));
+            assertEquals(List.of(laptop2.getId(), laptop1.getId()), List.copyOf(found.keySet()));
+            assertEquals(2, store.finds);
+
+            // an expired entry is revalidated instead of fetched again
+            client.enableNearCache(100, 0, TimeUnit.SECONDS);
+            assertEquals(laptop1, client.getLaptop(laptop1.getId()));
+            assertEquals(laptop1, client.getLaptop(laptop1.getId()));
+            assertEquals(4, store.finds);
+        } finally {
+            client.shutdown();
+            server.stop();
+        }
+    }
+
+    @Test
+    void batchGetLaptopsKeysByTheRequestedIDs() throws Exception {
+        InMemoryLaptopStore store = new InMemoryLaptopStore();
+        EmbeddedLaptopServer server = new EmbeddedLaptopServer(store, new DiskImageStore("tmp"), new InMemoryRatingStore());
+        server.start();
+        LaptopClient client = server.newClient();
+        try {
+            Laptop laptop = new Generator().NewLaptop();
+            store.Save(laptop);
+            String upper = laptop.getId().toUpperCase();
+
+            Map<String, Laptop> found = client.batchGetLaptops(List.of(upper));
+            assertEquals(Map.of(upper, laptop), found);
+        } finally {
+            client.shutdown();
+            server.stop();
+        }
+    }
+
+    private static class CountingLaptopStore extends InMemoryLaptopStore {
+        private int finds;
+
+        @Override
+        public synchronized Laptop Find(String id) {
+            finds++;
+            return super.Find(id);
+        }
+
+        @Override
+        public synchronized Map<String, Laptop> FindAll(Collection<String> ids) {
+            finds++;
+            return super.FindAll(ids);
+        }
+    }
+}
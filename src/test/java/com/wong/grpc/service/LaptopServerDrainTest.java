@@ -0,0 +1,96 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.pb.LaptopServiceGrpc;
+import com.wong.grpc.pb.RateLaptopRequest;
+import com.wong.grpc.pb.RateLaptopResponse;
+import com.wong.grpc.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.health.v1.HealthCheckRequest;
+import io.grpc.health.v1.HealthCheckResponse;
+import io.grpc.health.v1.HealthGrpc;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// health reporting and graceful drain of LaptopServer, over an in-process server
+class LaptopServerDrainTest {
+
+    private InMemoryLaptopStore laptopStore;
+    private LaptopServer server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        laptopStore = new InMemoryLaptopStore();
+        server = new LaptopServer(InProcessServerBuilder.forName(serverName).directExecutor(), 0,
+                laptopStore, new DiskImageStore("tmp"), new InMemoryRatingStore());
+        server.start();
+        channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        channel.shutdownNow();
+        server.stop();
+    }
+
+    @Test
+    void healthServiceReportsServing() {
+        HealthGrpc.HealthBlockingStub stub = HealthGrpc.newBlockingStub(channel);
+        HealthCheckResponse response = stub.check(HealthCheckRequest.newBuilder()
+                .setService(LaptopServiceGrpc.SERVICE_NAME)
+                .build());
+        assertEquals(HealthCheckResponse.ServingStatus.SERVING, response.getStatus());
+    }
+
+    @Test
+    void drainCancelsStreamsStillOpenAfterTimeout() throws Exception {
+        Laptop laptop = new Generator().NewLaptop();
+        laptopStore.Save(laptop);
+        AtomicBoolean drained = new AtomicBoolean();
+        server.onDrain(() -> drained.set(true));
+
+        List<RateLaptopResponse> responses = new CopyOnWriteArrayList<>();
+        AtomicReference<Throwable> err = new AtomicReference<>();
+        StreamObserver<RateLaptopRequest> requests = LaptopServiceGrpc.newStub(channel)
+                .rateLaptop(new StreamObserver<RateLaptopResponse>() {
+                    @Override
+                    public void onNext(RateLaptopResponse response) {
+                        responses.add(response);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        err.set(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+        requests.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptop.getId()).setScore(9).build());
+        assertEquals(1, server.getInFlightCalls());
+
+        server.drain(100, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, responses.size());
+        assertNotNull(err.get());
+        assertEquals(Status.Code.UNAVAILABLE, Status.fromThrowable(err.get()).getCode());
+        assertEquals(0, server.getInFlightCalls());
+        assertTrue(drained.get());
+    }
+}
@@ -0,0 +1,281 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.*;
+import com.wong.grpc.sample.Generator;
+import io.grpc.*;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaptopWatchersTest {
+
+    @Test
+    void watchersGetExactlyTheLaptopsMatchingTheirFilter() throws Exception {
+        Random random = new Random(44);
+        LaptopWatchers watchers = new LaptopWatchers();
+        List<Filter> filters = new ArrayList<>();
+        List<RecordingStream> streams = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            Filter filter = Filter.newBuilder()
+                    .setMaxPriceUsd(1500 + random.nextInt(2000))
+                    .setMinCpuCores(random.nextInt(8))
+                    .setMinCpuGhz(random.nextDouble() * 3.5)
+                    .setMinRam(Memory.newBuilder().setValue(4 * random.nextInt(16)).setUnit(Memory.Unit.GIGABYTE))
+                    .build();
+            RecordingStream stream = new RecordingStream();
+            watchers.Subscribe(filter, stream);
+            filters.add(filter);
+            streams.add(stream);
+        }
+
+        Generator generator = new Generator(44);
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Laptop laptop = generator.NewLaptop();
+            laptops.add(laptop);
+            watchers.Publish(laptop);
+        }
+
+        long expectedTotal = 0;
+        for (int i = 0; i < filters.size(); i++) {
+            List<Laptop> expected = new ArrayList<>();
+            for (Laptop laptop : laptops) {
+                if (LaptopFilter.Compile(filters.get(i)).Matches(laptop)) {
+                    expected.add(laptop);
+                }
+            }
+            expectedTotal += expected.size();
+            assertEquals(expected, streams.get(i).await(expected.size()));
+        }
+        assertTrue(expectedTotal > 0);
+    }
+
+    @Test
+    void watchersComingAndGoingBetweenRebuildsGetExactlyTheirLaptops() throws Exception {
+        // never rebuilt after the first index, rebuilt on every Publish after a change
+        for (long interval : new long[]{TimeUnit.HOURS.toMillis(1), 0}) {
+            Random random = new Random(47);
+            LaptopWatchers watchers = new LaptopWatchers(LaptopWatchers.DEFAULT_QUEUE_CAPACITY, interval, TimeUnit.MILLISECONDS);
+            Generator generator = new Generator(47);
+            List<Filter> filters = new ArrayList<>();
+            List<RecordingStream> streams = new ArrayList<>();
+            Map<RecordingStream, List<Laptop>> expected = new HashMap<>();
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < 50; i++) {
+                    Filter filter = Filter.newBuilder()
+                            .setMaxPriceUsd(1500 + random.nextInt(2000))
+                            .setMinCpuCores(random.nextInt(8))
+                            .build();
+                    RecordingStream stream = new RecordingStream();
+                    watchers.Subscribe(filter, stream);
+                    filters.add(filter);
+                    streams.add(stream);
+                    expected.put(stream, new ArrayList<>());
+                }
+                for (int i = 0; i < 10; i++) {
+                    streams.get(random.nextInt(streams.size())).cancel();
+                }
+
+                for (int i = 0; i < 10; i++) {
+                    Laptop laptop = generator.NewLaptop();
+                    watchers.Publish(laptop);
+                    for (int w = 0; w < streams.size(); w++) {
+                        if (!streams.get(w).cancelled && LaptopFilter.Compile(filters.get(w)).Matches(laptop)) {
+                            expected.get(streams.get(w)).add(laptop);
+                        }
+                    }
+                }
+            }
+
+            long expectedTotal = 0;
+            for (RecordingStream stream : streams) {
+                if (!stream.cancelled) {
+                    expectedTotal += expected.get(stream).size();
+                    assertEquals(expected.get(stream), stream.await(expected.get(stream).size()));
+                }
+            }
+            // laptops queued before the cancel may or may not have been sent, none after it are
+            for (RecordingStream stream : streams) {
+                if (stream.cancelled) {
+                    List<Laptop> received = new ArrayList<>(stream.received);
+                    assertEquals(expected.get(stream).subList(0, received.size()), received);
+                }
+            }
+            assertTrue(expectedTotal > 0);
+            watchers.close();
+        }
+    }
+
+    @Test
+    void closeStopsTheSenderThreads() throws Exception {
+        long before = senderThreads();
+        LaptopWatchers watchers = new LaptopWatchers();
+        RecordingStream stream = new RecordingStream();
+        watchers.Subscribe(Filter.newBuilder().setMaxPriceUsd(1e9).build(), stream);
+        Laptop laptop = new Generator(45).NewLaptop();
+        watchers.Publish(laptop);
+        assertEquals(List.of(laptop), stream.await(1));
+
+        watchers.close();
+        assertTrue(stream.closed.await(5, TimeUnit.SECONDS));
+        // dropped, not rejected
+        watchers.Publish(new Generator(46).NewLaptop());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (senderThreads() > before && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(before, senderThreads());
+    }
+
+    @Test
+    void slowWatcherIsEndedWhenItsQueueOverflows() throws Exception {
+        LaptopWatchers watchers = new LaptopWatchers(4);
+        RecordingStream slow = new RecordingStream();
+        slow.ready = false;
+        watchers.Subscribe(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build(), slow);
+
+        Generator generator = new Generator(45);
+        for (int i = 0; i < 5; i++) {
+            watchers.Publish(generator.NewLaptop());
+        }
+
+        assertTrue(slow.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(slow.error).getCode());
+        assertEquals(0, watchers.getWatcherCount());
+    }
+
+    @Test
+    void watchLaptopsStreamsNewMatchingLaptops(@TempDir Path dir) throws Exception {
+        LaptopServer server = new LaptopServer(ServerBuilder.forPort(0), 0,
+                new InMemoryLaptopStore(), new DiskImageStore(dir.toString()), new InMemoryRatingStore());
+        server.start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        try {
+            LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+            Filter cheap = Filter.newBuilder().setMaxPriceUsd(2000).build();
+            Context.CancellableContext ctx = Context.current().withCancellation();
+            Iterator<WatchLaptopsResponse> watch = ctx.call(() ->
+                    stub.watchLaptops(WatchLaptopsRequest.newBuilder().setFilter(cheap).build()));
+            // the watch is registered once the server has the call, which a first create request can't overtake
+            waitForWatchers(server);
+
+            Generator generator = new Generator(46);
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                Laptop laptop = generator.NewLaptop();
+                stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(laptop).build());
+                if (laptop.getPriceUsd() <= 2000) {
+                    expected.add(laptop.getId());
+                }
+            }
+
+            List<String> received = new ArrayList<>();
+            while (received.size() < expected.size()) {
+                received.add(watch.next().getLaptop().getId());
+            }
+            assertEquals(expected, received);
+            ctx.cancel(null);
+        } finally {
+            channel.shutdownNow();
+            server.stop();
+        }
+    }
+
+    private static long senderThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("laptop-watchers"))
+                .count();
+    }
+
+    private static void waitForWatchers(LaptopServer server) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getWatcherCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, server.getWatcherCount());
+    }
+
+    private static class RecordingStream extends ServerCallStreamObserver<WatchLaptopsResponse> {
+        private final List<Laptop> received = new CopyOnWriteArrayList<>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private volatile boolean ready = true;
+        private volatile boolean cancelled;
+        private volatile Runnable onCancel;
+        private volatile Throwable error;
+
+        // what the transport does when the client cancels
+        void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                onCancel.run();
+            }
+        }
+
+        List<Laptop> await(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (received.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            return new ArrayList<>(received);
+        }
+
+        @Override
+        public void onNext(WatchLaptopsResponse value) {
+            received.add(value.getLaptop());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            closed.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            closed.countDown();
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {
+            onCancel = onCancelHandler;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+        }
+
+        @Override
+        public void setCompression(String compression) {
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+
+        @Override
+        public void setMessageCompression(boolean enable) {
+        }
+    }
+}
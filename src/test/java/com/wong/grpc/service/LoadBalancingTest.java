@@ -0,0 +1,177 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.LaptopServiceGrpc;
+import com.wong.grpc.sample.Generator;
+import io.grpc.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadBalancingTest {
+
+    private static final int SERVERS = 3;
+
+    private List<LaptopServer> servers;
+    private List<CountingLaptopStore> stores;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        servers = new ArrayList<>();
+        stores = new ArrayList<>();
+        for (int i = 0; i < SERVERS; i++) {
+            CountingLaptopStore store = new CountingLaptopStore();
+            LaptopServer server = new LaptopServer(0, store, new DiskImageStore("tmp"), new InMemoryRatingStore());
+            server.start();
+            servers.add(server);
+            stores.add(store);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (LaptopServer server : servers) {
+            server.stop();
+        }
+    }
+
+    private String endpoints(String separator) {
+        return servers.stream().map(s -> "localhost:" + s.getPort()).collect(Collectors.joining(separator));
+    }
+
+    private void createLaptops(LaptopClient client, int n) throws InterruptedException {
+        Generator generator = new Generator();
+        try {
+            for (int i = 0; i < n; i++) {
+                client.createLaptop(generator.NewLaptop());
+            }
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    void roundRobinUsesEveryServer() throws Exception {
+        createLaptops(new LaptopClient("static:///" + endpoints(","), "round_robin"), 30);
+
+        assertEquals(30, stores.stream().mapToInt(s -> s.saved).sum());
+        for (CountingLaptopStore store : stores) {
+            assertTrue(store.saved > 0);
+        }
+    }
+
+    @Test
+    void weightedLeastRequestUsesEveryEndpointFromFile(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("endpoints.txt");
+        Files.writeString(file, "# laptop servers\n" + endpoints(";weight=2\n") + ";weight=2\n");
+
+        createLaptops(new LaptopClient(file.toUri().toString(), WeightedLeastRequestLoadBalancerProvider.POLICY_NAME), 60);
+
+        assertEquals(60, stores.stream().mapToInt(s -> s.saved).sum());
+        for (CountingLaptopStore store : stores) {
+            assertTrue(store.saved > 0);
+        }
+    }
+
+    @Test
+    void trafficIsSplitByWeight() throws Exception {
+        String target = "static:///localhost:" + servers.get(0).getPort() + ";weight=1,localhost:"
+                + servers.get(1).getPort() + ";weight=1,localhost:" + servers.get(2).getPort() + ";weight=4";
+        createLaptops(new LaptopClient(target, WeightedLeastRequestLoadBalancerProvider.POLICY_NAME), 300);
+
+        // about 50, 50 and 200
+        assertEquals(300, stores.stream().mapToInt(s -> s.saved).sum());
+        assertTrue(stores.get(0).saved > 0 && stores.get(1).saved > 0);
+        assertTrue(stores.get(2).saved > 150, "saved on the heavy endpoint: " + stores.get(2).saved);
+    }
+
+    @Test
+    void failingServerIsEjected() throws Exception {
+        // server 0 is replaced by one that fails every LaptopService call but still answers health checks
+        AtomicInteger rejected = new AtomicInteger();
+        servers.get(0).stop();
+        LaptopServer failing = new LaptopServer(LaptopServer.newServerBuilder(0).intercept(new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                if (!call.getMethodDescriptor().getServiceName().equals(LaptopServiceGrpc.SERVICE_NAME)) {
+                    return next.startCall(call, headers);
+                }
+                rejected.incrementAndGet();
+                call.close(Status.UNAVAILABLE.withDescription("failing on purpose"), new Metadata());
+                return new ServerCall.Listener<>() {
+                };
+            }
+        }), 0, stores.get(0), new DiskImageStore("tmp"), new InMemoryRatingStore());
+        failing.start();
+        servers.set(0, failing);
+
+        ManagedChannel channel = ManagedChannelBuilder.forTarget("static:///" + endpoints(","))
+                .usePlaintext()
+                .defaultServiceConfig(LaptopClient.loadBalancingConfig("round_robin", "0.2s"))
+                .build();
+        LaptopClient client = new LaptopClient(channel);
+        Generator generator = new Generator();
+        try {
+            // send until a whole round no longer reaches the failing server
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            int before;
+            do {
+                assertTrue(System.nanoTime() < deadline, "the failing server was never ejected");
+                before = rejected.get();
+                for (int i = 0; i < 30; i++) {
+                    client.createLaptop(generator.NewLaptop());
+                }
+                Thread.sleep(200);
+            } while (rejected.get() != before);
+            assertTrue(before > 0);
+
+            int saved = stores.get(1).saved + stores.get(2).saved;
+            for (int i = 0; i < 30; i++) {
+                client.createLaptop(generator.NewLaptop());
+            }
+            assertEquals(before, rejected.get());
+            assertEquals(saved + 30, stores.get(1).saved + stores.get(2).saved);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    void stoppedServerIsRoutedAround() throws Exception {
+        String target = "static:///" + endpoints(",");
+        servers.get(0).stop();
+        createLaptops(new LaptopClient(target, WeightedLeastRequestLoadBalancerProvider.POLICY_NAME), 20);
+
+        assertEquals(0, stores.get(0).saved);
+        assertEquals(20, stores.get(1).saved + stores.get(2).saved);
+    }
+
+    private static class CountingLaptopStore extends InMemoryLaptopStore {
+        private volatile int saved;
+
+        @Override
+        public synchronized void Save(com.wong.grpc.pb.Laptop laptop) throws Exception {
+            super.Save(laptop);
+            saved++;
+        }
+    }
+
+    @Test
+    void parseEndpoints() {
+        assertEquals(2, EndpointNameResolver.parse("localhost:1, localhost:2;weight=3\n# comment").size());
+        assertEquals(3, EndpointNameResolver.parse("localhost:2;weight=3").get(0).getAttributes().get(EndpointNameResolver.WEIGHT));
+        assertThrows(IllegalArgumentException.class, () -> EndpointNameResolver.parse("localhost"));
+        assertThrows(IllegalArgumentException.class, () -> EndpointNameResolver.parse("localhost:1;weight=0"));
+    }
+}
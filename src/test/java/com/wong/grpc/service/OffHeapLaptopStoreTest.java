@@ -0,0 +1,88 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Condition;
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.pb.Memory;
+import com.wong.grpc.sample.Generator;
+import io.grpc.Context;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapLaptopStoreTest {
+
+    @Test
+    void storesAndSearchesLikeTheHeapStore() throws Exception {
+        // small arenas, so the laptops spread over many of them
+        OffHeapLaptopStore store = new OffHeapLaptopStore(64 * 1024);
+        InMemoryLaptopStore reference = new InMemoryLaptopStore();
+        Generator generator = new Generator(47);
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            Laptop laptop = generator.NewLaptop();
+            store.Save(laptop);
+            reference.Save(laptop);
+            laptops.add(laptop);
+        }
+
+        assertEquals(2_000, store.size());
+        assertTrue(store.getReservedBytes() > 64 * 1024);
+        assertEquals(laptops.get(1234), store.Find(laptops.get(1234).getId()));
+        assertNull(store.Find(UUID.randomUUID().toString()));
+        assertThrows(AlreadyExistsException.class, () -> store.Save(laptops.get(0)));
+        assertEquals(List.of(laptops.get(5).getId(), laptops.get(3).getId()),
+                new ArrayList<>(store.FindAll(List.of(laptops.get(5).getId(), "missing", laptops.get(3).getId())).keySet()));
+
+        for (Filter filter : List.of(
+                Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build(),
+                Filter.newBuilder().setMaxPriceUsd(2500).setMinCpuCores(4).setMinCpuGhz(2.5)
+                        .setMinRam(Memory.newBuilder().setValue(16).setUnit(Memory.Unit.GIGABYTE)).build(),
+                Filter.newBuilder().setMaxPriceUsd(3000).setWhere(Condition.newBuilder()
+                        .setKeyboardBacklit(true)).build())) {
+            assertEquals(search(reference, filter), search(store, filter));
+        }
+    }
+
+    @Test
+    void replacedLaptopsReuseTheirSpace() throws Exception {
+        OffHeapLaptopStore store = new OffHeapLaptopStore(64 * 1024);
+        Generator generator = new Generator(48);
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Laptop laptop = generator.NewLaptop();
+            store.Save(laptop);
+            laptops.add(laptop);
+        }
+        long used = store.getUsedBytes();
+        long reserved = store.getReservedBytes();
+
+        // same size: rewritten in place, a longer name: moved to a slot of the next size
+        for (int round = 0; round < 3; round++) {
+            for (Laptop laptop : laptops) {
+                store.Replace(laptop.toBuilder().setPriceUsd(laptop.getPriceUsd() + 1).build());
+            }
+        }
+        for (Laptop laptop : laptops) {
+            store.Replace(laptop.toBuilder().setName(laptop.getName() + " with a much longer name than before").build());
+        }
+        for (Laptop laptop : laptops) {
+            store.Replace(laptop);
+        }
+
+        assertEquals(used, store.getUsedBytes());
+        // the second size only needed one more set of slots, after that the freed ones were reused
+        assertTrue(store.getReservedBytes() <= 2 * reserved + 64 * 1024, store.getReservedBytes() + " > " + reserved);
+        for (Laptop laptop : laptops) {
+            assertEquals(laptop, store.Find(laptop.getId()));
+        }
+    }
+
+    private static Set<Laptop> search(LaptopStore store, Filter filter) {
+        Set<Laptop> found = new HashSet<>();
+        store.Search(Context.ROOT, filter, found::add);
+        return found;
+    }
+}
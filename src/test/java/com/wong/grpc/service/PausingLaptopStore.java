@@ -0,0 +1,56 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import io.grpc.Context;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// delegates to another store, but stalls for pauseMillis on a share of the reads like a node in a GC pause
+class PausingLaptopStore implements LaptopStore {
+    private final LaptopStore store;
+    private final double pauseProbability;
+    private final long pauseMillis;
+
+    PausingLaptopStore(LaptopStore store, double pauseProbability, long pauseMillis) {
+        this.store = store;
+        this.pauseProbability = pauseProbability;
+        this.pauseMillis = pauseMillis;
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        store.Save(laptop);
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        pause();
+        return store.Find(id);
+    }
+
+    @Override
+    public Map<String, Laptop> FindAll(Collection<String> ids) {
+        pause();
+        return store.FindAll(ids);
+    }
+
+    @Override
+    public void Search(Context ctx, Filter filter, LaptopStream stream) {
+        pause();
+        store.Search(ctx, filter, stream);
+    }
+
+    private void pause() {
+        if (ThreadLocalRandom.current().nextDouble() < pauseProbability) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.*;
+import com.wong.grpc.sample.Generator;
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationTest {
+
+    private static final Filter ALL = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+
+    @TempDir
+    Path dir;
+
+    private final List<LaptopServer> servers = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private final List<ReplicationFollower> followers = new ArrayList<>();
+    private ReplicationService replication;
+    private InMemoryRatingStore leaderRatings;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        for (ReplicationFollower follower : followers) {
+            follower.stop();
+        }
+        if (replication != null) {
+            replication.close();
+        }
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow();
+        }
+        for (LaptopServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    void replicasServeTheLeadersWrites() throws Exception {
+        ReplicationLog log = new ReplicationLog();
+        LaptopServiceGrpc.LaptopServiceBlockingStub leader = startLeader(log);
+        InMemoryLaptopStore replicaLaptops = new InMemoryLaptopStore();
+        InMemoryRatingStore replicaRatings = new InMemoryRatingStore();
+        ReplicationFollower follower = follow(replicaLaptops, replicaRatings);
+        LaptopServiceGrpc.LaptopServiceBlockingStub replica = startReplica(replicaLaptops, replicaRatings);
+
+        List<Laptop> laptops = create(leader, 1_500);
+        rate(leader, laptops.subList(0, 10));
+
+        assertTrue(follower.awaitSequence(log.getLastSequence(), 10, TimeUnit.SECONDS));
+        assertEquals(log.getLastSequence(), follower.getLastSequence());
+        assertEquals(laptops.get(42), replica.getLaptop(GetLaptopRequest.newBuilder().setId(laptops.get(42).getId()).build()).getLaptop());
+        assertEquals(new HashSet<>(laptops), search(replica));
+        assertVotes(replicaRatings, laptops.subList(0, 10), 1);
+    }
+
+    @Test
+    void onlyCastVotesCountForTheReplicasRecentWindows() throws Exception {
+        ReplicationLog log = new ReplicationLog();
+        LaptopServiceGrpc.LaptopServiceBlockingStub leader = startLeader(log);
+        InMemoryRatingStore replicaRatings = new InMemoryRatingStore();
+        ReplicationFollower follower = follow(new InMemoryLaptopStore(), replicaRatings);
+        List<Laptop> laptops = create(leader, 2);
+
+        // a preload restores a total of a single vote, which is no vote cast now
+        new ReplicatedRatingStore(new InMemoryRatingStore(), log).Add(laptops.get(0).getId(), new Rating(1, 4));
+        rate(leader, laptops.subList(1, 2));
+        assertTrue(follower.awaitSequence(log.getLastSequence(), 10, TimeUnit.SECONDS));
+
+        assertVotes(replicaRatings, laptops, 1);
+        assertEquals(0, replicaRatings.Find(laptops.get(0).getId(), RatingWindow.HOUR).getCount());
+        assertEquals(1, replicaRatings.Find(laptops.get(1).getId(), RatingWindow.HOUR).getCount());
+    }
+
+    @Test
+    void lateFollowerCatchesUpFromASnapshot() throws Exception {
+        // the log only keeps the last few writes, the follower joins long after
+        ReplicationLog log = new ReplicationLog(16);
+        LaptopServiceGrpc.LaptopServiceBlockingStub leader = startLeader(log);
+        List<Laptop> laptops = create(leader, 1_200);
+        rate(leader, laptops.subList(0, 20));
+        rate(leader, laptops.subList(0, 20));
+        assertTrue(log.getFirstSequence() > 1);
+
+        InMemoryLaptopStore replicaLaptops = new InMemoryLaptopStore();
+        InMemoryRatingStore replicaRatings = new InMemoryRatingStore();
+        ReplicationFollower follower = follow(replicaLaptops, replicaRatings);
+        assertTrue(follower.awaitSequence(log.getLastSequence(), 10, TimeUnit.SECONDS));
+
+        // writes after the snapshot come from the log again
+        List<Laptop> more = create(leader, 5);
+        rate(leader, laptops.subList(0, 20));
+        assertTrue(follower.awaitSequence(log.getLastSequence(), 10, TimeUnit.SECONDS));
+
+        Set<Laptop> found = new HashSet<>();
+        replicaLaptops.Search(Context.ROOT, ALL, found::add);
+        Set<Laptop> expected = new HashSet<>(laptops);
+        expected.addAll(more);
+        assertEquals(expected, found);
+        assertVotes(replicaRatings, laptops.subList(0, 20), 3);
+    }
+
+    @Test
+    void snapshotTakenDuringVotesCountsEachVoteOnce() throws Exception {
+        ReplicationLog log = new ReplicationLog(16);
+        LaptopServiceGrpc.LaptopServiceBlockingStub leader = startLeader(log);
+        List<Laptop> laptops = create(leader, 200);
+        rate(leader, laptops);
+
+        // votes keep coming while the follower joins and reads the snapshot from the stores
+        CompletableFuture<Void> voting = CompletableFuture.runAsync(() -> {
+            try {
+                for (int round = 0; round < 5; round++) {
+                    rate(leader, laptops);
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        InMemoryRatingStore replicaRatings = new InMemoryRatingStore();
+        ReplicationFollower follower = follow(new InMemoryLaptopStore(), replicaRatings);
+        voting.get(30, TimeUnit.SECONDS);
+
+        assertTrue(follower.awaitSequence(log.getLastSequence(), 10, TimeUnit.SECONDS));
+        for (Laptop laptop : laptops) {
+            assertEquals(leaderRatings.Find(laptop.getId()).getCount(), replicaRatings.Find(laptop.getId()).getCount());
+        }
+        assertVotes(replicaRatings, laptops, 6);
+    }
+
+    @Test
+    void followerReconnectsWhereItStopped() throws Exception {
+        ReplicationLog log = new ReplicationLog();
+        LaptopServiceGrpc.LaptopServiceBlockingStub leader = startLeader(log);
+        InMemoryLaptopStore replicaLaptops = new InMemoryLaptopStore();
+        InMemoryRatingStore replicaRatings = new InMemoryRatingStore();
+        ReplicationFollower first = follow(replicaLaptops, replicaRatings);
+        List<Laptop> laptops = create(leader, 50);
+        rate(leader, laptops);
+        assertTrue(first.awaitSequence(log.getLastSequence(), 10, TimeUnit.SECONDS));
+        first.stop();
+
+        rate(leader, laptops);
+        ReplicationFollower second = new ReplicationFollower(channels.get(0), replicaLaptops, replicaRatings,
+                first.getLastSequence());
+        followers.add(second);
+        second.start();
+        assertTrue(second.awaitSequence(log.getLastSequence(), 10, TimeUnit.SECONDS));
+        // votes are not idempotent, any write applied twice or skipped shows in the counts
+        assertVotes(replicaRatings, laptops, 2);
+    }
+
+    @Test
+    void replicasRejectWrites() throws Exception {
+        ReplicationLog log = new ReplicationLog();
+        LaptopServiceGrpc.LaptopServiceBlockingStub leader = startLeader(log);
+        InMemoryLaptopStore replicaLaptops = new InMemoryLaptopStore();
+        InMemoryRatingStore replicaRatings = new InMemoryRatingStore();
+        ReplicationFollower follower = follow(replicaLaptops, replicaRatings);
+        LaptopServiceGrpc.LaptopServiceBlockingStub replica = startReplica(replicaLaptops, replicaRatings);
+        List<Laptop> laptops = create(leader, 1);
+        assertTrue(follower.awaitSequence(log.getLastSequence(), 10, TimeUnit.SECONDS));
+
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class, () -> create(replica, 1));
+        assertEquals(Status.Code.FAILED_PRECONDITION, e.getStatus().getCode());
+        CompletableFuture<Status> rated = new CompletableFuture<>();
+        StreamObserver<RateLaptopRequest> requests = LaptopServiceGrpc.newStub(replica.getChannel())
+                .rateLaptop(new StreamObserver<RateLaptopResponse>() {
+                    @Override
+                    public void onNext(RateLaptopResponse response) {
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        rated.complete(Status.fromThrowable(t));
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        rated.complete(Status.OK);
+                    }
+                });
+        requests.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptops.get(0).getId()).setScore(4).build());
+        requests.onCompleted();
+        assertEquals(Status.Code.FAILED_PRECONDITION, rated.get(10, TimeUnit.SECONDS).getCode());
+
+        assertEquals(Set.copyOf(laptops), search(replica));
+        assertNull(replicaRatings.Find(laptops.get(0).getId()));
+    }
+
+    @Test
+    void replicaWatchersSeeTheLeadersCreates() throws Exception {
+        ReplicationLog log = new ReplicationLog();
+        LaptopServiceGrpc.LaptopServiceBlockingStub leader = startLeader(log);
+        InMemoryLaptopStore replicaLaptops = new InMemoryLaptopStore();
+        InMemoryRatingStore replicaRatings = new InMemoryRatingStore();
+        LaptopServiceGrpc.LaptopServiceBlockingStub replica = startReplica(replicaLaptops, replicaRatings);
+        LaptopServer replicaServer = servers.get(servers.size() - 1);
+        ReplicationFollower follower = new ReplicationFollower(channels.get(0), replicaLaptops, replicaRatings,
+                replicaServer.getWatchers(), 0);
+        followers.add(follower);
+        follower.start();
+
+        Iterator<WatchLaptopsResponse> watched = replica.withDeadlineAfter(10, TimeUnit.SECONDS)
+                .watchLaptops(WatchLaptopsRequest.newBuilder().setFilter(ALL).build());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (replicaServer.getWatcherCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        List<Laptop> laptops = create(leader, 3);
+        Set<Laptop> seen = new HashSet<>();
+        for (int i = 0; i < laptops.size(); i++) {
+            seen.add(watched.next().getLaptop());
+        }
+        assertEquals(Set.copyOf(laptops), seen);
+    }
+
+    private LaptopServiceGrpc.LaptopServiceBlockingStub startLeader(ReplicationLog log) throws Exception {
+        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
+        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        leaderRatings = ratingStore;
+        replication = new ReplicationService(log, laptopStore, ratingStore);
+        ServerBuilder<?> serverBuilder = ServerBuilder.forPort(0).addService(replication);
+        return start(new LaptopServer(serverBuilder, 0,
+                new ReplicatedLaptopStore(laptopStore, log), new DiskImageStore(dir.toString()),
+                new ReplicatedRatingStore(ratingStore, log)));
+    }
+
+    private LaptopServiceGrpc.LaptopServiceBlockingStub startReplica(LaptopStore laptopStore, RatingStore ratingStore)
+            throws Exception {
+        ServerBuilder<?> serverBuilder = ServerBuilder.forPort(0).intercept(new ReadReplicaInterceptor("leader"));
+        return start(new LaptopServer(serverBuilder, 0, laptopStore, new DiskImageStore(dir.toString()), ratingStore));
+    }
+
+    private LaptopServiceGrpc.LaptopServiceBlockingStub start(LaptopServer server) throws Exception {
+        server.start();
+        servers.add(server);
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        channels.add(channel);
+        return LaptopServiceGrpc.newBlockingStub(channel);
+    }
+
+    private ReplicationFollower follow(LaptopStore laptopStore, RatingStore ratingStore) {
+        // the leader is the first server started
+        ReplicationFollower follower = new ReplicationFollower(channels.get(0), laptopStore, ratingStore);
+        follower.start();
+        followers.add(follower);
+        return follower;
+    }
+
+    private static List<Laptop> create(LaptopServiceGrpc.LaptopServiceBlockingStub leader, int count) {
+        Generator generator = new Generator();
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Laptop laptop = generator.NewLaptop();
+            leader.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(laptop).build());
+            laptops.add(laptop);
+        }
+        return laptops;
+    }
+
+    // every laptop gets one vote of 4
+    private static void rate(LaptopServiceGrpc.LaptopServiceBlockingStub leader, List<Laptop> laptops) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        StreamObserver<RateLaptopRequest> requests = LaptopServiceGrpc.newStub(leader.getChannel())
+                .rateLaptop(new StreamObserver<RateLaptopResponse>() {
+                    @Override
+                    public void onNext(RateLaptopResponse response) {
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        fail(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        done.countDown();
+                    }
+                });
+        for (Laptop laptop : laptops) {
+            requests.onNext(RateLaptopRequest.newBuilder().setLaptopId(laptop.getId()).setScore(4).build());
+        }
+        requests.onCompleted();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    private static void assertVotes(RatingStore ratings, List<Laptop> laptops, int votes) {
+        for (Laptop laptop : laptops) {
+            Rating rating = ratings.Find(laptop.getId());
+            assertNotNull(rating, laptop.getId());
+            assertEquals(votes, rating.getCount());
+            assertEquals(4.0 * votes, rating.getSum(), 1e-9);
+        }
+    }
+
+    private static Set<Laptop> search(LaptopServiceGrpc.LaptopServiceBlockingStub replica) {
+        Set<Laptop> found = new HashSet<>();
+        replica.searchLaptop(SearchLaptopRequest.newBuilder().setFilter(ALL).build())
+                .forEachRemaining(response -> found.add(response.getLaptop()));
+        return found;
+    }
+}
@@ -0,0 +1,73 @@
+package com.wong.grpc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowBitmapTest {
+
+    @Test
+    void andAndOrAgreeWithBitSetAcrossContainerKinds() {
+        Random random = new Random(50);
+        // sparse groups stay arrays, dense ones turn into bitmaps, and some groups only one side has
+        double[] densities = {0.001, 0.05, 0.5};
+        for (double x : densities) {
+            for (double y : densities) {
+                BitSet xRows = new BitSet();
+                BitSet yRows = new BitSet();
+                RowBitmap a = bitmap(random, x, xRows, 0);
+                RowBitmap b = bitmap(random, y, yRows, 65_536);
+
+                BitSet and = (BitSet) xRows.clone();
+                and.and(yRows);
+                BitSet or = (BitSet) xRows.clone();
+                or.or(yRows);
+                assertEquals(and, toBitSet(RowBitmap.and(a, b)));
+                assertEquals(or, toBitSet(RowBitmap.or(a, b)));
+                assertEquals(xRows, toBitSet(a));
+                assertEquals(xRows, toBitSet(a.copy()));
+                assertEquals(xRows.cardinality(), a.size());
+            }
+        }
+    }
+
+    @Test
+    void rowsAddedOutOfOrderAreKeptSortedOnce() {
+        RowBitmap bitmap = new RowBitmap();
+        for (int row : new int[]{70_000, 5, 3, 5, 200_000, 4, 70_000}) {
+            bitmap.add(row);
+        }
+        List<Integer> rows = new ArrayList<>();
+        assertTrue(bitmap.forEach(rows::add));
+        assertEquals(List.of(3, 4, 5, 70_000, 200_000), rows);
+        assertTrue(bitmap.contains(70_000));
+        assertFalse(bitmap.contains(70_001));
+
+        List<Integer> firstTwo = new ArrayList<>();
+        assertFalse(bitmap.forEach(row -> firstTwo.add(row) && firstTwo.size() < 2));
+        assertEquals(List.of(3, 4), firstTwo);
+    }
+
+    // rows from start on in ascending order, like a store adds them
+    private static RowBitmap bitmap(Random random, double density, BitSet rows, int start) {
+        RowBitmap bitmap = new RowBitmap();
+        for (int row = start; row < start + 300_000; row++) {
+            if (random.nextDouble() < density) {
+                bitmap.add(row);
+                rows.set(row);
+            }
+        }
+        return bitmap;
+    }
+
+    private static BitSet toBitSet(RowBitmap bitmap) {
+        BitSet rows = new BitSet();
+        bitmap.forEach(row -> {
+            rows.set(row);
+            return true;
+        });
+        return rows;
+    }
+}
@@ -0,0 +1,197 @@
+package com.wong.grpc.service;
+
+import com.wong.grpc.pb.Filter;
+import com.wong.grpc.pb.Laptop;
+import com.wong.grpc.pb.LaptopServiceGrpc;
+import com.wong.grpc.pb.SearchLaptopRequest;
+import com.wong.grpc.pb.SearchLaptopResponse;
+import com.wong.grpc.sample.Generator;
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedLaptopStoreTest {
+
+    private static final Filter ALL = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+    private static final Filter CHEAP = Filter.newBuilder().setMaxPriceUsd(1700).setMinCpuCores(4).build();
+
+    @Test
+    void localShardsShareTheCatalog() throws Exception {
+        List<InMemoryLaptopStore> shards = List.of(
+                new InMemoryLaptopStore(), new InMemoryLaptopStore(), new InMemoryLaptopStore(), new InMemoryLaptopStore());
+        ShardedLaptopStore store = new ShardedLaptopStore(shards);
+        InMemoryLaptopStore reference = new InMemoryLaptopStore();
+        List<Laptop> laptops = save(4_000, store, reference);
+
+        Map<String, Integer> perShard = new HashMap<>();
+        for (Laptop laptop : laptops) {
+            assertEquals(laptop, store.Find(laptop.getId()));
+            perShard.merge(store.shardOf(laptop.getId()), 1, Integer::sum);
+        }
+        for (int count : perShard.values()) {
+            assertTrue(count > 600 && count < 1400, "uneven shards: " + perShard);
+        }
+
+        List<String> ids = List.of(laptops.get(3).getId(), "missing", laptops.get(1).getId());
+        assertEquals(List.of(laptops.get(3).getId(), laptops.get(1).getId()), new ArrayList<>(store.FindAll(ids).keySet()));
+
+        assertEquals(search(reference, ALL), search(store, ALL));
+        assertEquals(search(reference, CHEAP), search(store, CHEAP));
+    }
+
+    @Test
+    void upperCaseIDsFindTheLaptopOnItsShard() throws Exception {
+        ShardedLaptopStore store = new ShardedLaptopStore(List.of(
+                new InMemoryLaptopStore(), new InMemoryLaptopStore(), new InMemoryLaptopStore(), new InMemoryLaptopStore()));
+        List<Laptop> laptops = save(200, store);
+
+        for (Laptop laptop : laptops) {
+            String upper = laptop.getId().toUpperCase(Locale.ROOT);
+            assertEquals(store.shardOf(laptop.getId()), store.shardOf(upper));
+            assertEquals(laptop, store.Find(upper));
+            assertThrows(AlreadyExistsException.class, () -> store.Save(laptop.toBuilder().setId(upper).build()));
+        }
+        String upper = laptops.get(5).getId().toUpperCase(Locale.ROOT);
+        assertEquals(Map.of(upper, laptops.get(5)), store.FindAll(List.of(upper)));
+    }
+
+    @Test
+    void remoteShardsOnSeveralServers(@TempDir Path dir) throws Exception {
+        List<LaptopServer> servers = new ArrayList<>();
+        List<ManagedChannel> channels = new ArrayList<>();
+        List<InMemoryLaptopStore> nodeStores = new ArrayList<>();
+        Map<String, LaptopStore> shards = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                InMemoryLaptopStore nodeStore = new InMemoryLaptopStore();
+                LaptopServer server = new LaptopServer(ServerBuilder.forPort(0), 0,
+                        nodeStore, new DiskImageStore(dir.toString()), new InMemoryRatingStore());
+                server.start();
+                ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+                servers.add(server);
+                channels.add(channel);
+                nodeStores.add(nodeStore);
+                shards.put("localhost:" + server.getPort(), new RemoteLaptopStore(channel));
+            }
+
+            ShardedLaptopStore store = new ShardedLaptopStore(shards);
+            InMemoryLaptopStore reference = new InMemoryLaptopStore();
+            List<Laptop> laptops = save(300, store, reference);
+
+            for (InMemoryLaptopStore nodeStore : nodeStores) {
+                assertFalse(search(nodeStore, ALL).isEmpty());
+            }
+            assertEquals(laptops.get(7), store.Find(laptops.get(7).getId()));
+            String upper = laptops.get(7).getId().toUpperCase(Locale.ROOT);
+            assertEquals(Map.of(upper, laptops.get(7)), store.FindAll(List.of(upper)));
+            assertNull(store.Find(UUID.randomUUID().toString()));
+            assertThrows(AlreadyExistsException.class, () -> store.Save(laptops.get(0)));
+            assertEquals(search(reference, ALL), search(store, ALL));
+            assertEquals(search(reference, CHEAP), search(store, CHEAP));
+        } finally {
+            for (ManagedChannel channel : channels) {
+                channel.shutdownNow();
+            }
+            for (LaptopServer server : servers) {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    void cancellingTheCallerStopsEveryShard() throws Exception {
+        CountDownLatch stopped = new CountDownLatch(3);
+        Laptop laptop = new Generator().NewLaptop();
+        LaptopStore endless = new InMemoryLaptopStore() {
+            @Override
+            public void Search(Context ctx, Filter filter, LaptopStream stream) {
+                while (!ctx.isCancelled()) {
+                    stream.Send(laptop);
+                }
+                stopped.countDown();
+            }
+        };
+        ShardedLaptopStore store = new ShardedLaptopStore(List.of(endless, endless, endless));
+
+        Context.CancellableContext ctx = Context.current().withCancellation();
+        int[] received = new int[1];
+        store.Search(ctx, ALL, found -> {
+            if (++received[0] == 100) {
+                ctx.cancel(null);
+            }
+        });
+
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failingShardFailsTheSearch() throws Exception {
+        CountDownLatch stopped = new CountDownLatch(1);
+        Laptop laptop = new Generator().NewLaptop();
+        LaptopStore endless = new InMemoryLaptopStore() {
+            @Override
+            public void Search(Context ctx, Filter filter, LaptopStream stream) {
+                while (!ctx.isCancelled()) {
+                    stream.Send(laptop);
+                }
+                stopped.countDown();
+            }
+        };
+        LaptopStore broken = new InMemoryLaptopStore() {
+            @Override
+            public void Search(Context ctx, Filter filter, LaptopStream stream) {
+                throw new IllegalStateException("shard is down");
+            }
+        };
+        ShardedLaptopStore store = new ShardedLaptopStore(List.of(endless, broken));
+
+        StoreUnavailableException e = assertThrows(StoreUnavailableException.class, () -> search(store, ALL));
+        assertTrue(e.getMessage().contains("shard is down"), e.getMessage());
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+
+        EmbeddedLaptopServer server = new EmbeddedLaptopServer(
+                new ShardedLaptopStore(List.of(new InMemoryLaptopStore(), broken)), new DiskImageStore("tmp"), new InMemoryRatingStore());
+        server.start();
+        ManagedChannel channel = server.newChannel();
+        try {
+            Iterator<SearchLaptopResponse> responses = LaptopServiceGrpc.newBlockingStub(channel)
+                    .searchLaptop(SearchLaptopRequest.newBuilder().setFilter(ALL).build());
+            StatusRuntimeException status = assertThrows(StatusRuntimeException.class, responses::hasNext);
+            assertEquals(Status.Code.UNAVAILABLE, status.getStatus().getCode());
+        } finally {
+            channel.shutdownNow();
+            server.stop();
+        }
+    }
+
+    private static List<Laptop> save(int count, LaptopStore... stores) throws Exception {
+        Generator generator = new Generator(11);
+        List<Laptop> laptops = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Laptop laptop = generator.NewLaptop();
+            for (LaptopStore store : stores) {
+                store.Save(laptop);
+            }
+            laptops.add(laptop);
+        }
+        return laptops;
+    }
+
+    private static Set<Laptop> search(LaptopStore store, Filter filter) {
+        Set<Laptop> found = new HashSet<>();
+        store.Search(Context.ROOT, filter, found::add);
+        return found;
+    }
+}
@@ -0,0 +1,86 @@
+package com.wong.grpc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UUIDHashMapTest {
+
+    @Test
+    void concurrentWritersAndReadersSeeEveryEntry() throws Exception {
+        UUIDHashMap<String> map = new UUIDHashMap<>();
+        int threads = 4;
+        int perThread = 20_000;
+        List<List<UUID>> keys = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            List<UUID> own = new ArrayList<>();
+            for (int i = 0; i < perThread; i++) {
+                own.add(UUID.randomUUID());
+            }
+            keys.add(own);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<UUID> own : keys) {
+                futures.add(executor.submit(() -> {
+                    for (UUID key : own) {
+                        assertNull(map.putIfAbsent(key.getMostSignificantBits(), key.getLeastSignificantBits(), key.toString()));
+                        // a key is visible to its writer right away, while the tables grow under other writers
+                        assertEquals(key.toString(), map.get(key.getMostSignificantBits(), key.getLeastSignificantBits()));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(threads * perThread, map.size());
+        Set<String> values = new HashSet<>();
+        map.values().forEach(values::add);
+        assertEquals(threads * perThread, values.size());
+        for (List<UUID> own : keys) {
+            for (UUID key : own) {
+                assertEquals(key.toString(), map.get(key.getMostSignificantBits(), key.getLeastSignificantBits()));
+            }
+        }
+        assertNull(map.get(0, 0));
+    }
+
+    @Test
+    void putAndComputeReplaceValues() {
+        UUIDHashMap<Integer> map = new UUIDHashMap<>();
+        assertNull(map.put(1, 2, 10));
+        assertEquals(10, map.put(1, 2, 20));
+        assertEquals(21, map.compute(1, 2, old -> old + 1));
+        assertEquals(5, map.compute(2, 1, old -> old == null ? 5 : old));
+        assertEquals(21, map.putIfAbsent(1, 2, 30));
+        assertEquals(2, map.size());
+        assertThrows(NullPointerException.class, () -> map.compute(3, 3, old -> null));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void uuidStringsParseLikeUUID() {
+        for (int i = 0; i < 1_000; i++) {
+            UUID uuid = UUID.randomUUID();
+            String id = i % 2 == 0 ? uuid.toString() : uuid.toString().toUpperCase();
+            assertTrue(Uuids.isValid(id));
+            assertEquals(uuid.getMostSignificantBits(), Uuids.mostSignificantBits(id));
+            assertEquals(uuid.getLeastSignificantBits(), Uuids.leastSignificantBits(id));
+        }
+        assertFalse(Uuids.isValid(""));
+        assertFalse(Uuids.isValid("unknown"));
+        assertFalse(Uuids.isValid("0000000000000-4000-8000-000000000000"));
+        assertFalse(Uuids.isValid("00000000-0000-4000-8000-00000000000g"));
+    }
+}
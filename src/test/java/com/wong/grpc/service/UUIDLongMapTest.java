@@ -0,0 +1,42 @@
+package com.wong.grpc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UUIDLongMapTest {
+
+    @Test
+    void entriesSurviveGrowingAndCanBeReplaced() {
+        UUIDLongMap map = new UUIDLongMap();
+        List<UUID> keys = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            UUID key = UUID.randomUUID();
+            keys.add(key);
+            map.put(key.getMostSignificantBits(), key.getLeastSignificantBits(), i);
+        }
+
+        assertEquals(keys.size(), map.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i, map.get(keys.get(i).getMostSignificantBits(), keys.get(i).getLeastSignificantBits()));
+        }
+
+        UUID first = keys.get(0);
+        map.put(first.getMostSignificantBits(), first.getLeastSignificantBits(), 42L << 32);
+        assertEquals(42L << 32, map.get(first.getMostSignificantBits(), first.getLeastSignificantBits()));
+        assertEquals(keys.size(), map.size());
+    }
+
+    @Test
+    void theNilUUIDIsAKeyLikeAnyOther() {
+        UUIDLongMap map = new UUIDLongMap();
+        assertEquals(UUIDLongMap.ABSENT, map.get(0, 0));
+        map.put(0, 0, 0);
+        assertEquals(0, map.get(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> map.put(1, 1, -1));
+    }
+}